@@ -17,11 +17,14 @@
 
 package org.springframework.security.saml;
 
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.MessageHeader;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 
 public interface SamlTransformer {
 
@@ -35,6 +38,15 @@ public interface SamlTransformer {
 	 */
 	String toXml(Saml2Object saml2Object);
 
+	/**
+	 * Serializes a SAML object as UTF-8 XML directly into a stream, without an intermediate string.
+	 * If the object contains signing keys, the XML object will be signed prior to serialization.
+	 *
+	 * @param saml2Object - object to be converted to XML
+	 * @param out - destination of the XML, not closed
+	 */
+	void toXml(Saml2Object saml2Object, OutputStream out);
+
 	/**
 	 * Converts an SAML/XML string into a Java object
 	 *
@@ -71,6 +83,30 @@ public interface SamlTransformer {
 	 */
 	Saml2Object fromXml(byte[] xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys);
 
+	/**
+	 * Reads the root element type, ID, InResponseTo, Destination, IssueInstant and Issuer of a message
+	 * with a streaming parser, without building an object model.
+	 * The values are not verified, they can be used to route or reject a message before it is parsed.
+	 *
+	 * @param xml the XML representation of the message
+	 * @return the message header
+	 */
+	MessageHeader sniff(byte[] xml);
+
+	/**
+	 * Verifies the signatures of an object previously returned by fromXml without verification keys.
+	 * The parsed XML held by the object is reused, so a message whose verification keys depend on its issuer
+	 * is only parsed, decrypted and converted once.
+	 *
+	 * @param saml2Object      the object returned by fromXml
+	 * @param verificationKeys the keys to verify the signatures with.
+	 *                         The implementation will attempt each key until one succeeds
+	 * @return the same object with validated signatures set
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if signature validation
+	 *                                                                              fails
+	 */
+	<T extends Saml2Object> T verifySignatures(T saml2Object, List<SimpleKey> verificationKeys);
+
 	/**
 	 * Deflates and base64 encodes the SAML message readying it for transport.
 	 * If the result is used as a query parameter, it still has to be URL encoded.
@@ -81,6 +117,15 @@ public interface SamlTransformer {
 	 */
 	String samlEncode(String s, boolean deflate);
 
+	/**
+	 * Serializes a SAML object, deflates it (optionally) and base64 encodes it directly into a stream.
+	 *
+	 * @param saml2Object - object to be converted to XML
+	 * @param deflate     - if set to true the DEFLATE encoding will be applied
+	 * @param out         - destination of the encoded message, not closed
+	 */
+	void samlEncode(Saml2Object saml2Object, boolean deflate, OutputStream out);
+
 	/**
 	 * base64 decodes and inflates the SAML message.
 	 *
@@ -90,4 +135,45 @@ public interface SamlTransformer {
 	 */
 	String samlDecode(String s, boolean inflate);
 
+	/**
+	 * base64 decodes and inflates the SAML message without converting it to a string.
+	 * The decoded and inflated sizes are bounded by the implementation.
+	 *
+	 * @param s       base64 encoded, optionally deflated, message
+	 * @param inflate - if set to true the value will be inflated
+	 * @return the UTF-8 encoded XML
+	 */
+	byte[] samlDecodeToBytes(String s, boolean inflate);
+
+	/**
+	 * Signs raw bytes with a detached signature, as used by the HTTP-Redirect binding
+	 *
+	 * @param data      - the bytes to be signed
+	 * @param key       - the signing key
+	 * @param algorithm - the signature algorithm
+	 * @return the signature value
+	 */
+	byte[] sign(byte[] data, SimpleKey key, AlgorithmMethod algorithm);
+
+	/**
+	 * Verifies a detached signature over raw bytes, as used by the HTTP-Redirect binding
+	 *
+	 * @param data        - the bytes that were signed
+	 * @param signature   - the signature value
+	 * @param algorithm   - the signature algorithm
+	 * @param trustedKeys - candidate verification keys, tried in order
+	 * @return the key that validated the signature
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if no key validates
+	 */
+	SimpleKey verify(byte[] data, byte[] signature, AlgorithmMethod algorithm, List<SimpleKey> trustedKeys);
+
+	/**
+	 * Resolves and caches the key material for the given keys, so that the first message
+	 * signed or decrypted with them does not pay for key parsing.
+	 *
+	 * @param keys - the keys to prepare
+	 */
+	default void preloadKeys(List<SimpleKey> keys) {
+	}
+
 }
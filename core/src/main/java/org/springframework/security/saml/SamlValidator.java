@@ -21,6 +21,7 @@ import java.util.List;
 
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.saml2.MessageHeader;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.signature.Signature;
 import org.springframework.security.saml.saml2.signature.SignatureException;
@@ -47,4 +48,17 @@ public interface SamlValidator {
 	 */
 	void validate(Saml2Object saml2Object, HostedProviderService provider) throws ValidationException;
 
+	/**
+	 * Performs the checks that only need the message header, before the message is parsed,
+	 * decrypted and its signatures verified. The header values are not yet trusted, so this can only
+	 * reject messages, the object validation still has to run on the parsed message.
+	 *
+	 * @param header   the header read from the raw message
+	 * @param provider the object used to resolve metadata
+	 * @throws ValidationException if the message can be rejected without parsing it
+	 */
+	default void validate(MessageHeader header, HostedProviderService provider) throws ValidationException {
+	}
+
+
 }
@@ -20,6 +20,7 @@ package org.springframework.security.saml.key;
 public class SimpleKey implements Cloneable {
 
 	private String name;
+	private String alias;
 	private String privateKey;
 	private String certificate;
 	private String passphrase;
@@ -49,6 +50,22 @@ public class SimpleKey implements Cloneable {
 		return this;
 	}
 
+	/**
+	 * @return the alias of the key's entry in its key store, the name unless the key was derived from another key
+	 */
+	public String getAlias() {
+		return alias == null ? name : alias;
+	}
+
+	/**
+	 * @param alias - the alias of the key's entry in its key store, null to use the name
+	 * @return this object
+	 */
+	public SimpleKey setAlias(String alias) {
+		this.alias = alias;
+		return this;
+	}
+
 	public KeyType getType() {
 		return type;
 	}
@@ -58,8 +75,15 @@ public class SimpleKey implements Cloneable {
 		return this;
 	}
 
-	public SimpleKey clone(String alias, KeyType type) {
-		return new SimpleKey(alias, getPrivateKey(), getCertificate(), getPassphrase(), type);
+	/**
+	 * Creates a copy of this key under a new name and usage that keeps referring to the same key store entry
+	 * @param name - the name of the copy
+	 * @param type - the usage of the copy
+	 * @return the copy
+	 */
+	public SimpleKey clone(String name, KeyType type) {
+		return new SimpleKey(name, getPrivateKey(), getCertificate(), getPassphrase(), type)
+			.setAlias(getAlias());
 	}
 
 	public String getPrivateKey() {
@@ -17,10 +17,14 @@
 
 package org.springframework.security.saml.provider;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
@@ -33,24 +37,31 @@ import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
+import org.springframework.security.saml.provider.config.KeyRing;
 import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
+import org.springframework.security.saml.saml2.MessageHeader;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
 import org.springframework.security.saml.saml2.authentication.Issuer;
 import org.springframework.security.saml.saml2.authentication.LogoutRequest;
 import org.springframework.security.saml.saml2.authentication.LogoutResponse;
 import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
 import org.springframework.security.saml.saml2.authentication.Status;
 import org.springframework.security.saml.saml2.authentication.StatusCode;
+import org.springframework.security.saml.saml2.authentication.StatusResponse;
 import org.springframework.security.saml.saml2.metadata.Binding;
 import org.springframework.security.saml.saml2.metadata.Endpoint;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.Metadata;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.SsoProvider;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
 import org.springframework.security.saml.saml2.signature.Signature;
 import org.springframework.security.saml.saml2.signature.SignatureException;
 import org.springframework.security.saml.validation.ValidationException;
 import org.springframework.security.saml.validation.ValidationResult;
+import org.springframework.web.util.UriUtils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -58,6 +69,7 @@ import org.joda.time.DateTime;
 
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
+import static org.springframework.util.StringUtils.hasText;
 
 public abstract class AbstractHostedProviderService<
 	Configuration extends LocalProviderConfiguration,
@@ -66,6 +78,9 @@ public abstract class AbstractHostedProviderService<
 	implements HostedProviderService<Configuration, LocalMetadata, RemoteMetadata> {
 
 	private static Log logger = LogFactory.getLog(AbstractHostedProviderService.class);
+	private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteArrayOutputStream> encodingBuffers =
+		ThreadLocal.withInitial(() -> new ByteArrayOutputStream(4096));
 
 	private final Configuration configuration;
 	private final LocalMetadata metadata;
@@ -73,6 +88,7 @@ public abstract class AbstractHostedProviderService<
 	private final SamlValidator validator;
 	private final SamlMetadataCache cache;
 	private Clock clock = Clock.systemUTC();
+	private KeyRing keyRing;
 
 	public AbstractHostedProviderService(Configuration configuration,
 										 LocalMetadata metadata,
@@ -95,6 +111,22 @@ public abstract class AbstractHostedProviderService<
 		return this;
 	}
 
+	/**
+	 * @return the key ring the local metadata was built with,
+	 * or the current key ring of the configuration if none was set
+	 */
+	public KeyRing getKeyRing() {
+		if (keyRing == null && getConfiguration().getKeys() != null) {
+			return getConfiguration().getKeys().getKeyRing();
+		}
+		return keyRing;
+	}
+
+	public AbstractHostedProviderService<Configuration, LocalMetadata, RemoteMetadata> setKeyRing(KeyRing keyRing) {
+		this.keyRing = keyRing;
+		return this;
+	}
+
 	public SamlMetadataCache getCache() {
 		return cache;
 	}
@@ -296,27 +328,99 @@ public abstract class AbstractHostedProviderService<
 
 	@Override
 	public <T extends Saml2Object> T fromXml(String xml, boolean encoded, boolean deflated, Class<T> type) {
-		List<SimpleKey> decryptionKeys = getConfiguration().getKeys().toList();
-		if (encoded) {
-			xml = getTransformer().samlDecode(xml, deflated);
-		}
-		Saml2Object result = type.cast(getTransformer().fromXml(xml, null, decryptionKeys));
+		byte[] data = encoded ?
+			getTransformer().samlDecodeToBytes(xml, deflated) :
+			xml.getBytes(StandardCharsets.UTF_8);
+		return fromXml(data, type);
+	}
+
+	protected <T extends Saml2Object> T fromXml(byte[] data, Class<T> type) {
+		List<SimpleKey> decryptionKeys = getKeyRing().getLocalKeys();
+		RemoteMetadata remote = validateHeader(data);
+		T result = type.cast(getTransformer().fromXml(data, null, decryptionKeys));
 		//in order to add signatures, we need the verification keys from the remote provider
-		RemoteMetadata remote = getRemoteProvider(result);
-		List verificationKeys = remote.getSsoProviders().get(0).getKeys();
-		//perform transformation with verification keys
-		return type.cast(getTransformer().fromXml(xml, verificationKeys, decryptionKeys));
+		if (remote == null) {
+			remote = getRemoteProvider(result);
+		}
+		List<SimpleKey> verificationKeys = remote.getSsoProviders().get(0).getKeys();
+		//verify the signatures on the already parsed object
+		return getTransformer().verifySignatures(result, verificationKeys);
+	}
+
+	/**
+	 * Rejects unknown issuers and stale, misdirected or replayed messages before any DOM work
+	 * @param data - the raw message
+	 * @return the remote provider that issued the message, or null if the message has no issuer
+	 */
+	protected RemoteMetadata validateHeader(byte[] data) {
+		MessageHeader header = getTransformer().sniff(data);
+		RemoteMetadata remote = hasText(header.getIssuer()) ? getRemoteProvider(header.getIssuer()) : null;
+		if (getValidator() != null) {
+			getValidator().validate(header, this);
+		}
+		return remote;
 	}
 
 	@Override
 	public String toXml(Saml2Object saml2Object) {
-		return getTransformer().toXml(saml2Object);
+		KeyRing ring = getKeyRing();
+		if (ring == null) {
+			return getTransformer().toXml(saml2Object);
+		}
+		//hold the key ring so that a rotation waits for this signature
+		KeyRing.Lease lease = ring.acquire();
+		try {
+			return getTransformer().toXml(saml2Object);
+		} finally {
+			lease.close();
+		}
+	}
+
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		KeyRing ring = getKeyRing();
+		if (ring == null) {
+			getTransformer().toXml(saml2Object, out);
+			return;
+		}
+		KeyRing.Lease lease = ring.acquire();
+		try {
+			getTransformer().toXml(saml2Object, out);
+		} finally {
+			lease.close();
+		}
 	}
 
 	@Override
 	public String toEncodedXml(Saml2Object saml2Object, boolean deflate) {
-		String xml = toXml(saml2Object);
-		return toEncodedXml(xml, deflate);
+		ByteArrayOutputStream buffer = encodingBuffers.get();
+		buffer.reset();
+		try {
+			toEncodedXml(saml2Object, deflate, buffer);
+			return buffer.toString(StandardCharsets.US_ASCII.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new SamlException(e);
+		} finally {
+			//do not pin the memory of an unusually large message to the thread
+			if (buffer.size() > MAX_POOLED_BUFFER_SIZE) {
+				encodingBuffers.remove();
+			}
+		}
+	}
+
+	@Override
+	public void toEncodedXml(Saml2Object saml2Object, boolean deflate, OutputStream out) {
+		KeyRing ring = getKeyRing();
+		if (ring == null) {
+			getTransformer().samlEncode(saml2Object, deflate, out);
+			return;
+		}
+		KeyRing.Lease lease = ring.acquire();
+		try {
+			getTransformer().samlEncode(saml2Object, deflate, out);
+		} finally {
+			lease.close();
+		}
 	}
 
 	@Override
@@ -324,6 +428,176 @@ public abstract class AbstractHostedProviderService<
 		return getTransformer().samlEncode(xml, deflate);
 	}
 
+	@Override
+	public String toRedirectUrl(Saml2Object saml2Object, String location, String paramName, String relayState) {
+		SimpleKey signingKey = null;
+		AlgorithmMethod algorithm = null;
+		DigestMethod digest = null;
+		if (saml2Object instanceof AuthenticationRequest) {
+			AuthenticationRequest request = (AuthenticationRequest) saml2Object;
+			signingKey = request.getSigningKey();
+			algorithm = request.getAlgorithm();
+			digest = request.getDigest();
+		}
+		else if (saml2Object instanceof LogoutRequest) {
+			LogoutRequest request = (LogoutRequest) saml2Object;
+			signingKey = request.getSigningKey();
+			algorithm = request.getAlgorithm();
+			digest = request.getDigest();
+		}
+		else if (saml2Object instanceof StatusResponse) {
+			StatusResponse<?> response = (StatusResponse<?>) saml2Object;
+			signingKey = response.getSigningKey();
+			algorithm = response.getAlgorithm();
+			digest = response.getDigest();
+		}
+		if (signingKey == null || algorithm == null) {
+			return toRedirectUrl(location, paramName, toEncodedXml(saml2Object, true), relayState, null, null);
+		}
+		//the redirect binding carries the signature in the query string, not in the XML
+		setSigningKey(saml2Object, null, null, null);
+		String encoded;
+		try {
+			encoded = toEncodedXml(saml2Object, true);
+		} finally {
+			setSigningKey(saml2Object, signingKey, algorithm, digest);
+		}
+		KeyRing ring = getKeyRing();
+		if (ring == null) {
+			return toRedirectUrl(location, paramName, encoded, relayState, signingKey, algorithm);
+		}
+		KeyRing.Lease lease = ring.acquire();
+		try {
+			return toRedirectUrl(location, paramName, encoded, relayState, signingKey, algorithm);
+		} finally {
+			lease.close();
+		}
+	}
+
+	protected String toRedirectUrl(String location,
+								   String paramName,
+								   String encoded,
+								   String relayState,
+								   SimpleKey signingKey,
+								   AlgorithmMethod algorithm) {
+		StringBuilder query = new StringBuilder(paramName).append('=').append(urlEncode(encoded));
+		if (hasText(relayState)) {
+			query.append("&RelayState=").append(urlEncode(relayState));
+		}
+		if (signingKey != null) {
+			query.append("&SigAlg=").append(urlEncode(algorithm.toString()));
+			byte[] signature = getTransformer().sign(
+				query.toString().getBytes(StandardCharsets.UTF_8),
+				signingKey,
+				algorithm
+			);
+			query.append("&Signature=").append(urlEncode(Base64.getEncoder().encodeToString(signature)));
+		}
+		return location + (location.contains("?") ? "&" : "?") + query;
+	}
+
+	@Override
+	public <T extends Saml2Object> T fromRedirect(String queryString, String paramName, Class<T> type) {
+		String message = null, relayState = null, sigAlg = null, signature = null;
+		if (queryString != null) {
+			for (String pair : queryString.split("&")) {
+				int index = pair.indexOf('=');
+				String name = index < 0 ? pair : pair.substring(0, index);
+				String value = index < 0 ? "" : pair.substring(index + 1);
+				if (paramName.equals(name)) {
+					message = value;
+				}
+				else if ("RelayState".equals(name)) {
+					relayState = value;
+				}
+				else if ("SigAlg".equals(name)) {
+					sigAlg = value;
+				}
+				else if ("Signature".equals(name)) {
+					signature = value;
+				}
+			}
+		}
+		if (!hasText(message)) {
+			throw new SamlException("Missing " + paramName + " query parameter.");
+		}
+		byte[] xml = getTransformer().samlDecodeToBytes(urlDecode(message), true);
+		if (!hasText(signature)) {
+			return fromXml(xml, type);
+		}
+		if (!hasText(sigAlg)) {
+			throw new SignatureException("Missing SigAlg query parameter for a signed redirect message.");
+		}
+		RemoteMetadata remote = validateHeader(xml);
+		List<SimpleKey> decryptionKeys = getKeyRing().getLocalKeys();
+		T result = type.cast(getTransformer().fromXml(xml, null, decryptionKeys));
+		if (remote == null) {
+			remote = getRemoteProvider(result);
+		}
+		List<SimpleKey> verificationKeys = remote.getSsoProviders().get(0).getKeys();
+		//the signature covers the query values exactly as they were received
+		StringBuilder signed = new StringBuilder(paramName).append('=').append(message);
+		if (relayState != null) {
+			signed.append("&RelayState=").append(relayState);
+		}
+		signed.append("&SigAlg=").append(sigAlg);
+		AlgorithmMethod algorithm = AlgorithmMethod.fromUrn(urlDecode(sigAlg));
+		if (algorithm == null) {
+			throw new SignatureException("Unsupported signature algorithm:" + urlDecode(sigAlg));
+		}
+		SimpleKey key = getTransformer().verify(
+			signed.toString().getBytes(StandardCharsets.UTF_8),
+			Base64.getMimeDecoder().decode(urlDecode(signature)),
+			algorithm,
+			verificationKeys
+		);
+		Signature validated = new Signature()
+			.setSignatureAlgorithm(algorithm)
+			.setValidated(true)
+			.setValidatingKey(key);
+		if (result instanceof AuthenticationRequest) {
+			((AuthenticationRequest) result).setSignature(validated);
+		}
+		else if (result instanceof LogoutRequest) {
+			((LogoutRequest) result).setSignature(validated);
+		}
+		else if (result instanceof StatusResponse) {
+			((StatusResponse) result).setSignature(validated);
+		}
+		return result;
+	}
+
+	private void setSigningKey(Saml2Object saml2Object,
+							   SimpleKey signingKey,
+							   AlgorithmMethod algorithm,
+							   DigestMethod digest) {
+		if (saml2Object instanceof AuthenticationRequest) {
+			((AuthenticationRequest) saml2Object).setSigningKey(signingKey, algorithm, digest);
+		}
+		else if (saml2Object instanceof LogoutRequest) {
+			((LogoutRequest) saml2Object).setSigningKey(signingKey, algorithm, digest);
+		}
+		else if (saml2Object instanceof StatusResponse) {
+			((StatusResponse) saml2Object).setSigningKey(signingKey, algorithm, digest);
+		}
+	}
+
+	private static String urlEncode(String value) {
+		try {
+			return UriUtils.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	private static String urlDecode(String value) {
+		try {
+			return UriUtils.decode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	@Override
 	public Endpoint getPreferredEndpoint(List<Endpoint> endpoints,
 										 Binding preferredBinding,
@@ -17,6 +17,7 @@
 
 package org.springframework.security.saml.provider;
 
+import java.io.OutputStream;
 import java.util.List;
 
 import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
@@ -63,6 +64,43 @@ public interface HostedProviderService<
 
 	String toEncodedXml(String xml, boolean deflate);
 
+	/**
+	 * Serializes the object as UTF-8 XML directly into the stream.
+	 * @param saml2Object - object to be converted to XML
+	 * @param out - destination of the XML, not closed
+	 */
+	void toXml(Saml2Object saml2Object, OutputStream out);
+
+	/**
+	 * Serializes, optionally deflates, and base64 encodes the object directly into the stream.
+	 * @param saml2Object - object to be converted to XML
+	 * @param deflate - true to apply the DEFLATE encoding
+	 * @param out - destination of the encoded message, not closed
+	 */
+	void toEncodedXml(Saml2Object saml2Object, boolean deflate, OutputStream out);
+
+	/**
+	 * Builds an HTTP-Redirect binding URL for the object.
+	 * If the object carries a signing key, the message is signed with a detached query string signature
+	 * instead of an enveloped XML signature.
+	 * @param saml2Object - the request or response to send
+	 * @param location - the endpoint location
+	 * @param paramName - SAMLRequest or SAMLResponse
+	 * @param relayState - optional relay state
+	 * @return the URL to redirect to
+	 */
+	String toRedirectUrl(Saml2Object saml2Object, String location, String paramName, String relayState);
+
+	/**
+	 * Parses a message received over the HTTP-Redirect binding.
+	 * A detached query string signature is verified against the raw query values, without any XML-DSig work.
+	 * @param queryString - the raw, still URL encoded, query string
+	 * @param paramName - SAMLRequest or SAMLResponse
+	 * @param type - the expected object type
+	 * @return the parsed object
+	 */
+	<T extends Saml2Object> T fromRedirect(String queryString, String paramName, Class<T> type);
+
 	Endpoint getPreferredEndpoint(List<Endpoint> endpoints,
 								  Binding preferredBinding,
 								  int preferredIndex);
@@ -18,24 +18,40 @@
 package org.springframework.security.saml.provider;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.security.saml.SamlRequestMatcher;
+import org.springframework.security.saml.provider.config.KeyRing;
+import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.saml2.metadata.Metadata;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
 import static org.springframework.http.MediaType.TEXT_XML_VALUE;
+import static org.springframework.util.ObjectUtils.nullSafeEquals;
 
 public class SamlMetadataFilter<ProviderType extends HostedProviderService> extends SamlFilter<ProviderType> {
 
 	private final RequestMatcher requestMatcher;
 	private final String filename;
+	private int metadataCacheSize = 64;
+	//access ordered, the least recently served entity is dropped first
+	private final Map<String, SignedMetadata> signedMetadata =
+		new LinkedHashMap<String, SignedMetadata>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SignedMetadata> eldest) {
+				return size() > getMetadataCacheSize();
+			}
+		};
 
 	public SamlMetadataFilter(SamlProviderProvisioning<ProviderType> provisioning) {
 		this(provisioning, "saml-metadata.xml");
@@ -63,19 +79,75 @@ public class SamlMetadataFilter<ProviderType extends HostedProviderService> exte
 		throws ServletException, IOException {
 		if (getRequestMatcher().matches(request)) {
 			ProviderType provider = getProvisioning().getHostedProvider();
-			Metadata metadata = provider.getMetadata();
-			String xml = provider.toXml(metadata);
 			getCacheHeaderWriter().writeHeaders(request, response);
 			response.setContentType(TEXT_XML_VALUE);
+			response.setCharacterEncoding(UTF_8.name());
 			String safeFilename = URLEncoder.encode(getFilename(), "ISO-8859-1");
 			response.addHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + safeFilename + "\"" + ";");
-			response.getWriter().write(xml);
+			writeMetadata(provider, response.getOutputStream());
 		}
 		else {
 			filterChain.doFilter(request, response);
 		}
 	}
 
+	/**
+	 * Writes the hosted provider's metadata as UTF-8 XML. Unsigned metadata is serialized
+	 * straight into the stream, signed metadata is written from the cache.
+	 * @param provider - the hosted provider
+	 * @param out - the response stream
+	 * @throws IOException if the stream can not be written to
+	 */
+	protected void writeMetadata(ProviderType provider, OutputStream out) throws IOException {
+		Metadata<?> metadata = provider.getMetadata();
+		KeyRing ring = provider instanceof AbstractHostedProviderService ?
+			((AbstractHostedProviderService) provider).getKeyRing() :
+			null;
+		if (ring == null || metadata.getSigningKey() == null) {
+			provider.toXml(metadata, out);
+		}
+		else {
+			out.write(getSignedMetadata(provider, metadata, ring).getBytes(UTF_8));
+		}
+	}
+
+	/**
+	 * Returns signed metadata, signing it only once per key ring and entity ID.
+	 * Metadata rendered for a different base path or alias is signed again and replaces the cached copy.
+	 * @param provider - the hosted provider
+	 * @param metadata - the metadata of the hosted provider
+	 * @param ring - the key ring the metadata is signed with
+	 * @return the signed metadata XML
+	 */
+	protected String getSignedMetadata(ProviderType provider, Metadata<?> metadata, KeyRing ring) {
+		LocalProviderConfiguration<?, ?> configuration = provider.getConfiguration();
+		SignedMetadata cached;
+		synchronized (signedMetadata) {
+			cached = signedMetadata.get(metadata.getEntityId());
+		}
+		if (cached != null && cached.matches(ring, configuration)) {
+			return cached.xml;
+		}
+		SignedMetadata rendered = new SignedMetadata(ring, configuration, provider.toXml(metadata));
+		synchronized (signedMetadata) {
+			signedMetadata.put(metadata.getEntityId(), rendered);
+		}
+		return rendered.xml;
+	}
+
+	public int getMetadataCacheSize() {
+		return metadataCacheSize;
+	}
+
+	/**
+	 * @param metadataCacheSize - the maximum number of hosted entities whose signed metadata is kept, 64 by default
+	 * @return this object
+	 */
+	public SamlMetadataFilter<ProviderType> setMetadataCacheSize(int metadataCacheSize) {
+		this.metadataCacheSize = metadataCacheSize;
+		return this;
+	}
+
 	private RequestMatcher getRequestMatcher() {
 		return requestMatcher;
 	}
@@ -84,4 +156,24 @@ public class SamlMetadataFilter<ProviderType extends HostedProviderService> exte
 		return filename;
 	}
 
+	private static class SignedMetadata {
+		private final KeyRing ring;
+		private final String basePath;
+		private final String alias;
+		private final String xml;
+
+		private SignedMetadata(KeyRing ring, LocalProviderConfiguration<?, ?> configuration, String xml) {
+			this.ring = ring;
+			this.basePath = configuration.getBasePath();
+			this.alias = configuration.getAlias();
+			this.xml = xml;
+		}
+
+		private boolean matches(KeyRing ring, LocalProviderConfiguration<?, ?> configuration) {
+			return this.ring == ring &&
+				nullSafeEquals(basePath, configuration.getBasePath()) &&
+				nullSafeEquals(alias, configuration.getAlias());
+		}
+	}
+
 }
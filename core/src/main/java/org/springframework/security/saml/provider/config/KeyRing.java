@@ -0,0 +1,150 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.key.SimpleKey;
+
+/**
+ * Immutable snapshot of a provider's keys, published by {@link RotatingKeys}.
+ * The key lists are computed once per snapshot, signers hold a {@link Lease} on the snapshot
+ * they sign with so that a rotation can wait for them to complete.
+ */
+public class KeyRing {
+
+	private final long version;
+	private final SimpleKey active;
+	private final List<SimpleKey> standBy;
+	private final List<SimpleKey> localKeys;
+	private final List<SimpleKey> metadataKeys;
+	private final Object drain = new Object();
+	private int inFlight = 0;
+
+	public KeyRing(long version, SimpleKey active, List<SimpleKey> standBy) {
+		this.version = version;
+		this.active = active;
+		this.standBy = Collections.unmodifiableList(new LinkedList<>(standBy));
+		List<SimpleKey> local = new LinkedList<>();
+		List<SimpleKey> published = new LinkedList<>();
+		if (active != null) {
+			local.add(active);
+			published.add(active);
+			published.add(active.clone(active.getName() + "-encryption", KeyType.ENCRYPTION));
+		}
+		local.addAll(this.standBy);
+		published.addAll(this.standBy);
+		this.localKeys = Collections.unmodifiableList(local);
+		this.metadataKeys = Collections.unmodifiableList(published);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public SimpleKey getActive() {
+		return active;
+	}
+
+	public List<SimpleKey> getStandBy() {
+		return standBy;
+	}
+
+	/**
+	 * @return the active key followed by the stand by keys, used for decryption
+	 */
+	public List<SimpleKey> getLocalKeys() {
+		return localKeys;
+	}
+
+	/**
+	 * @return the keys published in metadata, the active key, its encryption counterpart and the stand by keys
+	 */
+	public List<SimpleKey> getMetadataKeys() {
+		return metadataKeys;
+	}
+
+	public SimpleKey getKey(String name) {
+		for (SimpleKey key : localKeys) {
+			if (key.getName().equals(name)) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Marks the start of a signature made with this key ring.
+	 * @return a lease that must be closed once the signature is complete
+	 */
+	public Lease acquire() {
+		synchronized (drain) {
+			inFlight++;
+		}
+		return new Lease();
+	}
+
+	public int getInFlight() {
+		synchronized (drain) {
+			return inFlight;
+		}
+	}
+
+	/**
+	 * Waits for all leases on this key ring to be released.
+	 * @param timeout - maximum time to wait
+	 * @return true if no signatures are in flight
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitDrained(Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		synchronized (drain) {
+			while (inFlight > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				drain.wait(Math.max(1, remaining / 1000000));
+			}
+			return true;
+		}
+	}
+
+	public class Lease implements AutoCloseable {
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		public KeyRing getKeyRing() {
+			return KeyRing.this;
+		}
+
+		@Override
+		public void close() {
+			if (released.compareAndSet(false, true)) {
+				synchronized (drain) {
+					inFlight--;
+					drain.notifyAll();
+				}
+			}
+		}
+	}
+}
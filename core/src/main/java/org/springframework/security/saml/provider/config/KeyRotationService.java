@@ -0,0 +1,137 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.springframework.security.saml.SamlTransformer;
+import org.springframework.security.saml.key.SimpleKey;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Rotates the keys of a hosted provider without interrupting traffic.
+ * <ol>
+ *     <li>{@link #stage(RotatingKeys, SimpleKey)} publishes a new key as a stand by key, so that it is
+ *     advertised in metadata before it is used</li>
+ *     <li>{@link #promote(RotatingKeys, String)} makes a stand by key the active key, the previous active key
+ *     remains available as a stand by key, and waits for signatures made with the previous key ring to complete</li>
+ *     <li>{@link #retire(RotatingKeys, String)} removes a stand by key</li>
+ * </ol>
+ * Key material is parsed and cached before a key ring is published, so requests never pay for key parsing.
+ */
+public class KeyRotationService {
+
+	private static final Log logger = LogFactory.getLog(KeyRotationService.class);
+
+	private final SamlTransformer transformer;
+	private Duration drainTimeout = Duration.ofSeconds(30);
+
+	public KeyRotationService(SamlTransformer transformer) {
+		this.transformer = transformer;
+	}
+
+	public Duration getDrainTimeout() {
+		return drainTimeout;
+	}
+
+	public KeyRotationService setDrainTimeout(Duration drainTimeout) {
+		this.drainTimeout = drainTimeout;
+		return this;
+	}
+
+	public KeyRing stage(RotatingKeys keys, SimpleKey key) {
+		synchronized (keys) {
+			KeyRing current = keys.getKeyRing();
+			if (current.getKey(key.getName()) != null) {
+				throw new IllegalArgumentException("Key with name '" + key.getName() + "' already exists.");
+			}
+			List<SimpleKey> standBy = new LinkedList<>(current.getStandBy());
+			standBy.add(key);
+			return publish(keys, current.getActive(), standBy);
+		}
+	}
+
+	/**
+	 * Makes a stand by key the active key and waits for signatures made with the previous key ring.
+	 * The new key ring is published before the previous one is drained. While the previous ring is published
+	 * new signers keep leasing it, so draining it first could wait forever. Once the new ring is published
+	 * only signers that already read the previous ring can lease it, and the previous active key stays
+	 * published as a stand by key, so their signatures remain verifiable. When this method returns those
+	 * signatures are complete, or the drain timeout has passed, and the previous key can be retired.
+	 * @param keys - the keys of the hosted provider
+	 * @param name - the name of the stand by key to promote
+	 * @return the published key ring
+	 */
+	public KeyRing promote(RotatingKeys keys, String name) {
+		KeyRing previous;
+		KeyRing result;
+		synchronized (keys) {
+			previous = keys.getKeyRing();
+			SimpleKey promoted = null;
+			List<SimpleKey> standBy = new LinkedList<>();
+			if (previous.getActive() != null) {
+				standBy.add(previous.getActive());
+			}
+			for (SimpleKey key : previous.getStandBy()) {
+				if (key.getName().equals(name)) {
+					promoted = key;
+				}
+				else {
+					standBy.add(key);
+				}
+			}
+			if (promoted == null) {
+				throw new IllegalArgumentException("Stand by key with name '" + name + "' not found.");
+			}
+			result = publish(keys, promoted, standBy);
+		}
+		try {
+			if (!previous.awaitDrained(getDrainTimeout())) {
+				logger.warn("Signatures with key ring version " + previous.getVersion() +
+					" still in flight after " + getDrainTimeout());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	public KeyRing retire(RotatingKeys keys, String name) {
+		synchronized (keys) {
+			KeyRing current = keys.getKeyRing();
+			if (current.getActive() != null && current.getActive().getName().equals(name)) {
+				throw new IllegalArgumentException("Active key '" + name + "' can not be retired.");
+			}
+			List<SimpleKey> standBy = new LinkedList<>(current.getStandBy());
+			if (!standBy.removeIf(k -> k.getName().equals(name))) {
+				throw new IllegalArgumentException("Stand by key with name '" + name + "' not found.");
+			}
+			return publish(keys, current.getActive(), standBy);
+		}
+	}
+
+	protected KeyRing publish(RotatingKeys keys, SimpleKey active, List<SimpleKey> standBy) {
+		//parse the key material before any request can see it
+		transformer.preloadKeys(new KeyRing(0, active, standBy).getMetadataKeys());
+		return keys.publish(active, standBy);
+	}
+}
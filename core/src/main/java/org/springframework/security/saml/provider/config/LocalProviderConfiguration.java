@@ -41,6 +41,8 @@ public class LocalProviderConfiguration<
 	private List<NameId> nameIds = new LinkedList<>();
 	private AlgorithmMethod defaultSigningAlgorithm = AlgorithmMethod.RSA_SHA256;
 	private DigestMethod defaultDigest = DigestMethod.SHA256;
+	private List<AlgorithmMethod> signingMethods = new LinkedList<>();
+	private List<DigestMethod> digestMethods = new LinkedList<>();
 	private List<ExternalConfiguration> providers = new LinkedList<>();
 	private String basePath;
 
@@ -158,6 +160,34 @@ public class LocalProviderConfiguration<
 		return _this();
 	}
 
+	public List<AlgorithmMethod> getSigningMethods() {
+		return signingMethods;
+	}
+
+	/**
+	 * @param signingMethods - signature algorithms advertised in the metadata through the alg:SigningMethod
+	 *                       extension, none by default
+	 * @return this object
+	 */
+	public LocalConfiguration setSigningMethods(List<AlgorithmMethod> signingMethods) {
+		this.signingMethods = signingMethods;
+		return _this();
+	}
+
+	public List<DigestMethod> getDigestMethods() {
+		return digestMethods;
+	}
+
+	/**
+	 * @param digestMethods - digest algorithms advertised in the metadata through the alg:DigestMethod
+	 *                      extension, none by default
+	 * @return this object
+	 */
+	public LocalConfiguration setDigestMethods(List<DigestMethod> digestMethods) {
+		this.digestMethods = digestMethods;
+		return _this();
+	}
+
 	public String getBasePath() {
 		return basePath;
 	}
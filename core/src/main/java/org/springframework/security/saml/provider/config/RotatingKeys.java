@@ -17,16 +17,22 @@
 
 package org.springframework.security.saml.provider.config;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.security.saml.key.SimpleKey;
 
 import static org.springframework.util.StringUtils.hasText;
 
 public class RotatingKeys {
-	private SimpleKey active = null;
-	private List<SimpleKey> standBy = new LinkedList<>();
+	private volatile SimpleKey active = null;
+	private volatile List<SimpleKey> standBy = new LinkedList<>();
+	private final AtomicReference<Published> published = new AtomicReference<>();
+	private final AtomicLong versions = new AtomicLong();
 
 	public List<SimpleKey> toList() {
 		LinkedList<SimpleKey> result = new LinkedList<>();
@@ -55,4 +61,86 @@ public class RotatingKeys {
 		this.standBy = standBy;
 		return this;
 	}
+
+	/**
+	 * Returns the current immutable snapshot of the keys. A new snapshot is published
+	 * when the contents of the active key or of any stand by key differ from the published ones.
+	 * @return the current key ring
+	 */
+	public KeyRing getKeyRing() {
+		Published current = published.get();
+		SimpleKey a = active;
+		List<SimpleKey> s = new ArrayList<>(standBy);
+		if (current != null && current.matches(a, s)) {
+			return current.ring;
+		}
+		synchronized (published) {
+			current = published.get();
+			if (current != null && current.matches(a, s)) {
+				return current.ring;
+			}
+			KeyRing ring = new KeyRing(versions.incrementAndGet(), a, s);
+			published.set(new Published(ring, a, s));
+			return ring;
+		}
+	}
+
+	/**
+	 * Atomically replaces the keys with the given active and stand by keys
+	 * @param active - the new active key
+	 * @param standBy - the new stand by keys
+	 * @return the published key ring
+	 */
+	KeyRing publish(SimpleKey active, List<SimpleKey> standBy) {
+		synchronized (published) {
+			List<SimpleKey> s = new LinkedList<>(standBy);
+			KeyRing ring = new KeyRing(versions.incrementAndGet(), active, s);
+			this.active = active;
+			this.standBy = s;
+			published.set(new Published(ring, active, s));
+			return ring;
+		}
+	}
+
+	private static class Published {
+		private final KeyRing ring;
+		//copies, so that keys changed in place are detected
+		private final List<SimpleKey> keys = new ArrayList<>();
+
+		private Published(KeyRing ring, SimpleKey active, List<SimpleKey> standBy) {
+			this.ring = ring;
+			keys.add(copy(active));
+			for (SimpleKey key : standBy) {
+				keys.add(copy(key));
+			}
+		}
+
+		private boolean matches(SimpleKey active, List<SimpleKey> standBy) {
+			if (keys.size() != standBy.size() + 1 || !same(keys.get(0), active)) {
+				return false;
+			}
+			for (int i = 0; i < standBy.size(); i++) {
+				if (!same(keys.get(i + 1), standBy.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static SimpleKey copy(SimpleKey key) {
+			return key == null ? null : key.clone(key.getName(), key.getType());
+		}
+
+		private static boolean same(SimpleKey published, SimpleKey key) {
+			if (published == null || key == null) {
+				return published == key;
+			}
+			return Objects.equals(published.getName(), key.getName()) &&
+				Objects.equals(published.getAlias(), key.getAlias()) &&
+				published.getType() == key.getType() &&
+				Objects.equals(published.getCertificate(), key.getCertificate()) &&
+				Objects.equals(published.getPrivateKey(), key.getPrivateKey()) &&
+				Objects.equals(published.getPassphrase(), key.getPassphrase());
+		}
+	}
 }
@@ -18,8 +18,6 @@
 package org.springframework.security.saml.provider.identity;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -40,8 +38,6 @@ import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.validation.ValidationResult;
 import org.springframework.security.web.authentication.logout.LogoutHandler;
-import org.springframework.web.util.UriComponentsBuilder;
-import org.springframework.web.util.UriUtils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -111,18 +107,8 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 								  IdentityProviderService provider,
 								  Saml2Object lr,
 								  String location,
-								  String paramName)
-		throws UnsupportedEncodingException {
-		String xml = provider.toXml(lr);
-		String value = provider.toEncodedXml(xml, true);
-		UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(location);
-		String relayState = request.getParameter("RelayState");
-		if (hasText(relayState)) {
-			builder.queryParam("RelayState", UriUtils.encode(relayState, StandardCharsets.UTF_8.name()));
-		}
-		return builder.queryParam(paramName, UriUtils.encode(value, StandardCharsets.UTF_8.name()))
-			.build()
-			.toUriString();
+								  String paramName) {
+		return provider.toRedirectUrl(lr, location, paramName, request.getParameter("RelayState"));
 	}
 
 	public SamlProviderProvisioning<IdentityProviderService> getProvisioning() {
@@ -138,16 +124,16 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 										 Authentication authentication,
 										 String logoutRequestValue) throws IOException {
 		IdentityProviderService provider = provisioning.getHostedProvider();
-		LogoutRequest logoutRequest = provider.fromXml(
-			logoutRequestValue,
-			true,
-			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutRequest.class
-		);
+		boolean get = HttpMethod.GET.name().equalsIgnoreCase(request.getMethod());
+		LogoutRequest logoutRequest = get && hasText(request.getQueryString()) ?
+			provider.fromRedirect(request.getQueryString(), "SAMLRequest", LogoutRequest.class) :
+			provider.fromXml(logoutRequestValue, true, get, LogoutRequest.class);
 		ValidationResult validate = provider.validate(logoutRequest);
 		if (validate.hasErrors()) {
 			throw new SamlException(validate.toString());
 		}
+		//the request may be kept in the session, keep only what the retention policy asks for
+		logoutRequest.release();
 
 		logger.debug("Local IDP received logout request.");
 		//remove any assertions matching the sender from the store
@@ -178,14 +164,13 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 										  Authentication authentication,
 										  String logoutResponseValue) throws IOException {
 		IdentityProviderService provider = getProvisioning().getHostedProvider();
-		LogoutResponse logoutResponse = provider.fromXml(
-			logoutResponseValue,
-			true,
-			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutResponse.class
-		);
+		boolean get = HttpMethod.GET.name().equalsIgnoreCase(request.getMethod());
+		LogoutResponse logoutResponse = get && hasText(request.getQueryString()) ?
+			provider.fromRedirect(request.getQueryString(), "SAMLResponse", LogoutResponse.class) :
+			provider.fromXml(logoutResponseValue, true, get, LogoutResponse.class);
 		ValidationResult validate = provider.validate(logoutResponse);
 		//TODO what do we do with the validation result, we don't really care
+		logoutResponse.release();
 
 		if (getAssertionStore().hasMessages(request)) {
 			//send the next request
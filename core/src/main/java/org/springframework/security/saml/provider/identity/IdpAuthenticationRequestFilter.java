@@ -27,8 +27,13 @@ import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 
+import static org.springframework.util.StringUtils.hasText;
+
 public class IdpAuthenticationRequestFilter extends IdpInitiatedLoginFilter {
 
+	private static final String ATTRIBUTE_NAME =
+		"org.springframework.security.saml.provider.identity.IdpAuthenticationRequestFilter.authentication.request";
+
 	public IdpAuthenticationRequestFilter(SamlProviderProvisioning<IdentityProviderService> provisioning,
 										  SamlMessageStore<Assertion, HttpServletRequest> assertionStore) {
 		this(
@@ -49,18 +54,34 @@ public class IdpAuthenticationRequestFilter extends IdpInitiatedLoginFilter {
 		IdentityProviderService provider = getProvisioning().getHostedProvider();
 		AuthenticationRequest authn = getAuthenticationRequest(request);
 		provider.validate(authn);
+		//the request is kept until the response is sent, keep only what the retention policy asks for
+		authn.release();
 		return provider.getRemoteProvider(authn);
 	}
 
 	@Override
 	protected AuthenticationRequest getAuthenticationRequest(HttpServletRequest request) {
+		//the request is needed for the target provider and again for the response, parse it once
+		AuthenticationRequest result = (AuthenticationRequest) request.getAttribute(ATTRIBUTE_NAME);
+		if (result == null) {
+			result = parseAuthenticationRequest(request);
+			request.setAttribute(ATTRIBUTE_NAME, result);
+		}
+		return result;
+	}
+
+	protected AuthenticationRequest parseAuthenticationRequest(HttpServletRequest request) {
 		IdentityProviderService provider = getProvisioning().getHostedProvider();
+		boolean get = HttpMethod.GET.name().equalsIgnoreCase(request.getMethod());
+		if (get && hasText(request.getQueryString())) {
+			return provider.fromRedirect(request.getQueryString(), "SAMLRequest", AuthenticationRequest.class);
+		}
 		String param = request.getParameter("SAMLRequest");
 		return
 			provider.fromXml(
 				param,
 				true,
-				HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
+				get,
 				AuthenticationRequest.class
 			);
 	}
@@ -20,7 +20,6 @@ package org.springframework.security.saml.provider.provisioning;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
@@ -28,8 +27,8 @@ import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
-import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.config.KeyRing;
 import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
 import org.springframework.security.saml.provider.config.SamlConfigurationRepository;
 import org.springframework.security.saml.provider.identity.IdentityProviderService;
@@ -151,12 +150,9 @@ public abstract class AbstractHostbasedSamlProviderProvisioning {
 	protected ServiceProviderService getHostedServiceProvider(LocalServiceProviderConfiguration spConfig) {
 		String basePath = spConfig.getBasePath();
 
-		List<SimpleKey> keys = new LinkedList<>();
-		SimpleKey activeKey = spConfig.getKeys().getActive();
-		keys.add(activeKey);
-		keys.add(activeKey.clone(activeKey.getName() + "-encryption", KeyType.ENCRYPTION));
-		keys.addAll(spConfig.getKeys().getStandBy());
-		SimpleKey signingKey = spConfig.isSignMetadata() ? spConfig.getKeys().getActive() : null;
+		KeyRing ring = spConfig.getKeys().getKeyRing();
+		List<SimpleKey> keys = ring.getMetadataKeys();
+		SimpleKey signingKey = spConfig.isSignMetadata() ? ring.getActive() : null;
 
 		String prefix = hasText(spConfig.getPrefix()) ? spConfig.getPrefix() : "saml/sp/";
 		String aliasPath = getAliasPath(spConfig);
@@ -173,6 +169,8 @@ public abstract class AbstractHostbasedSamlProviderProvisioning {
 		if (!spConfig.getNameIds().isEmpty()) {
 			metadata.getServiceProvider().setNameIds(spConfig.getNameIds());
 		}
+		metadata.getServiceProvider().setSigningMethods(spConfig.getSigningMethods());
+		metadata.getServiceProvider().setDigestMethods(spConfig.getDigestMethods());
 
 		if (!spConfig.isSingleLogoutEnabled()) {
 			metadata.getServiceProvider().setSingleLogoutService(Collections.emptyList());
@@ -186,13 +184,15 @@ public abstract class AbstractHostbasedSamlProviderProvisioning {
 		metadata.getServiceProvider().setWantAssertionsSigned(spConfig.isWantAssertionsSigned());
 		metadata.getServiceProvider().setAuthnRequestsSigned(spConfig.isSignRequests());
 
-		return new HostedServiceProviderService(
+		HostedServiceProviderService result = new HostedServiceProviderService(
 			spConfig,
 			metadata,
 			getTransformer(),
 			getValidator(),
 			getCache()
 		);
+		result.setKeyRing(ring);
+		return result;
 	}
 
 	protected ServiceProviderMetadata serviceProviderMetadata(String baseUrl,
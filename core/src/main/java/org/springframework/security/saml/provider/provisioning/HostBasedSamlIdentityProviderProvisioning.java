@@ -18,14 +18,13 @@
 package org.springframework.security.saml.provider.provisioning;
 
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
-import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.config.KeyRing;
 import org.springframework.security.saml.provider.config.SamlConfigurationRepository;
 import org.springframework.security.saml.provider.identity.AssertionEnhancer;
 import org.springframework.security.saml.provider.identity.HostedIdentityProviderService;
@@ -66,12 +65,9 @@ public class HostBasedSamlIdentityProviderProvisioning
 	@Override
 	protected IdentityProviderService getHostedIdentityProvider(LocalIdentityProviderConfiguration idpConfig) {
 		String basePath = idpConfig.getBasePath();
-		List<SimpleKey> keys = new LinkedList<>();
-		SimpleKey activeKey = idpConfig.getKeys().getActive();
-		keys.add(activeKey);
-		keys.add(activeKey.clone(activeKey.getName()+"-encryption", KeyType.ENCRYPTION));
-		keys.addAll(idpConfig.getKeys().getStandBy());
-		SimpleKey signingKey = idpConfig.isSignMetadata() ? activeKey : null;
+		KeyRing ring = idpConfig.getKeys().getKeyRing();
+		List<SimpleKey> keys = ring.getMetadataKeys();
+		SimpleKey signingKey = idpConfig.isSignMetadata() ? ring.getActive() : null;
 
 		String prefix = hasText(idpConfig.getPrefix()) ? idpConfig.getPrefix() : "saml/idp/";
 		String aliasPath = getAliasPath(idpConfig);
@@ -89,6 +85,8 @@ public class HostBasedSamlIdentityProviderProvisioning
 		if (!idpConfig.getNameIds().isEmpty()) {
 			metadata.getIdentityProvider().setNameIds(idpConfig.getNameIds());
 		}
+		metadata.getIdentityProvider().setSigningMethods(idpConfig.getSigningMethods());
+		metadata.getIdentityProvider().setDigestMethods(idpConfig.getDigestMethods());
 
 		if (!idpConfig.isSingleLogoutEnabled()) {
 			metadata.getIdentityProvider().setSingleLogoutService(Collections.emptyList());
@@ -102,7 +100,7 @@ public class HostBasedSamlIdentityProviderProvisioning
 
 		metadata.getIdentityProvider().setWantAuthnRequestsSigned(idpConfig.isWantRequestsSigned());
 
-		return new HostedIdentityProviderService(
+		HostedIdentityProviderService result = new HostedIdentityProviderService(
 			idpConfig,
 			metadata,
 			getTransformer(),
@@ -111,6 +109,8 @@ public class HostBasedSamlIdentityProviderProvisioning
 			assertionEnhancer,
 			responseEnhancer
 		);
+		result.setKeyRing(ring);
+		return result;
 	}
 
 
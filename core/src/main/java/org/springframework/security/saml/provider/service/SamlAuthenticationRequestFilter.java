@@ -18,7 +18,6 @@
 package org.springframework.security.saml.provider.service;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -37,8 +36,6 @@ import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata
 import org.springframework.security.web.header.HeaderWriter;
 import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
 import org.springframework.security.web.util.matcher.RequestMatcher;
-import org.springframework.web.util.UriComponentsBuilder;
-import org.springframework.web.util.UriUtils;
 
 import static org.springframework.util.StringUtils.hasText;
 
@@ -110,13 +107,12 @@ public class SamlAuthenticationRequestFilter extends SamlFilter<ServiceProviderS
 		//TODO - send RelayState?
 		String relayState = getRelayState(provider, request);
 		if (location.getBinding().equals(Binding.REDIRECT)) {
-			String encoded = provider.toEncodedXml(authenticationRequest, true);
-			UriComponentsBuilder url = UriComponentsBuilder.fromUriString(location.getLocation());
-			url.queryParam("SAMLRequest", UriUtils.encode(encoded, StandardCharsets.UTF_8.name()));
-			if (hasText(relayState)) {
-				url.queryParam("RelayState", UriUtils.encode(relayState, StandardCharsets.UTF_8.name()));
-			}
-			String redirect = url.build(true).toUriString();
+			String redirect = provider.toRedirectUrl(
+				authenticationRequest,
+				location.getLocation(),
+				"SAMLRequest",
+				relayState
+			);
 			response.sendRedirect(redirect);
 		}
 		else if (location.getBinding().equals(Binding.POST)) {
@@ -32,6 +32,7 @@ import org.springframework.security.saml.provider.service.ServiceProviderService
 import org.springframework.security.saml.saml2.authentication.Response;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.spi.DefaultSamlAuthentication;
+import org.springframework.security.saml.validation.ValidationException;
 import org.springframework.security.saml.validation.ValidationResult;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
 import org.springframework.security.web.authentication.session.ChangeSessionIdAuthenticationStrategy;
@@ -80,7 +81,12 @@ public class SamlAuthenticationResponseFilter extends AbstractAuthenticationProc
 
 		ServiceProviderService provider = getProvisioning().getHostedProvider();
 
-		Response r = provider.fromXml(responseData, true, GET.matches(request.getMethod()), Response.class);
+		Response r;
+		try {
+			r = provider.fromXml(responseData, true, GET.matches(request.getMethod()), Response.class);
+		} catch (ValidationException x) {
+			throw new InsufficientAuthenticationException(x.getErrors().toString(), x);
+		}
 		if (logger.isTraceEnabled()) {
 			logger.trace("Received SAMLResponse XML:" + r.getOriginalXML());
 		}
@@ -100,7 +106,9 @@ public class SamlAuthenticationResponseFilter extends AbstractAuthenticationProc
 			provider.getMetadata().getEntityId(),
 			request.getParameter("RelayState")
 		);
-		authentication.setResponseXml(r.getOriginalXML());
+		//the authentication outlives the request, keep only what the retention policy asks for
+		r.release();
+		authentication.setRetainedResponseXml(r.getRetainedXML());
 
 		return getAuthenticationManager().authenticate(authentication);
 
@@ -18,8 +18,6 @@
 package org.springframework.security.saml.provider.service.authentication;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -38,8 +36,6 @@ import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.validation.ValidationResult;
 import org.springframework.security.web.authentication.logout.LogoutHandler;
-import org.springframework.web.util.UriComponentsBuilder;
-import org.springframework.web.util.UriUtils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -82,16 +78,15 @@ public class ServiceProviderLogoutHandler implements LogoutHandler {
 										 Authentication authentication,
 										 String logoutRequest) throws IOException {
 		ServiceProviderService provider = provisioning.getHostedProvider();
-		LogoutRequest lr = provider.fromXml(
-			logoutRequest,
-			true,
-			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutRequest.class
-		);
+		boolean get = HttpMethod.GET.name().equalsIgnoreCase(request.getMethod());
+		LogoutRequest lr = get && hasText(request.getQueryString()) ?
+			provider.fromRedirect(request.getQueryString(), "SAMLRequest", LogoutRequest.class) :
+			provider.fromXml(logoutRequest, true, get, LogoutRequest.class);
 		ValidationResult validate = provider.validate(lr);
 		if (validate.hasErrors()) {
 			throw new SamlException(validate.toString());
 		}
+		lr.release();
 
 		IdentityProviderMetadata idp = provider.getRemoteProvider(lr);
 		LogoutResponse logoutResponse = provider.logoutResponse(lr, idp);
@@ -151,16 +146,7 @@ public class ServiceProviderLogoutHandler implements LogoutHandler {
 								  Saml2Object lr,
 								  String location,
 								  String paramName,
-								  String relayState)
-		throws UnsupportedEncodingException {
-		String xml = provider.toXml(lr);
-		String value = provider.toEncodedXml(xml, true);
-		UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(location);
-		if (hasText(relayState)) {
-			builder.queryParam("RelayState", UriUtils.encode(relayState, StandardCharsets.UTF_8.name()));
-		}
-		return builder.queryParam(paramName, UriUtils.encode(value, StandardCharsets.UTF_8.name()))
-			.build()
-			.toUriString();
+								  String relayState) {
+		return provider.toRedirectUrl(lr, location, paramName, relayState);
 	}
 }
@@ -20,7 +20,9 @@ package org.springframework.security.saml.saml2;
 public abstract class ImplementationHolder implements Saml2Object {
 
 	private Object implementation;
-	private String originalXML;
+	private RetainedXml originalXML;
+	private XmlRetention retention = XmlRetention.FULL;
+	private boolean streamed = false;
 
 	public Object getImplementation() {
 		return implementation;
@@ -33,11 +35,63 @@ public abstract class ImplementationHolder implements Saml2Object {
 
 	@Override
 	public String getOriginalXML() {
-		return originalXML;
+		return originalXML == null ? null : originalXML.getXml();
 	}
 
 	public ImplementationHolder setOriginalXML(String originalXML) {
+		this.originalXML = RetainedXml.of(originalXML);
+		return this;
+	}
+
+	public RetainedXml getRetainedXML() {
+		return originalXML;
+	}
+
+	public ImplementationHolder setRetainedXML(RetainedXml originalXML) {
 		this.originalXML = originalXML;
 		return this;
 	}
+
+	public XmlRetention getRetention() {
+		return retention;
+	}
+
+	public ImplementationHolder setRetention(XmlRetention retention) {
+		this.retention = retention;
+		return this;
+	}
+
+	/**
+	 * Returns true if the object was read directly from the XML stream, in which case there is
+	 * no parsed XML object and no signature to verify.
+	 * @return true if no parsed XML object was created for this object
+	 */
+	public boolean isStreamed() {
+		return streamed;
+	}
+
+	public ImplementationHolder setStreamed(boolean streamed) {
+		this.streamed = streamed;
+		return this;
+	}
+
+	/**
+	 * Applies the retention policy, to be invoked by the caller once it no longer needs to verify
+	 * or validate the object. Unless the retention is {@link XmlRetention#FULL} the parsed XML object
+	 * is released, and with {@link XmlRetention#DROP_AFTER_VALIDATION} the original XML as well.
+	 * Signatures can not be verified on a released object.
+	 */
+	public void release() {
+		release(retention);
+	}
+
+	protected void release(XmlRetention retention) {
+		if (retention == XmlRetention.FULL) {
+			return;
+		}
+		implementation = null;
+		if (retention == XmlRetention.DROP_AFTER_VALIDATION) {
+			originalXML = null;
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2;
+
+import org.joda.time.DateTime;
+
+/**
+ * The routing attributes of an inbound message, read from the raw XML without building an object model.
+ * Values are unverified, they are only meant to reject or route a message before it is fully parsed.
+ */
+public class MessageHeader {
+
+	private String namespace;
+	private String type;
+	private String id;
+	private String inResponseTo;
+	private String destination;
+	private DateTime issueInstant;
+	private String issuer;
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public MessageHeader setNamespace(String namespace) {
+		this.namespace = namespace;
+		return this;
+	}
+
+	/**
+	 * @return the local name of the root element, for example Response or AuthnRequest
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public MessageHeader setType(String type) {
+		this.type = type;
+		return this;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public MessageHeader setId(String id) {
+		this.id = id;
+		return this;
+	}
+
+	public String getInResponseTo() {
+		return inResponseTo;
+	}
+
+	public MessageHeader setInResponseTo(String inResponseTo) {
+		this.inResponseTo = inResponseTo;
+		return this;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public MessageHeader setDestination(String destination) {
+		this.destination = destination;
+		return this;
+	}
+
+	public DateTime getIssueInstant() {
+		return issueInstant;
+	}
+
+	public MessageHeader setIssueInstant(DateTime issueInstant) {
+		this.issueInstant = issueInstant;
+		return this;
+	}
+
+	public String getIssuer() {
+		return issuer;
+	}
+
+	public MessageHeader setIssuer(String issuer) {
+		this.issuer = issuer;
+		return this;
+	}
+
+	public boolean isType(String namespace, String type) {
+		return namespace.equals(this.namespace) && type.equals(this.type);
+	}
+}
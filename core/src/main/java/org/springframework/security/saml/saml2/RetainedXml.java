@@ -0,0 +1,140 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+import org.springframework.security.saml.SamlException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The original XML of a message, kept in the form chosen by an {@link XmlRetention}.
+ */
+public final class RetainedXml implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String xml;
+	private final byte[] compressed;
+	private final String digest;
+
+	private RetainedXml(String xml, byte[] compressed, String digest) {
+		this.xml = xml;
+		this.compressed = compressed;
+		this.digest = digest;
+	}
+
+	public static RetainedXml of(String xml) {
+		return xml == null ? null : new RetainedXml(xml, null, null);
+	}
+
+	/**
+	 * @param xml - the original message bytes
+	 * @param retention - the form to keep
+	 * @return the retained XML, or null if nothing is kept
+	 */
+	public static RetainedXml of(byte[] xml, XmlRetention retention) {
+		switch (retention) {
+			case COMPRESSED:
+				return new RetainedXml(null, deflate(xml), digest(xml));
+			case DIGEST:
+				return new RetainedXml(null, null, digest(xml));
+			default:
+				return new RetainedXml(new String(xml, UTF_8), null, null);
+		}
+	}
+
+	/**
+	 * @return the original XML, or null if only a digest was kept
+	 */
+	public String getXml() {
+		if (xml != null) {
+			return xml;
+		}
+		return compressed == null ? null : inflate(compressed);
+	}
+
+	/**
+	 * @return the base64 encoded SHA-256 digest of the original XML
+	 */
+	public String getDigest() {
+		return digest != null ? digest : digest(xml.getBytes(UTF_8));
+	}
+
+	/**
+	 * @return an estimate of the heap held by the retained form
+	 */
+	public int getRetainedBytes() {
+		int result = digest == null ? 0 : digest.length() * 2;
+		if (xml != null) {
+			result += xml.length() * 2;
+		}
+		if (compressed != null) {
+			result += compressed.length;
+		}
+		return result;
+	}
+
+	private static String digest(byte[] xml) {
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(xml));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	private static byte[] deflate(byte[] xml) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length / 4);
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+			try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+				stream.write(xml);
+			} finally {
+				deflater.end();
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new SamlException("Unable to compress XML", e);
+		}
+	}
+
+	private static String inflate(byte[] compressed) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+			Inflater inflater = new Inflater(true);
+			try (InflaterOutputStream stream = new InflaterOutputStream(out, inflater)) {
+				stream.write(compressed);
+			} finally {
+				inflater.end();
+			}
+			return new String(out.toByteArray(), UTF_8);
+		} catch (IOException e) {
+			throw new SamlException("Unable to inflate XML", e);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2;
+
+/**
+ * How much of a parsed message is kept on the resolved object.
+ * The policy is applied by {@link ImplementationHolder#release()}, which callers invoke once they are done
+ * verifying and validating the object. Until then the parsed XML object and the original XML are kept.
+ */
+public enum XmlRetention {
+
+	/**
+	 * Keep the parsed XML object and the original XML, release has no effect
+	 */
+	FULL,
+
+	/**
+	 * Keep the original XML as deflated bytes, inflated when it is read, the parsed XML object is released
+	 */
+	COMPRESSED,
+
+	/**
+	 * Keep a SHA-256 digest of the original XML only, the parsed XML object is released
+	 */
+	DIGEST,
+
+	/**
+	 * Keep the parsed XML object and the original XML in full until released, then drop both
+	 */
+	DROP_AFTER_VALIDATION
+
+}
@@ -17,10 +17,11 @@
 
 package org.springframework.security.saml.saml2.attribute;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.springframework.security.saml.saml2.attribute.AttributeNameFormat.UNSPECIFIED;
 
@@ -33,9 +34,10 @@ public class Attribute {
 
 	private String name;
 	private String friendlyName;
-	private List<Object> values = new LinkedList<>();
+	private List<Object> values = new ArrayList<>();
 	private AttributeNameFormat nameFormat = UNSPECIFIED;
 	private boolean required;
+	private Supplier<List<Object>> valuesSource;
 
 
 	public String getName() {
@@ -48,15 +50,55 @@ public class Attribute {
 	}
 
 	public List<Object> getValues() {
-		return Collections.unmodifiableList(values);
+		return Collections.unmodifiableList(values());
 	}
 
 	public Attribute setValues(List<Object> values) {
+		this.valuesSource = null;
 		this.values.clear();
 		this.values.addAll(values);
 		return this;
 	}
 
+	/**
+	 * Defers the conversion of the values until they are first read
+	 * @param values - creates the values, invoked at most once
+	 * @return this object
+	 */
+	public Attribute deferValues(Supplier<List<Object>> values) {
+		this.valuesSource = values;
+		return this;
+	}
+
+	/**
+	 * @param type - the class of the values to return
+	 * @param <T> - the value type
+	 * @return the values that are instances of the class
+	 */
+	public <T> List<T> getValues(Class<T> type) {
+		List<T> result = new ArrayList<>();
+		for (Object value : values()) {
+			if (type.isInstance(value)) {
+				result.add(type.cast(value));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param type - the class of the value to return
+	 * @param <T> - the value type
+	 * @return the first value that is an instance of the class, or null
+	 */
+	public <T> T getFirstValue(Class<T> type) {
+		for (Object value : values()) {
+			if (type.isInstance(value)) {
+				return type.cast(value);
+			}
+		}
+		return null;
+	}
+
 	public AttributeNameFormat getNameFormat() {
 		return nameFormat;
 	}
@@ -85,7 +127,16 @@ public class Attribute {
 	}
 
 	public Attribute addValues(Object... values) {
-		this.values.addAll(Arrays.asList(values));
+		values().addAll(Arrays.asList(values));
 		return this;
 	}
+
+	private List<Object> values() {
+		if (valuesSource != null) {
+			List<Object> converted = valuesSource.get();
+			valuesSource = null;
+			values.addAll(converted);
+		}
+		return values;
+	}
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2.attribute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read only view of a list of attributes, indexed by name and by friendly name.
+ * Lookups do not read, and therefore do not convert, the values of other attributes.
+ */
+public class AttributeIndex {
+
+	private final Map<String, List<Attribute>> byName = new LinkedHashMap<>();
+	private final Map<String, List<Attribute>> byFriendlyName = new LinkedHashMap<>();
+
+	public AttributeIndex(List<Attribute> attributes) {
+		for (Attribute attribute : attributes) {
+			add(byName, attribute.getName(), attribute);
+			add(byFriendlyName, attribute.getFriendlyName(), attribute);
+		}
+	}
+
+	/**
+	 * @param name - the attribute name
+	 * @return the attributes with the name, in document order
+	 */
+	public List<Attribute> get(String name) {
+		return byName.getOrDefault(name, Collections.emptyList());
+	}
+
+	public Attribute getFirst(String name) {
+		return first(get(name));
+	}
+
+	/**
+	 * @param friendlyName - the attribute friendly name
+	 * @return the attributes with the friendly name, in document order
+	 */
+	public List<Attribute> getByFriendlyName(String friendlyName) {
+		return byFriendlyName.getOrDefault(friendlyName, Collections.emptyList());
+	}
+
+	public Attribute getFirstByFriendlyName(String friendlyName) {
+		return first(getByFriendlyName(friendlyName));
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(byName.keySet());
+	}
+
+	public Set<String> getFriendlyNames() {
+		return Collections.unmodifiableSet(byFriendlyName.keySet());
+	}
+
+	private static void add(Map<String, List<Attribute>> index, String key, Attribute attribute) {
+		if (key != null) {
+			index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(attribute);
+		}
+	}
+
+	private static Attribute first(List<Attribute> attributes) {
+		return attributes.isEmpty() ? null : attributes.get(0);
+	}
+}
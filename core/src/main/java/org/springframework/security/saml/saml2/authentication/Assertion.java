@@ -17,14 +17,17 @@
 
 package org.springframework.security.saml.saml2.authentication;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Supplier;
 
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.ImplementationHolder;
+import org.springframework.security.saml.saml2.XmlRetention;
 import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.attribute.AttributeIndex;
 import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
 import org.springframework.security.saml.saml2.encrypt.KeyEncryptionMethod;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
@@ -33,8 +36,6 @@ import org.springframework.security.saml.saml2.signature.Signature;
 
 import org.joda.time.DateTime;
 
-import static java.util.stream.Collectors.toList;
-
 /**
  * Implementation saml:AssertionType as defined by
  * https://www.oasis-open.org/committees/download.php/35711/sstc-saml-core-errata-2.0-wd-06-diff.pdf
@@ -58,6 +59,11 @@ public class Assertion extends ImplementationHolder {
 	private SimpleKey encryptionKey;
 	private KeyEncryptionMethod keyAlgorithm;
 	private DataEncryptionMethod dataAlgorithm;
+	private Supplier<Subject> subjectSource;
+	private Supplier<Conditions> conditionsSource;
+	private Supplier<List<AuthenticationStatement>> authenticationStatementsSource;
+	private Supplier<List<Attribute>> attributesSource;
+	private AttributeIndex attributeIndex;
 
 	public String getVersion() {
 		return version;
@@ -105,20 +111,50 @@ public class Assertion extends ImplementationHolder {
 	}
 
 	public Subject getSubject() {
+		if (subjectSource != null) {
+			subject = subjectSource.get();
+			subjectSource = null;
+		}
 		return subject;
 	}
 
 	public Assertion setSubject(Subject subject) {
 		this.subject = subject;
+		this.subjectSource = null;
+		return this;
+	}
+
+	/**
+	 * Defers the creation of the subject until it is first read
+	 * @param subject - creates the subject, invoked at most once
+	 * @return this object
+	 */
+	public Assertion deferSubject(Supplier<Subject> subject) {
+		this.subjectSource = subject;
 		return this;
 	}
 
 	public Conditions getConditions() {
+		if (conditionsSource != null) {
+			conditions = conditionsSource.get();
+			conditionsSource = null;
+		}
 		return conditions;
 	}
 
 	public Assertion setConditions(Conditions conditions) {
 		this.conditions = conditions;
+		this.conditionsSource = null;
+		return this;
+	}
+
+	/**
+	 * Defers the creation of the conditions until they are first read
+	 * @param conditions - creates the conditions, invoked at most once
+	 * @return this object
+	 */
+	public Assertion deferConditions(Supplier<Conditions> conditions) {
+		this.conditionsSource = conditions;
 		return this;
 	}
 
@@ -132,25 +168,49 @@ public class Assertion extends ImplementationHolder {
 	}
 
 	public List<AuthenticationStatement> getAuthenticationStatements() {
-		return Collections.unmodifiableList(authenticationStatements);
+		return Collections.unmodifiableList(authenticationStatements());
 	}
 
 	public Assertion setAuthenticationStatements(List<AuthenticationStatement> authenticationStatements) {
+		this.authenticationStatementsSource = null;
 		this.authenticationStatements.clear();
 		this.authenticationStatements.addAll(authenticationStatements);
 		return this;
 	}
 
+	/**
+	 * Defers the creation of the authentication statements until they are first read
+	 * @param authenticationStatements - creates the statements, invoked at most once
+	 * @return this object
+	 */
+	public Assertion deferAuthenticationStatements(Supplier<List<AuthenticationStatement>> authenticationStatements) {
+		this.authenticationStatementsSource = authenticationStatements;
+		return this;
+	}
+
 	public List<Attribute> getAttributes() {
-		return Collections.unmodifiableList(attributes);
+		return Collections.unmodifiableList(attributes());
 	}
 
 	public Assertion setAttributes(List<Attribute> attributes) {
+		this.attributesSource = null;
+		this.attributeIndex = null;
 		this.attributes.clear();
 		this.attributes.addAll(attributes);
 		return this;
 	}
 
+	/**
+	 * Defers the creation of the attributes until they are first read
+	 * @param attributes - creates the attributes, invoked at most once
+	 * @return this object
+	 */
+	public Assertion deferAttributes(Supplier<List<Attribute>> attributes) {
+		this.attributesSource = attributes;
+		this.attributeIndex = null;
+		return this;
+	}
+
 	public SimpleKey getSigningKey() {
 		return signingKey;
 	}
@@ -169,27 +229,31 @@ public class Assertion extends ImplementationHolder {
 	}
 
 	public List<Attribute> getAttributes(String name) {
-		return attributes
-			.stream()
-			.filter(a -> name.equals(a.getName()))
-			.collect(toList());
+		return new ArrayList<>(getAttributeIndex().get(name));
 	}
 
 	public Attribute getFirstAttribute(String name) {
-		Optional<Attribute> first = attributes
-			.stream()
-			.filter(a -> name.equals(a.getName()))
-			.findFirst();
-		return first.isPresent() ? first.get() : null;
+		return getAttributeIndex().getFirst(name);
+	}
+
+	/**
+	 * @return the attributes indexed by name and friendly name, built on first use
+	 */
+	public AttributeIndex getAttributeIndex() {
+		if (attributeIndex == null) {
+			attributeIndex = new AttributeIndex(attributes());
+		}
+		return attributeIndex;
 	}
 
 	public Assertion addAuthenticationStatement(AuthenticationStatement statement) {
-		this.authenticationStatements.add(statement);
+		authenticationStatements().add(statement);
 		return this;
 	}
 
 	public Assertion addAttribute(Attribute attribute) {
-		this.attributes.add(attribute);
+		attributes().add(attribute);
+		attributeIndex = null;
 		return this;
 	}
 
@@ -220,4 +284,34 @@ public class Assertion extends ImplementationHolder {
 	public DataEncryptionMethod getDataAlgorithm() {
 		return dataAlgorithm;
 	}
+
+	@Override
+	protected void release(XmlRetention retention) {
+		if (retention != XmlRetention.FULL) {
+			//deferred values are created from the parsed object, create them before it is released
+			getSubject();
+			getConditions();
+			authenticationStatements();
+			attributes().forEach(Attribute::getValues);
+		}
+		super.release(retention);
+	}
+
+	private List<AuthenticationStatement> authenticationStatements() {
+		if (authenticationStatementsSource != null) {
+			List<AuthenticationStatement> statements = authenticationStatementsSource.get();
+			authenticationStatementsSource = null;
+			authenticationStatements.addAll(statements);
+		}
+		return authenticationStatements;
+	}
+
+	private List<Attribute> attributes() {
+		if (attributesSource != null) {
+			List<Attribute> values = attributesSource.get();
+			attributesSource = null;
+			attributes.addAll(values);
+		}
+		return attributes;
+	}
 }
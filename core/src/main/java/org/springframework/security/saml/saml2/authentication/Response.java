@@ -22,6 +22,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.XmlRetention;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.DigestMethod;
 
@@ -68,6 +69,14 @@ public class Response extends StatusResponse<Response> {
 		return this;
 	}
 
+	@Override
+	protected void release(XmlRetention retention) {
+		for (Assertion assertion : assertions) {
+			assertion.release(retention);
+		}
+		super.release(retention);
+	}
+
 	public Response addAssertion(Assertion assertion) {
 		this.assertions.add(assertion);
 		return this;
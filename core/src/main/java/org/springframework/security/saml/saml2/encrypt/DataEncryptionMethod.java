@@ -27,7 +27,10 @@ public enum DataEncryptionMethod {
 	TRIPLEDES_CBS("http://www.w3.org/2001/04/xmlenc#tripledes-cbc"),
 	AES128_CBC("http://www.w3.org/2001/04/xmlenc#aes128-cbc"),
 	AES256_CBC("http://www.w3.org/2001/04/xmlenc#aes256-cbc"),
-	AES192_CBC("http://www.w3.org/2001/04/xmlenc#aes192-cbc");
+	AES192_CBC("http://www.w3.org/2001/04/xmlenc#aes192-cbc"),
+	AES128_GCM("http://www.w3.org/2009/xmlenc11#aes128-gcm"),
+	AES192_GCM("http://www.w3.org/2009/xmlenc11#aes192-gcm"),
+	AES256_GCM("http://www.w3.org/2009/xmlenc11#aes256-gcm");
 
 	private final String urn;
 
@@ -20,6 +20,9 @@ package org.springframework.security.saml.saml2.metadata;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
 /**
  * Base class for SAML providers
  *
@@ -33,6 +36,8 @@ public class SsoProvider<T extends SsoProvider<T>> extends Provider<T> {
 	private List<NameId> nameIds = new LinkedList<>();
 	private Endpoint discovery;
 	private Endpoint requestInitiation;
+	private List<AlgorithmMethod> signingMethods = new LinkedList<>();
+	private List<DigestMethod> digestMethods = new LinkedList<>();
 
 	public List<Endpoint> getArtifactResolutionService() {
 		return artifactResolutionService;
@@ -87,4 +92,30 @@ public class SsoProvider<T extends SsoProvider<T>> extends Provider<T> {
 		this.requestInitiation = requestInitiation;
 		return _this();
 	}
+
+	/**
+	 * Signing algorithms advertised through the alg:SigningMethod metadata extension
+	 * @return list of supported signing algorithms, in order of preference
+	 */
+	public List<AlgorithmMethod> getSigningMethods() {
+		return signingMethods;
+	}
+
+	public T setSigningMethods(List<AlgorithmMethod> signingMethods) {
+		this.signingMethods = signingMethods;
+		return _this();
+	}
+
+	/**
+	 * Digest algorithms advertised through the alg:DigestMethod metadata extension
+	 * @return list of supported digest algorithms, in order of preference
+	 */
+	public List<DigestMethod> getDigestMethods() {
+		return digestMethods;
+	}
+
+	public T setDigestMethods(List<DigestMethod> digestMethods) {
+		this.digestMethods = digestMethods;
+		return _this();
+	}
 }
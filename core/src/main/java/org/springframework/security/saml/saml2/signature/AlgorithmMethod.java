@@ -20,7 +20,10 @@ public enum AlgorithmMethod {
 	RSA_SHA1("http://www.w3.org/2000/09/xmldsig#rsa-sha1"),
 	RSA_SHA256("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256"),
 	RSA_SHA512("http://www.w3.org/2001/04/xmldsig-more#rsa-sha512"),
-	RSA_RIPEMD160("http://www.w3.org/2001/04/xmldsig-more#rsa-ripemd160");
+	RSA_RIPEMD160("http://www.w3.org/2001/04/xmldsig-more#rsa-ripemd160"),
+	ECDSA_SHA256("http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256"),
+	ECDSA_SHA384("http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha384"),
+	ECDSA_SHA512("http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha512");
 
 	private final String urn;
 
@@ -31,6 +31,12 @@ public enum DigestMethod {
 	 */
 	SHA256(javax.xml.crypto.dsig.DigestMethod.SHA256),
 
+	/**
+	 * The <a href="http://www.w3.org/2001/04/xmldsig-more#sha384">
+	 * SHA384</a> digest method algorithm URI.
+	 */
+	SHA384("http://www.w3.org/2001/04/xmldsig-more#sha384"),
+
 	/**
 	 * The <a href="http://www.w3.org/2001/04/xmlenc#sha512">
 	 * SHA512</a> digest method algorithm URI.
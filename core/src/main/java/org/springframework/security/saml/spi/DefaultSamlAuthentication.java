@@ -22,6 +22,7 @@ import java.util.Collections;
 
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.saml.SamlAuthentication;
+import org.springframework.security.saml.saml2.RetainedXml;
 import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.SubjectPrincipal;
 
@@ -31,7 +32,7 @@ public class DefaultSamlAuthentication implements SamlAuthentication {
 	private String assertingEntityId;
 	private String holdingEntityId;
 	private String relayState;
-	private String responseXml;
+	private RetainedXml responseXml;
 
 	public DefaultSamlAuthentication(boolean authenticated,
 									 Assertion assertion,
@@ -123,10 +124,22 @@ public class DefaultSamlAuthentication implements SamlAuthentication {
 	}
 
 	public String getResponseXml() {
-		return responseXml;
+		return responseXml == null ? null : responseXml.getXml();
 	}
 
 	public DefaultSamlAuthentication setResponseXml(String responseXml) {
+		this.responseXml = RetainedXml.of(responseXml);
+		return this;
+	}
+
+	/**
+	 * @return the response XML in the form selected by the retention policy, may be null
+	 */
+	public RetainedXml getRetainedResponseXml() {
+		return responseXml;
+	}
+
+	public DefaultSamlAuthentication setRetainedResponseXml(RetainedXml responseXml) {
 		this.responseXml = responseXml;
 		return this;
 	}
@@ -17,18 +17,24 @@
 
 package org.springframework.security.saml.spi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.MessageHeader;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class DefaultSamlTransformer implements SamlTransformer, InitializingBean {
 
 	private SpringSecuritySaml implementation;
+	private final MessageSniffer sniffer = new MessageSniffer();
 
 	public DefaultSamlTransformer(SpringSecuritySaml implementation) {
 		setImplementation(implementation);
@@ -55,6 +61,14 @@ public class DefaultSamlTransformer implements SamlTransformer, InitializingBean
 		return implementation.toXml(saml2Object);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		implementation.toXml(saml2Object, out);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -78,18 +92,62 @@ public class DefaultSamlTransformer implements SamlTransformer, InitializingBean
 		return implementation.encode(b);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void samlEncode(Saml2Object saml2Object, boolean deflate, OutputStream out) {
+		try (OutputStream encoder = implementation.encoder(out, deflate)) {
+			implementation.toXml(saml2Object, encoder);
+		} catch (IOException e) {
+			throw new SamlException("Unable to encode message", e);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public String samlDecode(String s, boolean inflate) {
+		return new String(samlDecodeToBytes(s, inflate), UTF_8);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] samlDecodeToBytes(String s, boolean inflate) {
 		byte[] b = implementation.decode(s);
-		if (inflate) {
-			return implementation.inflate(b);
-		}
-		else {
-			return new String(b, UTF_8);
-		}
+		return inflate ? implementation.inflateToBytes(b) : b;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MessageHeader sniff(byte[] xml) {
+		return sniffer.sniff(xml);
+	}
+
+	@Override
+	public <T extends Saml2Object> T verifySignatures(T saml2Object, List<SimpleKey> verificationKeys) {
+		implementation.verifySignatures(saml2Object, verificationKeys);
+		return saml2Object;
+	}
+
+	@Override
+	public byte[] sign(byte[] data, SimpleKey key, AlgorithmMethod algorithm) {
+		return implementation.sign(data, key, algorithm);
+	}
+
+	@Override
+	public SimpleKey verify(byte[] data, byte[] signature, AlgorithmMethod algorithm, List<SimpleKey> trustedKeys) {
+		return implementation.verify(data, signature, algorithm, trustedKeys);
+	}
+
+	@Override
+	public void preloadKeys(List<SimpleKey> keys) {
+		implementation.preloadKeys(keys);
 	}
 
 }
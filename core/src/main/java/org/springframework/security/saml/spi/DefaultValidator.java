@@ -20,12 +20,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Clock;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.saml2.MessageHeader;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.AssertionCondition;
@@ -36,8 +39,10 @@ import org.springframework.security.saml.saml2.authentication.Conditions;
 import org.springframework.security.saml.saml2.authentication.Issuer;
 import org.springframework.security.saml.saml2.authentication.LogoutRequest;
 import org.springframework.security.saml.saml2.authentication.LogoutResponse;
+import org.springframework.security.saml.saml2.authentication.Request;
 import org.springframework.security.saml.saml2.authentication.Response;
 import org.springframework.security.saml.saml2.authentication.StatusCode;
+import org.springframework.security.saml.saml2.authentication.StatusResponse;
 import org.springframework.security.saml.saml2.authentication.SubjectConfirmation;
 import org.springframework.security.saml.saml2.authentication.SubjectConfirmationData;
 import org.springframework.security.saml.saml2.metadata.Endpoint;
@@ -56,6 +61,7 @@ import org.joda.time.Interval;
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
 import static java.util.Optional.ofNullable;
+import static org.springframework.security.saml.saml2.Namespace.NS_PROTOCOL;
 import static org.springframework.security.saml.saml2.authentication.SubjectConfirmationMethod.BEARER;
 import static org.springframework.security.saml.saml2.metadata.NameId.ENTITY;
 import static org.springframework.security.saml.util.DateUtils.toZuluTime;
@@ -68,6 +74,11 @@ public class DefaultValidator implements SamlValidator {
 	private boolean allowUnsolicitedResponses = true;
 	private int maxAuthenticationAgeMillis = 1000 * 60 * 60 * 24; //24 hours
 	private Clock time = Clock.systemUTC();
+	private boolean rejectReplayedMessages = false;
+	private int replayCacheMillis = 1000 * 60 * 10; //ten minutes
+	private int replayCacheSize = 10000;
+	//insertion ordered, so the oldest entries expire first
+	private final LinkedHashMap<String, Long> seenMessages = new LinkedHashMap<>();
 
 	public DefaultValidator(SpringSecuritySaml implementation) {
 		setImplementation(implementation);
@@ -141,6 +152,134 @@ public class DefaultValidator implements SamlValidator {
 		if (!result.isSuccess()) {
 			throw new ValidationException("Unable to validate SAML object.", result);
 		}
+		if (isRejectReplayedMessages()) {
+			recordMessage(saml2Object);
+		}
+	}
+
+	@Override
+	public void validate(MessageHeader header, HostedProviderService provider) throws ValidationException {
+		ValidationResult result = new ValidationResult();
+		boolean response = header.isType(NS_PROTOCOL, "Response");
+		if (response ||
+			header.isType(NS_PROTOCOL, "AuthnRequest") ||
+			header.isType(NS_PROTOCOL, "LogoutRequest") ||
+			header.isType(NS_PROTOCOL, "LogoutResponse")) {
+			//the same checks the object validation performs, before the message is parsed
+			List<Endpoint> destinations = hasText(header.getDestination()) && provider != null ?
+				getDestinations(header, provider.getMetadata()) :
+				null;
+			if (!isDateTimeSkewValid(getResponseSkewTimeMillis(), 0, header.getIssueInstant())) {
+				result.addError(
+					new ValidationError("Issue time is either too old or in the future:" + header.getIssueInstant())
+				);
+			}
+			else if (response && !isAllowUnsolicitedResponses() && !hasText(header.getInResponseTo())) {
+				result.addError(
+					new ValidationError("InResponseTo is missing and unsolicited responses are disabled")
+				);
+			}
+			else if (destinations != null && !compareURIs(destinations, header.getDestination())) {
+				result.addError(new ValidationError("Destination mismatch: " + header.getDestination()));
+			}
+		}
+		if (!result.hasErrors() && isRejectReplayedMessages() && isReplayed(header.getIssuer(), header.getId())) {
+			result.addError(new ValidationError("Message ID has already been received: " + header.getId()));
+		}
+		if (result.hasErrors()) {
+			throw new ValidationException("Message rejected before parsing.", result);
+		}
+	}
+
+	/**
+	 * @param header - the header of an inbound message
+	 * @param metadata - the metadata of the hosted provider
+	 * @return the local endpoints the message can be addressed to, or null if they are not known
+	 */
+	protected List<Endpoint> getDestinations(MessageHeader header, Metadata<?> metadata) {
+		if (header.isType(NS_PROTOCOL, "Response")) {
+			return metadata instanceof ServiceProviderMetadata ?
+				((ServiceProviderMetadata) metadata).getServiceProvider().getAssertionConsumerService() :
+				null;
+		}
+		else if (header.isType(NS_PROTOCOL, "AuthnRequest")) {
+			return metadata instanceof IdentityProviderMetadata ?
+				((IdentityProviderMetadata) metadata).getIdentityProvider().getSingleSignOnService() :
+				null;
+		}
+		else if (metadata instanceof ServiceProviderMetadata) {
+			return ((ServiceProviderMetadata) metadata).getServiceProvider().getSingleLogoutService();
+		}
+		else if (metadata instanceof IdentityProviderMetadata) {
+			return ((IdentityProviderMetadata) metadata).getIdentityProvider().getSingleLogoutService();
+		}
+		return null;
+	}
+
+	/**
+	 * Checks a message against the IDs of messages that were already accepted, the cache is not modified.
+	 * @param issuer - the entity ID of the sender
+	 * @param id - the message ID
+	 * @return true if a message with the same issuer and ID was accepted within the replay cache period
+	 */
+	protected boolean isReplayed(String issuer, String id) {
+		if (!hasText(id)) {
+			return false;
+		}
+		synchronized (seenMessages) {
+			Long expires = seenMessages.get(issuer + " " + id);
+			return expires != null && expires >= time.millis();
+		}
+	}
+
+	/**
+	 * Remembers the ID of a message that passed signature verification and validation,
+	 * so that later copies of it are rejected. Checking and remembering the ID is a single step,
+	 * of two concurrent copies of a message only one is accepted.
+	 * IDs are only dropped once they expire, a new ID is rejected while the cache holds
+	 * {@link #getReplayCacheSize()} unexpired IDs.
+	 * @param saml2Object - the accepted message
+	 * @throws ValidationException if the message ID was already accepted or the cache is full
+	 */
+	protected void recordMessage(Saml2Object saml2Object) throws ValidationException {
+		String id = null;
+		Issuer issuer = null;
+		if (saml2Object instanceof Request) {
+			id = ((Request) saml2Object).getId();
+			issuer = ((Request) saml2Object).getIssuer();
+		}
+		else if (saml2Object instanceof StatusResponse) {
+			id = ((StatusResponse) saml2Object).getId();
+			issuer = ((StatusResponse) saml2Object).getIssuer();
+		}
+		if (!hasText(id)) {
+			return;
+		}
+		long now = time.millis();
+		String key = (issuer == null ? null : issuer.getValue()) + " " + id;
+		String error = null;
+		synchronized (seenMessages) {
+			//every entry lives for the same period, so the oldest entries expire first
+			Iterator<Long> oldest = seenMessages.values().iterator();
+			while (oldest.hasNext() && oldest.next() < now) {
+				oldest.remove();
+			}
+			if (seenMessages.containsKey(key)) {
+				error = "Message ID has already been received: " + id;
+			}
+			else if (seenMessages.size() >= getReplayCacheSize()) {
+				error = "Too many messages received, unable to remember message ID: " + id;
+			}
+			else {
+				seenMessages.put(key, now + getReplayCacheMillis());
+			}
+		}
+		if (error != null) {
+			throw new ValidationException(
+				"Unable to validate SAML object.",
+				new ValidationResult(saml2Object).addError(error)
+			);
+		}
 	}
 
 	protected ValidationResult validate(IdentityProviderMetadata metadata, HostedProviderService provider) {
@@ -468,6 +607,47 @@ public class DefaultValidator implements SamlValidator {
 		return this;
 	}
 
+	public boolean isRejectReplayedMessages() {
+		return rejectReplayedMessages;
+	}
+
+	/**
+	 * Rejects a message whose issuer and ID were already accepted within the replay cache period.
+	 * IDs are only remembered once a message passed signature verification and validation.
+	 * @param rejectReplayedMessages - true to remember received message IDs
+	 * @return this object
+	 */
+	public DefaultValidator setRejectReplayedMessages(boolean rejectReplayedMessages) {
+		this.rejectReplayedMessages = rejectReplayedMessages;
+		return this;
+	}
+
+	public int getReplayCacheMillis() {
+		return replayCacheMillis;
+	}
+
+	public DefaultValidator setReplayCacheMillis(int replayCacheMillis) {
+		this.replayCacheMillis = replayCacheMillis;
+		return this;
+	}
+
+	public int getReplayCacheSize() {
+		return replayCacheSize;
+	}
+
+	/**
+	 * @param replayCacheSize - the maximum number of remembered message IDs, 10000 by default,
+	 *                        messages with a new ID are rejected while the cache is full
+	 * @return this object
+	 */
+	public DefaultValidator setReplayCacheSize(int replayCacheSize) {
+		if (replayCacheSize < 1) {
+			throw new IllegalArgumentException("Replay cache size must be at least 1");
+		}
+		this.replayCacheSize = replayCacheSize;
+		return this;
+	}
+
 	public boolean isAllowUnsolicitedResponses() {
 		return allowUnsolicitedResponses;
 	}
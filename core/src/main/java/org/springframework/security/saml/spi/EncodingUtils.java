@@ -17,52 +17,227 @@
 
 package org.springframework.security.saml.spi;
 
-import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterOutputStream;
 
 import org.springframework.security.saml.SamlException;
 
-import org.apache.commons.codec.binary.Base64;
-
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.zip.Deflater.DEFLATED;
 
+/**
+ * Base64 and DEFLATE codecs for SAML messages.
+ * Deflaters and inflaters are kept per thread and reset between uses rather than created per message,
+ * and work buffers are reused unless a message outgrows {@link #MAX_POOLED_BUFFER_SIZE}.
+ */
 class EncodingUtils {
-	private static Base64 UNCHUNKED_ENCODER = new Base64(0, new byte[]{'\n'});
+
+	static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<>();
+	private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
 
 	public static String encode(byte[] b) {
-		return UNCHUNKED_ENCODER.encodeToString(b);
+		int length = 4 * ((b.length + 2) / 3);
+		byte[] buffer = getBuffer(length);
+		int written = Base64.getEncoder().encode(b, buffer);
+		return new String(buffer, 0, written, ISO_8859_1);
 	}
 
+	/**
+	 * Decodes base64 leniently, as the previous commons-codec decoder did:
+	 * line breaks and other characters outside the alphabet are ignored, padding is optional,
+	 * and the URL safe alphabet is accepted.
+	 */
 	static byte[] decode(String s) {
-		return UNCHUNKED_ENCODER.decode(s);
+		return decode(s, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes base64 leniently and rejects values that decode to more than maxSize bytes.
+	 * Values that are too long even for a generously formatted encoding are rejected before decoding.
+	 */
+	static byte[] decode(String s, int maxSize) {
+		//four characters per three bytes, with room for line breaks and other ignored characters
+		if (s.length() / 2L > maxSize) {
+			throw new SamlException("Encoded message exceeds the maximum size of " + maxSize + " bytes");
+		}
+		if (s.indexOf('-') >= 0 || s.indexOf('_') >= 0) {
+			s = s.replace('-', '+').replace('_', '/');
+		}
+		byte[] result = Base64.getMimeDecoder().decode(s);
+		if (result.length > maxSize) {
+			throw new SamlException("Decoded message exceeds the maximum size of " + maxSize + " bytes");
+		}
+		return result;
 	}
 
 	static byte[] deflate(String s) {
+		Deflater deflater = borrowDeflater();
 		try {
-			ByteArrayOutputStream b = new ByteArrayOutputStream();
-			DeflaterOutputStream deflater = new DeflaterOutputStream(b, new Deflater(DEFLATED, true));
-			deflater.write(s.getBytes(UTF_8));
+			deflater.setInput(s.getBytes(UTF_8));
 			deflater.finish();
-			return b.toByteArray();
-		} catch (IOException e) {
-			throw new SamlException("Unable to deflate string", e);
+			byte[] buffer = buffers.get();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			byte[] result = Arrays.copyOf(buffer, length);
+			returnBuffer(buffer);
+			return result;
+		} finally {
+			returnDeflater(deflater);
 		}
 	}
 
+	/**
+	 * Returns a stream that deflates (optionally) and base64 encodes everything written to it into out.
+	 * Closing the returned stream completes the encoding but leaves out open.
+	 * @param out - destination of the encoded bytes
+	 * @param deflate - true to apply the DEFLATE encoding before base64
+	 * @return the encoding stream
+	 */
+	static OutputStream encoder(OutputStream out, boolean deflate) {
+		OutputStream result = Base64.getEncoder().wrap(new NonClosingOutputStream(out));
+		if (deflate) {
+			Deflater deflater = borrowDeflater();
+			result = new DeflaterOutputStream(result, deflater, 4096) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						returnDeflater(deflater);
+					}
+				}
+			};
+		}
+		return result;
+	}
+
 	static String inflate(byte[] b) {
+		return new String(inflate(b, Integer.MAX_VALUE), UTF_8);
+	}
+
+	/**
+	 * Inflates a raw DEFLATE stream, aborting as soon as the output exceeds maxSize bytes.
+	 */
+	static byte[] inflate(byte[] b, int maxSize) {
+		Inflater inflater = borrowInflater();
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			InflaterOutputStream iout = new InflaterOutputStream(out, new Inflater(true));
-			iout.write(b);
-			iout.finish();
-			return new String(out.toByteArray(), UTF_8);
-		} catch (IOException e) {
+			inflater.setInput(b);
+			byte[] buffer = buffers.get();
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == buffer.length) {
+					if (length >= maxSize) {
+						throw new SamlException("Inflated message exceeds the maximum size of " + maxSize + " bytes");
+					}
+					buffer = Arrays.copyOf(buffer, (int) Math.min(Math.min(buffer.length * 2L, maxSize + 1L), Integer.MAX_VALUE - 8));
+				}
+				int count = inflater.inflate(buffer, length, buffer.length - length);
+				if (count == 0 && inflater.needsDictionary()) {
+					throw new DataFormatException("DEFLATE stream requires a preset dictionary");
+				}
+				length += count;
+				if (count == 0 && inflater.needsInput()) {
+					//an unterminated stream is accepted, as it was by the stream based inflater
+					break;
+				}
+			}
+			if (length > maxSize) {
+				throw new SamlException("Inflated message exceeds the maximum size of " + maxSize + " bytes");
+			}
+			byte[] result = Arrays.copyOf(buffer, length);
+			returnBuffer(buffer);
+			return result;
+		} catch (DataFormatException e) {
 			throw new SamlException("Unable to inflate string", e);
+		} finally {
+			returnInflater(inflater);
+		}
+	}
+
+	private static byte[] getBuffer(int size) {
+		byte[] buffer = buffers.get();
+		if (buffer.length >= size) {
+			return buffer;
+		}
+		buffer = new byte[size];
+		returnBuffer(buffer);
+		return buffer;
+	}
+
+	private static void returnBuffer(byte[] buffer) {
+		if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+			buffers.set(buffer);
+		}
+	}
+
+	private static Deflater borrowDeflater() {
+		Deflater result = deflaters.get();
+		if (result == null) {
+			return new Deflater(DEFLATED, true);
+		}
+		deflaters.remove();
+		return result;
+	}
+
+	private static void returnDeflater(Deflater deflater) {
+		if (deflaters.get() == null) {
+			deflater.reset();
+			deflaters.set(deflater);
+		}
+		else {
+			deflater.end();
+		}
+	}
+
+	private static Inflater borrowInflater() {
+		Inflater result = inflaters.get();
+		if (result == null) {
+			return new Inflater(true);
+		}
+		inflaters.remove();
+		return result;
+	}
+
+	private static void returnInflater(Inflater inflater) {
+		if (inflaters.get() == null) {
+			inflater.reset();
+			inflaters.set(inflater);
+		}
+		else {
+			inflater.end();
+		}
+	}
+
+	private static class NonClosingOutputStream extends FilterOutputStream {
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
 		}
 	}
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.key.SimpleKey;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Serves keys from a PKCS#12 or JKS file that is loaded once and kept in memory.
+ * Keys are looked up by {@link SimpleKey#getAlias()}, so keys derived from a stored key find its entry. Keys that carry their own PEM certificate,
+ * such as keys read from a remote provider's metadata, are still served by the default in-memory key store.
+ * <p>
+ * Once {@link #start()} has been invoked the file is watched for changes, a modified file is loaded
+ * into a new key store that atomically replaces the current one, and the registered listeners are notified.
+ * A file that can not be loaded leaves the current key material in place.
+ */
+public class FileKeyStoreProvider implements SamlKeyStoreProvider, AutoCloseable {
+
+	private static final Log logger = LogFactory.getLog(FileKeyStoreProvider.class);
+
+	private final Path file;
+	private final String type;
+	private final char[] storePassword;
+	private final String keyPassword;
+	private final AtomicReference<KeyStore> keyStore = new AtomicReference<>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicLong reloads = new AtomicLong();
+	private volatile WatchService watcher;
+
+	/**
+	 * @param file - the key store file
+	 * @param storePassword - the key store password
+	 * @param keyPassword - the password for the private key entries, the store password is used if null
+	 */
+	public FileKeyStoreProvider(Path file, String storePassword, String keyPassword) {
+		this(file, getType(file), storePassword, keyPassword);
+	}
+
+	/**
+	 * @param file - the key store file
+	 * @param type - the key store type, PKCS12 or JKS
+	 * @param storePassword - the key store password
+	 * @param keyPassword - the password for the private key entries, the store password is used if null
+	 */
+	public FileKeyStoreProvider(Path file, String type, String storePassword, String keyPassword) {
+		this.file = file.toAbsolutePath();
+		this.type = type;
+		this.storePassword = storePassword == null ? null : storePassword.toCharArray();
+		this.keyPassword = keyPassword == null ? storePassword : keyPassword;
+		this.keyStore.set(load());
+	}
+
+	@Override
+	public KeyStore getKeyStore(SimpleKey key) {
+		if (hasText(key.getCertificate())) {
+			return SamlKeyStoreProvider.super.getKeyStore(key);
+		}
+		return keyStore.get();
+	}
+
+	@Override
+	public Map<String, String> getKeyPasswords(SimpleKey key) {
+		if (hasText(key.getCertificate())) {
+			return SamlKeyStoreProvider.super.getKeyPasswords(key);
+		}
+		String password = hasText(key.getPassphrase()) ? key.getPassphrase() : keyPassword;
+		return password == null ?
+			Collections.emptyMap() :
+			Collections.singletonMap(key.getAlias(), password);
+	}
+
+	@Override
+	public void addKeyChangeListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeKeyChangeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return number of times new key material has been swapped in after the initial load
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+
+	/**
+	 * Loads the file and swaps in the new key material.
+	 * @return true if the key material was replaced, false if the file could not be loaded
+	 */
+	public boolean reload() {
+		KeyStore loaded;
+		try {
+			loaded = load();
+		} catch (SamlKeyException e) {
+			logger.warn("Unable to reload key store:" + file + ", keeping current keys.", e);
+			return false;
+		}
+		keyStore.set(loaded);
+		reloads.incrementAndGet();
+		for (Runnable listener : listeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				logger.warn("Key change listener failed.", e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Starts watching the key store file for changes on a daemon thread
+	 */
+	public synchronized FileKeyStoreProvider start() {
+		if (watcher != null) {
+			return this;
+		}
+		WatchService service;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			file.getParent().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+		} catch (IOException e) {
+			throw new SamlKeyException("Unable to watch key store:" + file, e);
+		}
+		watcher = service;
+		Thread thread = new Thread(() -> watch(service), "saml-keystore-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				logger.debug("Unable to close key store watcher.", e);
+			}
+			watcher = null;
+		}
+	}
+
+	protected void watch(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (context instanceof Path && file.getFileName().equals(context)) {
+						changed = true;
+					}
+				}
+				if (changed) {
+					reload();
+				}
+				if (!key.reset()) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			logger.debug("Key store watcher closed:" + file);
+		}
+	}
+
+	protected KeyStore load() {
+		try (InputStream in = Files.newInputStream(file)) {
+			KeyStore result = KeyStore.getInstance(type);
+			result.load(in, storePassword);
+			return result;
+		} catch (IOException | GeneralSecurityException e) {
+			throw new SamlKeyException("Unable to load key store:" + file, e);
+		}
+	}
+
+	private static String getType(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".p12") || name.endsWith(".pfx") ? "PKCS12" : "JKS";
+	}
+}
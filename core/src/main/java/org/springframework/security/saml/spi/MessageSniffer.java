@@ -0,0 +1,114 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.saml2.MessageHeader;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import static org.springframework.security.saml.saml2.Namespace.NS_ASSERTION;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Reads the {@link MessageHeader} of a message with a streaming parser.
+ * Only the root element and its leading Issuer element are read, the rest of the document is never touched.
+ * Documents carrying a DTD are rejected, SAML messages never contain one.
+ */
+public class MessageSniffer {
+
+	private static final DateTimeFormatter INSTANT =
+		ISODateTimeFormat.dateTimeParser().withChronology(ISOChronology.getInstanceUTC());
+
+	private final XMLInputFactory factory;
+
+	public MessageSniffer() {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+	}
+
+	/**
+	 * @param xml - the raw message
+	 * @return the header values of the message
+	 * @throws SamlException if the message is not well formed up to the end of its Issuer element
+	 */
+	public MessageHeader sniff(byte[] xml) {
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(new ByteArrayInputStream(xml));
+			MessageHeader result = new MessageHeader();
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.DTD) {
+					throw new SamlException("DOCTYPE is not allowed in SAML messages.");
+				}
+				if (event != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				depth++;
+				if (depth == 1) {
+					result
+						.setNamespace(reader.getNamespaceURI())
+						.setType(reader.getLocalName())
+						.setId(reader.getAttributeValue(null, "ID"))
+						.setInResponseTo(reader.getAttributeValue(null, "InResponseTo"))
+						.setDestination(reader.getAttributeValue(null, "Destination"))
+						.setIssueInstant(toDateTime(reader.getAttributeValue(null, "IssueInstant")));
+				}
+				else {
+					//the issuer, when present, is the first child of a request, response or assertion
+					if (NS_ASSERTION.equals(reader.getNamespaceURI()) && "Issuer".equals(reader.getLocalName())) {
+						result.setIssuer(reader.getElementText().trim());
+					}
+					break;
+				}
+			}
+			return result;
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			throw new SamlException("Unable to read message header.", e);
+		} finally {
+			close(reader);
+		}
+	}
+
+	private static DateTime toDateTime(String instant) {
+		return hasText(instant) ? INSTANT.parseDateTime(instant.trim()) : null;
+	}
+
+	private static void close(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				//nothing to release for an in-memory source
+			}
+		}
+	}
+}
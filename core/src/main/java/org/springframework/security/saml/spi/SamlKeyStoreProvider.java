@@ -24,6 +24,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.UUID;
 
 import org.springframework.security.saml.SamlKeyException;
@@ -43,14 +45,14 @@ public interface SamlKeyStoreProvider {
 
 			byte[] certbytes = X509Utilities.getDER(key.getCertificate());
 			Certificate certificate = X509Utilities.getCertificate(certbytes);
-			ks.setCertificateEntry(key.getName(), certificate);
+			ks.setCertificateEntry(key.getAlias(), certificate);
 
 			if (hasText(key.getPrivateKey())) {
 				PrivateKey pkey = X509Utilities.readPrivateKey(key.getPrivateKey(), key.getPassphrase());
 
 				//RSAPrivateKey privateKey = X509Utilities.getPrivateKey(keybytes, "RSA");
 
-				ks.setKeyEntry(key.getName(), pkey, key.getPassphrase().toCharArray(), new
+				ks.setKeyEntry(key.getAlias(), pkey, key.getPassphrase().toCharArray(), new
 					Certificate[]{certificate});
 			}
 
@@ -62,4 +64,29 @@ public interface SamlKeyStoreProvider {
 		}
 	}
 
+	/**
+	 * @param key - the key being resolved
+	 * @return the key entry passwords, by alias, to unlock the private key in {@link #getKeyStore(SimpleKey)}
+	 */
+	default Map<String, String> getKeyPasswords(SimpleKey key) {
+		return hasText(key.getPrivateKey()) ?
+			Collections.singletonMap(key.getAlias(), key.getPassphrase()) :
+			Collections.emptyMap();
+	}
+
+	/**
+	 * Registers a listener to be invoked when the key material served by this provider changes,
+	 * so that anything derived from it can be discarded. Providers with static key material ignore listeners.
+	 * @param listener - invoked after new key material has been swapped in
+	 */
+	default void addKeyChangeListener(Runnable listener) {
+	}
+
+	/**
+	 * Removes a listener registered with {@link #addKeyChangeListener(Runnable)}
+	 * @param listener - the listener to remove
+	 */
+	default void removeKeyChangeListener(Runnable listener) {
+	}
+
 }
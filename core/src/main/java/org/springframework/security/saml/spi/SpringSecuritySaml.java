@@ -17,6 +17,7 @@
 
 package org.springframework.security.saml.spi;
 
+import java.io.OutputStream;
 import java.time.Clock;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -24,8 +25,11 @@ import javax.xml.datatype.Duration;
 
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.Signature;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Static utility class that serves as the delimiter between Spring Security SAML and underlying implementation.
  *
@@ -33,8 +37,12 @@ import org.springframework.security.saml.saml2.signature.Signature;
  */
 public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
+	public static final int DEFAULT_MAX_INBOUND_SIZE = 4 * 1024 * 1024;
+
 	private final AtomicBoolean hasInitCompleted = new AtomicBoolean(false);
 	private Clock time;
+	private int maxDecodedSize = DEFAULT_MAX_INBOUND_SIZE;
+	private int maxInflatedSize = DEFAULT_MAX_INBOUND_SIZE;
 
 	public SpringSecuritySaml(Clock time) {
 		this.time = time;
@@ -44,6 +52,34 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 		return time;
 	}
 
+	public int getMaxDecodedSize() {
+		return maxDecodedSize;
+	}
+
+	/**
+	 * @param maxDecodedSize - largest accepted base64 decoded inbound message, in bytes
+	 * @return this object
+	 */
+	@SuppressWarnings("checked")
+	public T setMaxDecodedSize(int maxDecodedSize) {
+		this.maxDecodedSize = maxDecodedSize;
+		return (T) this;
+	}
+
+	public int getMaxInflatedSize() {
+		return maxInflatedSize;
+	}
+
+	/**
+	 * @param maxInflatedSize - largest accepted inflated inbound message, in bytes
+	 * @return this object
+	 */
+	@SuppressWarnings("checked")
+	public T setMaxInflatedSize(int maxInflatedSize) {
+		this.maxInflatedSize = maxInflatedSize;
+		return (T) this;
+	}
+
 
 	@SuppressWarnings("checked")
 	public T init() {
@@ -70,6 +106,13 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
 	public abstract String toXml(Saml2Object saml2Object);
 
+	/**
+	 * Serializes the object as UTF-8 XML directly into the stream.
+	 * @param saml2Object - object to be converted to XML
+	 * @param out - destination of the XML, not closed
+	 */
+	public abstract void toXml(Saml2Object saml2Object, OutputStream out);
+
 	public abstract Saml2Object resolve(
 		String xml, List<SimpleKey> verificationKeys, List<SimpleKey>
 		localKeys
@@ -79,20 +122,66 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
 	public abstract Signature validateSignature(Saml2Object saml2Object, List<SimpleKey> trustedKeys);
 
+	/**
+	 * Verifies the signatures of an object that was resolved without verification keys,
+	 * using the parsed XML it holds instead of parsing the message again
+	 * @param saml2Object - an object returned by {@link #resolve(byte[], List, List)}
+	 * @param verificationKeys - the keys to verify the signatures with
+	 * @return the same object, with validated signatures set
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if a signature is invalid
+	 */
+	public abstract Saml2Object verifySignatures(Saml2Object saml2Object, List<SimpleKey> verificationKeys);
+
+	/**
+	 * Creates a detached signature over raw bytes, such as the HTTP-Redirect binding query string
+	 * @param data - the bytes to be signed
+	 * @param key - the signing key
+	 * @param algorithm - the signature algorithm
+	 * @return the signature value
+	 */
+	public abstract byte[] sign(byte[] data, SimpleKey key, AlgorithmMethod algorithm);
+
+	/**
+	 * Verifies a detached signature over raw bytes
+	 * @param data - the bytes that were signed
+	 * @param signature - the signature value
+	 * @param algorithm - the signature algorithm
+	 * @param trustedKeys - candidate verification keys
+	 * @return the key that validated the signature
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if no key validates the signature
+	 */
+	public abstract SimpleKey verify(byte[] data, byte[] signature, AlgorithmMethod algorithm, List<SimpleKey> trustedKeys);
+
+	/**
+	 * Resolves and caches the key material for the given keys ahead of use.
+	 * Implementations without key caches do nothing.
+	 * @param keys - the keys to prepare
+	 */
+	public void preloadKeys(List<SimpleKey> keys) {
+	}
+
 	public String encode(byte[] b) {
 		return EncodingUtils.encode(b);
 	}
 
 	public byte[] decode(String s) {
-		return EncodingUtils.decode(s);
+		return EncodingUtils.decode(s, getMaxDecodedSize());
 	}
 
 	public byte[] deflate(String s) {
 		return EncodingUtils.deflate(s);
 	}
 
+	public OutputStream encoder(OutputStream out, boolean deflate) {
+		return EncodingUtils.encoder(out, deflate);
+	}
+
 	public String inflate(byte[] b) {
-		return EncodingUtils.inflate(b);
+		return new String(inflateToBytes(b), UTF_8);
+	}
+
+	public byte[] inflateToBytes(byte[] b) {
+		return EncodingUtils.inflate(b, getMaxInflatedSize());
 	}
 
 
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.xml.XMLObject;
+
+/**
+ * Converts attribute values between Java objects and OpenSAML attribute value objects.
+ * Converters are registered with {@link AttributeValueConverters}, which selects them
+ * by the Java class of outbound values and by the xsi:type of inbound values.
+ * @param <T> - the Java type written by this converter, subclasses included
+ */
+public interface AttributeValueConverter<T> {
+
+	Class<T> getJavaType();
+
+	/**
+	 * @return the xsi:type written by this converter, and read by it unless a later registration claims it
+	 */
+	QName getSchemaType();
+
+	/**
+	 * @param value - a non null value of the Java type
+	 * @return a saml2:AttributeValue element carrying the value
+	 */
+	XMLObject toXmlObject(T value);
+
+	/**
+	 * @param value - an attribute value of the schema type
+	 * @return the Java value, or the object itself if it can not be converted
+	 */
+	Object toJavaValue(XMLObject value);
+
+	/**
+	 * @param value - an attribute value of the schema type
+	 * @return the lexical form of the value, or null if it has none
+	 */
+	String toText(XMLObject value);
+}
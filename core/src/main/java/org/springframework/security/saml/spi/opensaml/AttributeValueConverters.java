@@ -0,0 +1,258 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSAny;
+import org.opensaml.core.xml.schema.XSBase64Binary;
+import org.opensaml.core.xml.schema.XSBoolean;
+import org.opensaml.core.xml.schema.XSBooleanValue;
+import org.opensaml.core.xml.schema.XSDateTime;
+import org.opensaml.core.xml.schema.XSInteger;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.XSURI;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.joda.time.DateTime;
+
+/**
+ * Registry of {@link AttributeValueConverter}s.
+ * <ul>
+ *     <li>outbound values use the most recently registered converter whose Java type the value is an instance of,
+ *     the lookup is cached per class</li>
+ *     <li>inbound values use the most recently registered converter for their xsi:type</li>
+ * </ul>
+ * Values no converter claims are written as xs:anyType text and read as their text content.
+ */
+public class AttributeValueConverters {
+
+	private final List<AttributeValueConverter<?>> converters = new CopyOnWriteArrayList<>();
+	private final Map<QName, AttributeValueConverter<?>> bySchemaType = new ConcurrentHashMap<>();
+	private final Map<Class<?>, Optional<AttributeValueConverter<?>>> byClass = new ConcurrentHashMap<>();
+	private final Set<AttributeValueConverter<?>> builtIn = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * @return a registry holding the converters for xs:string, xs:anyURI, xs:boolean, xs:dateTime and xs:integer
+	 */
+	public static AttributeValueConverters defaults() {
+		AttributeValueConverters result = new AttributeValueConverters();
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				URL.class, XSURI.TYPE_NAME, XSURI.class,
+				(x, v) -> x.setValue(v.toString()),
+				XSURI::getValue,
+				XSURI::getValue
+			)
+		);
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				URI.class, XSURI.TYPE_NAME, XSURI.class,
+				(x, v) -> x.setValue(v.toString()),
+				AttributeValueConverters::toUri,
+				XSURI::getValue
+			)
+		);
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				String.class, XSString.TYPE_NAME, XSString.class,
+				XSString::setValue,
+				XSString::getValue,
+				XSString::getValue
+			)
+		);
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				Boolean.class, XSBoolean.TYPE_NAME, XSBoolean.class,
+				(x, v) -> x.setValue(XSBooleanValue.valueOf(v.toString())),
+				x -> x.getValue() == null ? null : x.getValue().getValue(),
+				x -> x.getValue() == null ? null : x.getValue().getValue() ? "1" : "0"
+			)
+		);
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				DateTime.class, XSDateTime.TYPE_NAME, XSDateTime.class,
+				XSDateTime::setValue,
+				XSDateTime::getValue,
+				x -> x.getValue() == null ? null : x.getDateTimeFormatter().print(x.getValue())
+			)
+		);
+		result.registerBuiltIn(
+			new TypedAttributeValueConverter<>(
+				Integer.class, XSInteger.TYPE_NAME, XSInteger.class,
+				XSInteger::setValue,
+				XSInteger::getValue,
+				x -> x.getValue() == null ? null : x.getValue().toString()
+			)
+		);
+		return result;
+	}
+
+	/**
+	 * @param converter - takes precedence over converters registered before it
+	 * @return this object
+	 */
+	public AttributeValueConverters register(AttributeValueConverter<?> converter) {
+		converters.add(0, converter);
+		bySchemaType.put(converter.getSchemaType(), converter);
+		byClass.clear();
+		return this;
+	}
+
+	private void registerBuiltIn(AttributeValueConverter<?> converter) {
+		register(converter);
+		builtIn.add(converter);
+	}
+
+	public List<AttributeValueConverter<?>> getConverters() {
+		return Collections.unmodifiableList(converters);
+	}
+
+	/**
+	 * @param type - the class of an outbound value
+	 * @return the converter writing values of the class, or null if they are written as xs:anyType
+	 */
+	public AttributeValueConverter<?> forJavaType(Class<?> type) {
+		return byClass.computeIfAbsent(type, this::find).orElse(null);
+	}
+
+	/**
+	 * @param type - the class of an outbound value
+	 * @return true if values of the class are written by a converter that is not built in
+	 */
+	public boolean isCustom(Class<?> type) {
+		AttributeValueConverter<?> converter = forJavaType(type);
+		return converter != null && !builtIn.contains(converter);
+	}
+
+	public AttributeValueConverter<?> forSchemaType(QName schemaType) {
+		return schemaType == null ? null : bySchemaType.get(schemaType);
+	}
+
+	@SuppressWarnings("unchecked")
+	public XMLObject toXmlObject(Object value) {
+		if (value == null) {
+			return null;
+		}
+		AttributeValueConverter<Object> converter = (AttributeValueConverter<Object>) forJavaType(value.getClass());
+		if (converter != null) {
+			return converter.toXmlObject(value);
+		}
+		XSAny any = (XSAny) XMLObjectProviderRegistrySupport.getBuilderFactory()
+			.getBuilder(XSAny.TYPE_NAME)
+			.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSAny.TYPE_NAME);
+		any.setTextContent(value.toString());
+		return any;
+	}
+
+	/**
+	 * @param values - inbound attribute values
+	 * @return the converted values, null values are skipped
+	 */
+	public List<Object> toJavaValues(List<XMLObject> values) {
+		if (values == null || values.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		List<Object> result = new ArrayList<>(values.size());
+		for (XMLObject value : values) {
+			if (value != null) {
+				result.add(toJavaValue(value));
+			}
+		}
+		return result;
+	}
+
+	public Object toJavaValue(XMLObject value) {
+		AttributeValueConverter<?> converter = forXmlObject(value);
+		if (converter != null) {
+			return converter.toJavaValue(value);
+		}
+		else if (value instanceof XSAny) {
+			return ((XSAny) value).getTextContent();
+		}
+		//we don't know the type.
+		return value;
+	}
+
+	public String toText(XMLObject value) {
+		AttributeValueConverter<?> converter = value == null ? null : forXmlObject(value);
+		if (converter != null) {
+			return converter.toText(value);
+		}
+		else if (value instanceof XSBase64Binary) {
+			return ((XSBase64Binary) value).getValue();
+		}
+		else if (value instanceof XSAny) {
+			XSAny any = (XSAny) value;
+			if (any.getUnknownAttributes().isEmpty() && any.getUnknownXMLObjects().isEmpty()) {
+				return any.getTextContent();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Selects the converter for the xsi:type of an object, or for objects without a registered xsi:type,
+	 * the most recently registered typed converter for its object type.
+	 */
+	protected AttributeValueConverter<?> forXmlObject(XMLObject value) {
+		AttributeValueConverter<?> result = forSchemaType(value.getSchemaType());
+		if (result == null && !(value instanceof XSAny)) {
+			for (AttributeValueConverter<?> converter : converters) {
+				if (converter instanceof TypedAttributeValueConverter &&
+					((TypedAttributeValueConverter<?, ?>) converter).getXmlType().isInstance(value)) {
+					return converter;
+				}
+			}
+		}
+		return result;
+	}
+
+	private Optional<AttributeValueConverter<?>> find(Class<?> type) {
+		for (AttributeValueConverter<?> converter : converters) {
+			if (converter.getJavaType().isAssignableFrom(type)) {
+				return Optional.of(converter);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static Object toUri(XSURI value) {
+		if (value.getValue() == null) {
+			return null;
+		}
+		try {
+			return new URI(value.getValue());
+		} catch (URISyntaxException e) {
+			return value.getValue();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.key.SimpleKey;
+
+import org.opensaml.security.credential.Credential;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bounded, least recently used cache of resolved credentials.
+ * Entries are keyed by the key name and a SHA-256 digest of the key store alias, certificate,
+ * private key and passphrase, so a rotated key is never served a stale credential.
+ * State derived from a credential, such as signing parameters or decrypters, is attached to its entry
+ * and removed together with it.
+ */
+public class CredentialCache {
+
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Map<String, CachedCredential> cache;
+	//entries by credential instance, kept in step with the cache
+	private final Map<Credential, CachedCredential> entries = new IdentityHashMap<>();
+	private final int maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public CredentialCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public CredentialCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<String, CachedCredential>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedCredential> eldest) {
+				boolean evict = size() > CredentialCache.this.maxSize;
+				if (evict) {
+					evictions.incrementAndGet();
+					entries.remove(eldest.getValue().credential);
+				}
+				return evict;
+			}
+		};
+	}
+
+	public Credential get(SimpleKey key, Function<SimpleKey, Credential> loader) {
+		String cacheKey = getCacheKey(key);
+		CachedCredential entry;
+		synchronized (cache) {
+			entry = cache.get(cacheKey);
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+			return entry.credential;
+		}
+		misses.incrementAndGet();
+		Credential result = loader.apply(key);
+		if (result != null) {
+			synchronized (cache) {
+				CachedCredential previous = cache.put(cacheKey, entry = new CachedCredential(result));
+				if (previous != null) {
+					entries.remove(previous.credential);
+				}
+				entries.put(result, entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns state derived from a cached credential, creating it on first use.
+	 * The state lives as long as the credential's cache entry. For credentials that are not,
+	 * or no longer, in the cache it is created on every call and not kept.
+	 * @param credential - a credential returned by this cache
+	 * @param name - identifies the derived state
+	 * @param factory - creates the derived state
+	 * @param <T> - the type of the derived state
+	 * @return the derived state
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getAttachment(Credential credential, String name, Supplier<T> factory) {
+		CachedCredential entry;
+		synchronized (cache) {
+			entry = entries.get(credential);
+		}
+		if (entry == null) {
+			return factory.get();
+		}
+		return (T) entry.attachments.computeIfAbsent(name, n -> factory.get());
+	}
+
+	/**
+	 * Removes all cached credentials for a key name, regardless of key material.
+	 * @param keyName - the name of the key that was rotated or removed
+	 */
+	public void invalidate(String keyName) {
+		String prefix = keyName + ":";
+		synchronized (cache) {
+			for (Iterator<Map.Entry<String, CachedCredential>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, CachedCredential> next = it.next();
+				if (next.getKey().startsWith(prefix)) {
+					entries.remove(next.getValue().credential);
+					it.remove();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0d : (double) h / (double) total;
+	}
+
+	protected String getCacheKey(SimpleKey key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			update(digest, key.getAlias());
+			update(digest, key.getCertificate());
+			update(digest, key.getPrivateKey());
+			update(digest, key.getPassphrase());
+			return key.getName() + ":" + toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlKeyException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(UTF_8));
+		}
+		digest.update((byte) 0);
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] result = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			result[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			result[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(result);
+	}
+
+	private static class CachedCredential {
+		private final Credential credential;
+		private final Map<String, Object> attachments = new ConcurrentHashMap<>();
+
+		private CachedCredential(Credential credential) {
+			this.credential = credential;
+		}
+	}
+}
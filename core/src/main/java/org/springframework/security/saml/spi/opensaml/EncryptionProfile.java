@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
+import org.springframework.security.saml.saml2.encrypt.KeyEncryptionMethod;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.opensaml.saml.saml2.encryption.Encrypter;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
+import org.opensaml.xmlsec.keyinfo.KeyInfoGenerator;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Encryption settings prepared once per recipient credential and algorithm pair.
+ * Only the session key is generated per message, using a key generator confined to the calling thread.
+ */
+public class EncryptionProfile {
+
+	private static final ThreadLocal<Map<DataEncryptionMethod, KeyGenerator>> generators =
+		ThreadLocal.withInitial(HashMap::new);
+
+	private final Credential credential;
+	private final KeyEncryptionMethod keyAlgorithm;
+	private final DataEncryptionMethod dataAlgorithm;
+	private final Encrypter.KeyPlacement keyPlacement;
+	private final KeyEncryptionParameters keyEncryptionParameters;
+
+	public EncryptionProfile(Credential credential,
+							 KeyEncryptionMethod keyAlgorithm,
+							 DataEncryptionMethod dataAlgorithm,
+							 Encrypter.KeyPlacement keyPlacement,
+							 KeyInfoGenerator keyInfoGenerator) {
+		this.credential = credential;
+		this.keyAlgorithm = keyAlgorithm;
+		this.dataAlgorithm = dataAlgorithm;
+		this.keyPlacement = keyPlacement;
+		this.keyEncryptionParameters = new KeyEncryptionParameters();
+		keyEncryptionParameters.setEncryptionCredential(credential);
+		keyEncryptionParameters.setAlgorithm(keyAlgorithm.toString());
+		keyEncryptionParameters.setKeyInfoGenerator(keyInfoGenerator);
+	}
+
+	public Credential getCredential() {
+		return credential;
+	}
+
+	public KeyEncryptionMethod getKeyAlgorithm() {
+		return keyAlgorithm;
+	}
+
+	public DataEncryptionMethod getDataAlgorithm() {
+		return dataAlgorithm;
+	}
+
+	public Encrypter.KeyPlacement getKeyPlacement() {
+		return keyPlacement;
+	}
+
+	/**
+	 * @return a new encrypter with a freshly generated session key
+	 */
+	public Encrypter getEncrypter() {
+		DataEncryptionParameters dataEncryptionParameters = new DataEncryptionParameters();
+		dataEncryptionParameters.setEncryptionCredential(new BasicCredential(generateSessionKey(dataAlgorithm)));
+		dataEncryptionParameters.setAlgorithm(dataAlgorithm.toString());
+		Encrypter encrypter = new Encrypter(dataEncryptionParameters, singletonList(keyEncryptionParameters));
+		encrypter.setKeyPlacement(keyPlacement);
+		return encrypter;
+	}
+
+	public static SecretKey generateSessionKey(DataEncryptionMethod dataAlgorithm) {
+		return generators.get().computeIfAbsent(dataAlgorithm, EncryptionProfile::createKeyGenerator).generateKey();
+	}
+
+	private static KeyGenerator createKeyGenerator(DataEncryptionMethod dataAlgorithm) {
+		try {
+			KeyGenerator generator =
+				KeyGenerator.getInstance(JCEMapper.getJCEKeyAlgorithmFromURI(dataAlgorithm.toString()));
+			generator.init(JCEMapper.getKeyLengthFromURI(dataAlgorithm.toString()));
+			return generator;
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException(e);
+		}
+	}
+}
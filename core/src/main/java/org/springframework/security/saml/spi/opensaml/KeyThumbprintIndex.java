@@ -0,0 +1,274 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.security.saml.key.SimpleKey;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.X509Certificate;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.opensaml.xmlsec.signature.X509Digest;
+
+import static java.util.Optional.ofNullable;
+import static org.springframework.security.saml.spi.opensaml.CredentialCache.toHex;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Selects the keys referenced by a {@link KeyInfo} hint (X509 certificate, X509 digest or key name)
+ * using thumbprints of the candidate credentials, so that a message is verified or decrypted
+ * with the matching key first instead of trying the keys in their configured order.
+ */
+public class KeyThumbprintIndex {
+
+	private static final Log logger = LogFactory.getLog(KeyThumbprintIndex.class);
+	private static final String SHA_256 = "SHA-256";
+
+	private final Map<Credential, Thumbprints> thumbprints = Collections.synchronizedMap(new WeakHashMap<>());
+	private final AtomicLong hinted = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+	private final AtomicLong unmatched = new AtomicLong();
+
+	/**
+	 * Selects candidate keys based on the hints present in the key info.
+	 * @param keyInfo - the key info from a signature or encrypted key, may be null
+	 * @param keys - the candidate keys
+	 * @param credentials - resolves the credential for a candidate key
+	 * @return every candidate key, the keys matching a certificate or digest hint first,
+	 * followed by the keys named by a key name hint and then the remaining keys in their original order
+	 */
+	public List<SimpleKey> select(KeyInfo keyInfo,
+								  List<SimpleKey> keys,
+								  Function<SimpleKey, Credential> credentials) {
+		Hints hints = getHints(keyInfo);
+		if (hints.isEmpty()) {
+			fallbacks.incrementAndGet();
+			return keys;
+		}
+		Set<SimpleKey> result = new LinkedHashSet<>();
+		for (SimpleKey key : keys) {
+			if (matches(hints, getThumbprints(credentials.apply(key)), false)) {
+				result.add(key);
+			}
+		}
+		if (result.isEmpty() && !hints.certificates.isEmpty()) {
+			//the same key may have been re-issued in a different certificate
+			for (SimpleKey key : keys) {
+				if (matches(hints, getThumbprints(credentials.apply(key)), true)) {
+					result.add(key);
+				}
+			}
+		}
+		//a key name is chosen by the sender and is not authoritative, it is only used for ordering
+		for (SimpleKey key : keys) {
+			if (hints.keyNames.contains(key.getName())) {
+				result.add(key);
+			}
+		}
+		if (result.isEmpty()) {
+			//a stale or intermediate certificate, every key is still tried
+			unmatched.incrementAndGet();
+			fallbacks.incrementAndGet();
+			return keys;
+		}
+		hinted.incrementAndGet();
+		result.addAll(keys);
+		return new LinkedList<>(result);
+	}
+
+	/**
+	 * @return number of lookups that were resolved through a key info hint
+	 */
+	public long getHintedLookups() {
+		return hinted.get();
+	}
+
+	/**
+	 * @return number of lookups that had to try every candidate key
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * @return number of lookups where a hint was present but did not match any candidate key
+	 */
+	public long getUnmatchedHints() {
+		return unmatched.get();
+	}
+
+	public void clear() {
+		thumbprints.clear();
+	}
+
+	private Thumbprints getThumbprints(Credential credential) {
+		return credential == null ? null : thumbprints.computeIfAbsent(credential, Thumbprints::new);
+	}
+
+	private boolean matches(Hints hints, Thumbprints t, boolean publicKeyOnly) {
+		if (t == null) {
+			return false;
+		}
+		if (publicKeyOnly) {
+			return t.publicKey != null && hints.getPublicKeyThumbprints().contains(t.publicKey);
+		}
+		if (t.certificate != null && hints.getCertificateThumbprints().contains(t.certificate)) {
+			return true;
+		}
+		for (Map.Entry<String, String> digest : hints.digests.entrySet()) {
+			if (digest.getValue().equals(t.getCertificateDigest(digest.getKey()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected Hints getHints(KeyInfo keyInfo) {
+		Hints hints = new Hints();
+		if (keyInfo == null) {
+			return hints;
+		}
+		for (String name : KeyInfoSupport.getKeyNames(keyInfo)) {
+			if (hasText(name)) {
+				hints.keyNames.add(name.trim());
+			}
+		}
+		for (X509Data data : keyInfo.getX509Datas()) {
+			for (X509Certificate certificate : data.getX509Certificates()) {
+				if (hasText(certificate.getValue())) {
+					hints.certificates.add(decode(certificate.getValue()));
+				}
+			}
+			for (X509Digest digest : data.getX509Digests()) {
+				String algorithm = JCEMapper.translateURItoJCEID(digest.getAlgorithm());
+				if (algorithm != null && hasText(digest.getValue())) {
+					hints.digests.put(algorithm, toHex(decode(digest.getValue())));
+				}
+			}
+		}
+		return hints;
+	}
+
+	private static byte[] decode(String base64) {
+		return Base64.getMimeDecoder().decode(base64);
+	}
+
+	private static String digest(String algorithm, byte[] data) {
+		try {
+			return toHex(MessageDigest.getInstance(algorithm).digest(data));
+		} catch (NoSuchAlgorithmException e) {
+			logger.debug("Unsupported digest algorithm:" + algorithm, e);
+			return null;
+		}
+	}
+
+	protected static class Hints {
+		private final Set<String> keyNames = new LinkedHashSet<>();
+		private final List<byte[]> certificates = new LinkedList<>();
+		private final Map<String, String> digests = new HashMap<>();
+		private Set<String> certificateThumbprints;
+		private Set<String> publicKeyThumbprints;
+
+		boolean isEmpty() {
+			return keyNames.isEmpty() && certificates.isEmpty() && digests.isEmpty();
+		}
+
+		Set<String> getCertificateThumbprints() {
+			if (certificateThumbprints == null) {
+				certificateThumbprints = new HashSet<>();
+				for (byte[] certificate : certificates) {
+					certificateThumbprints.add(digest(SHA_256, certificate));
+				}
+			}
+			return certificateThumbprints;
+		}
+
+		Set<String> getPublicKeyThumbprints() {
+			if (publicKeyThumbprints == null) {
+				publicKeyThumbprints = new HashSet<>();
+				for (byte[] certificate : certificates) {
+					try {
+						PublicKey key = CertificateFactory.getInstance("X.509")
+							.generateCertificate(new ByteArrayInputStream(certificate))
+							.getPublicKey();
+						publicKeyThumbprints.add(digest(SHA_256, key.getEncoded()));
+					} catch (CertificateException e) {
+						logger.debug("Unable to parse certificate from key info.", e);
+					}
+				}
+			}
+			return publicKeyThumbprints;
+		}
+	}
+
+	private static class Thumbprints {
+		private final byte[] encoded;
+		private final String certificate;
+		private final String publicKey;
+		private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+		Thumbprints(Credential credential) {
+			byte[] der = null;
+			if (credential instanceof X509Credential && ((X509Credential) credential).getEntityCertificate() != null) {
+				try {
+					der = ((X509Credential) credential).getEntityCertificate().getEncoded();
+				} catch (CertificateEncodingException e) {
+					logger.debug("Unable to encode certificate.", e);
+				}
+			}
+			this.encoded = der;
+			this.certificate = der == null ? null : digest(SHA_256, der);
+			this.publicKey = credential.getPublicKey() == null ?
+				null :
+				digest(SHA_256, credential.getPublicKey().getEncoded());
+		}
+
+		String getCertificateDigest(String algorithm) {
+			if (encoded == null) {
+				return null;
+			}
+			return digests.computeIfAbsent(algorithm, a -> ofNullable(digest(a, encoded)).orElse(""));
+		}
+	}
+}
@@ -18,32 +18,37 @@
 package org.springframework.security.saml.spi.opensaml;
 
 import java.io.ByteArrayInputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.KeyStore;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import javax.crypto.SecretKey;
 import javax.xml.datatype.Duration;
-import javax.xml.namespace.QName;
 
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlKeyException;
 import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.ImplementationHolder;
+import org.springframework.security.saml.saml2.RetainedXml;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.XmlRetention;
 import org.springframework.security.saml.saml2.attribute.Attribute;
 import org.springframework.security.saml.saml2.attribute.AttributeNameFormat;
 import org.springframework.security.saml.saml2.authentication.Assertion;
@@ -89,46 +94,29 @@ import org.springframework.security.saml.spi.SamlKeyStoreProvider;
 import org.springframework.security.saml.spi.SpringSecuritySaml;
 import org.springframework.util.CollectionUtils;
 
-import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
-import net.shibboleth.utilities.java.support.xml.BasicParserPool;
 import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
+import net.shibboleth.utilities.java.support.xml.NamespaceSupport;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.signature.XMLSignatureException;
-import org.joda.time.DateTime;
 import org.opensaml.core.config.ConfigurationService;
 import org.opensaml.core.config.InitializationException;
 import org.opensaml.core.config.InitializationService;
 import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.xml.XMLObject;
-import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.XMLObjectBuilderFactory;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
-import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallerFactory;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.io.UnmarshallerFactory;
 import org.opensaml.core.xml.io.UnmarshallingException;
-import org.opensaml.core.xml.schema.XSAny;
-import org.opensaml.core.xml.schema.XSBase64Binary;
-import org.opensaml.core.xml.schema.XSBoolean;
-import org.opensaml.core.xml.schema.XSBooleanValue;
-import org.opensaml.core.xml.schema.XSDateTime;
-import org.opensaml.core.xml.schema.XSInteger;
-import org.opensaml.core.xml.schema.XSString;
-import org.opensaml.core.xml.schema.XSURI;
-import org.opensaml.core.xml.schema.impl.XSAnyBuilder;
-import org.opensaml.core.xml.schema.impl.XSBooleanBuilder;
-import org.opensaml.core.xml.schema.impl.XSDateTimeBuilder;
-import org.opensaml.core.xml.schema.impl.XSIntegerBuilder;
-import org.opensaml.core.xml.schema.impl.XSStringBuilder;
-import org.opensaml.core.xml.schema.impl.XSURIBuilder;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.common.SAMLObject;
 import org.opensaml.saml.common.SAMLObjectBuilder;
 import org.opensaml.saml.common.SAMLObjectContentReference;
@@ -136,10 +124,10 @@ import org.opensaml.saml.common.SAMLVersion;
 import org.opensaml.saml.common.SignableSAMLObject;
 import org.opensaml.saml.ext.idpdisco.DiscoveryResponse;
 import org.opensaml.saml.ext.idpdisco.impl.DiscoveryResponseBuilder;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
 import org.opensaml.saml.ext.saml2mdreqinit.RequestInitiator;
 import org.opensaml.saml.ext.saml2mdreqinit.impl.RequestInitiatorBuilder;
 import org.opensaml.saml.saml2.core.AttributeStatement;
-import org.opensaml.saml.saml2.core.AttributeValue;
 import org.opensaml.saml.saml2.core.Audience;
 import org.opensaml.saml.saml2.core.AuthnContext;
 import org.opensaml.saml.saml2.core.AuthnContextClassRef;
@@ -175,24 +163,24 @@ import org.opensaml.saml.saml2.metadata.SingleLogoutService;
 import org.opensaml.saml.saml2.metadata.SingleSignOnService;
 import org.opensaml.saml.saml2.metadata.impl.ExtensionsBuilder;
 import org.opensaml.security.SecurityException;
-import org.opensaml.security.credential.BasicCredential;
 import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.UsageType;
 import org.opensaml.security.credential.impl.KeyStoreCredentialResolver;
 import org.opensaml.xmlsec.SignatureSigningParameters;
 import org.opensaml.xmlsec.config.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.encryption.EncryptedKey;
 import org.opensaml.xmlsec.encryption.support.ChainingEncryptedKeyResolver;
-import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
 import org.opensaml.xmlsec.encryption.support.DecryptionException;
 import org.opensaml.xmlsec.encryption.support.EncryptionException;
 import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
-import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
 import org.opensaml.xmlsec.encryption.support.SimpleRetrievalMethodEncryptedKeyResolver;
 import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
 import org.opensaml.xmlsec.keyinfo.KeyInfoGenerator;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
 import org.opensaml.xmlsec.keyinfo.NamedKeyInfoGeneratorManager;
 import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
 import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.KeyName;
 import org.opensaml.xmlsec.signature.X509Certificate;
 import org.opensaml.xmlsec.signature.X509Data;
 import org.opensaml.xmlsec.signature.impl.SignatureImpl;
@@ -200,12 +188,9 @@ import org.opensaml.xmlsec.signature.support.ContentReference;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureSupport;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
-import org.opensaml.xmlsec.signature.support.Signer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import static java.lang.Boolean.FALSE;
-import static java.lang.Boolean.TRUE;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
@@ -213,20 +198,36 @@ import static java.util.Collections.emptyList;
 import static java.util.Objects.isNull;
 import static java.util.Optional.ofNullable;
 import static org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration.EXACT;
-import static org.opensaml.security.crypto.KeySupport.generateKey;
 import static org.springframework.security.saml.saml2.Namespace.NS_PROTOCOL;
 import static org.springframework.util.StringUtils.hasText;
 
 public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplementation> {
 
 	private static final Log logger = LogFactory.getLog(OpenSamlImplementation.class);
-	private BasicParserPool parserPool;
+	private StripedParserPool parserPool = new StripedParserPool();
 	private ChainingEncryptedKeyResolver encryptedKeyResolver;
 	private SamlKeyStoreProvider samlKeyStoreProvider = new SamlKeyStoreProvider() {};
+	private CredentialCache credentialCache = new CredentialCache();
+	private final Runnable keyChangeListener = () -> getCredentialCache().clear();
+	private KeyThumbprintIndex keyThumbprintIndex = new KeyThumbprintIndex();
+	private SigningEngine signingEngine = new SigningEngine();
+	private final XmlObjectTypes xmlObjectTypes = new XmlObjectTypes();
+	private AttributeValueConverters attributeValueConverters = AttributeValueConverters.defaults();
+	private final Map<Credential, KeyInfo> keyInfos = Collections.synchronizedMap(new WeakHashMap<>());
+	private NamedKeyInfoGeneratorManager keyInfoGeneratorManager;
+	private boolean lazyMaterialization = false;
+	private Executor decryptionExecutor;
+	private int parallelDecryptionThreshold = 4;
+	private boolean templateSerialization = false;
+	private final TemplateSerializer templateSerializer = new TemplateSerializer(this);
+	private boolean streamingRequestParsing = false;
+	private final StreamingRequestParser streamingRequestParser = new StreamingRequestParser(this);
+	private XmlRetention xmlRetention = XmlRetention.FULL;
+	private final AtomicLong parsedXmlBytes = new AtomicLong();
+	private final AtomicLong retainedXmlBytes = new AtomicLong();
 
 	public OpenSamlImplementation(Clock time) {
 		super(time);
-		this.parserPool = new BasicParserPool();
 	}
 
 	public SamlKeyStoreProvider getSamlKeyStoreProvider() {
@@ -234,14 +235,196 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	public OpenSamlImplementation setSamlKeyStoreProvider(SamlKeyStoreProvider samlKeyStoreProvider) {
+		SamlKeyStoreProvider previous = this.samlKeyStoreProvider;
 		this.samlKeyStoreProvider = samlKeyStoreProvider;
+		credentialCache.clear();
+		if (previous != samlKeyStoreProvider) {
+			if (previous != null) {
+				previous.removeKeyChangeListener(keyChangeListener);
+			}
+			if (samlKeyStoreProvider != null) {
+				samlKeyStoreProvider.addKeyChangeListener(keyChangeListener);
+			}
+		}
+		return this;
+	}
+
+	public CredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	public OpenSamlImplementation setCredentialCache(CredentialCache credentialCache) {
+		this.credentialCache = credentialCache;
+		return this;
+	}
+
+	public KeyThumbprintIndex getKeyThumbprintIndex() {
+		return keyThumbprintIndex;
+	}
+
+	public OpenSamlImplementation setKeyThumbprintIndex(KeyThumbprintIndex keyThumbprintIndex) {
+		this.keyThumbprintIndex = keyThumbprintIndex;
+		return this;
+	}
+
+	public SigningEngine getSigningEngine() {
+		return signingEngine;
+	}
+
+	public OpenSamlImplementation setSigningEngine(SigningEngine signingEngine) {
+		this.signingEngine = signingEngine;
+		return this;
+	}
+
+	public boolean isLazyMaterialization() {
+		return lazyMaterialization;
+	}
+
+	/**
+	 * When enabled, the subject, conditions, authentication statements and attributes of a resolved
+	 * assertion, and the values of each attribute, are converted from the parsed XML on first access
+	 * instead of up front.
+	 * Errors decrypting a name ID or an attribute are then raised on first access as well.
+	 * @param lazyMaterialization - true to defer the conversion
+	 * @return this object
+	 */
+	public OpenSamlImplementation setLazyMaterialization(boolean lazyMaterialization) {
+		this.lazyMaterialization = lazyMaterialization;
+		return this;
+	}
+
+	public Executor getDecryptionExecutor() {
+		return decryptionExecutor;
+	}
+
+	/**
+	 * Enables parallel decryption of the encrypted assertions of a response, and of the encrypted
+	 * attributes of an attribute statement. Elements are returned in document order and the first
+	 * failure in document order is raised, as with sequential decryption.
+	 * @param decryptionExecutor - a bounded executor, such as a fixed thread pool,
+	 *                           or null to decrypt sequentially (default)
+	 * @return this object
+	 */
+	public OpenSamlImplementation setDecryptionExecutor(Executor decryptionExecutor) {
+		this.decryptionExecutor = decryptionExecutor;
+		return this;
+	}
+
+	public int getParallelDecryptionThreshold() {
+		return parallelDecryptionThreshold;
+	}
+
+	/**
+	 * @param parallelDecryptionThreshold - the number of sibling encrypted elements below which
+	 *                                    they are decrypted sequentially, 4 by default
+	 * @return this object
+	 */
+	public OpenSamlImplementation setParallelDecryptionThreshold(int parallelDecryptionThreshold) {
+		this.parallelDecryptionThreshold = parallelDecryptionThreshold;
+		return this;
+	}
+
+	public boolean isTemplateSerialization() {
+		return templateSerialization;
+	}
+
+	/**
+	 * When enabled, assertions and responses are written from templates by the {@link TemplateSerializer}
+	 * instead of through an OpenSAML object graph. Shapes the templates do not cover still use the object graph.
+	 * @param templateSerialization - true to write assertions and responses from templates
+	 * @return this object
+	 */
+	public OpenSamlImplementation setTemplateSerialization(boolean templateSerialization) {
+		this.templateSerialization = templateSerialization;
+		return this;
+	}
+
+	public boolean isStreamingRequestParsing() {
+		return streamingRequestParsing;
+	}
+
+	/**
+	 * When enabled, unsigned authentication and logout requests are read by the {@link StreamingRequestParser}
+	 * without building an OpenSAML object graph. Signed requests and content the parser does not cover
+	 * are still parsed, and have their signatures verified, by OpenSAML.
+	 * @param streamingRequestParsing - true to read simple requests with a streaming parser
+	 * @return this object
+	 */
+	public OpenSamlImplementation setStreamingRequestParsing(boolean streamingRequestParsing) {
+		this.streamingRequestParsing = streamingRequestParsing;
+		return this;
+	}
+
+	public StreamingRequestParser getStreamingRequestParser() {
+		return streamingRequestParser;
+	}
+
+	public AttributeValueConverters getAttributeValueConverters() {
+		return attributeValueConverters;
+	}
+
+	/**
+	 * @param attributeValueConverters - converts attribute values, {@link AttributeValueConverters#defaults()}
+	 *                                 unless set
+	 * @return this object
+	 */
+	public OpenSamlImplementation setAttributeValueConverters(AttributeValueConverters attributeValueConverters) {
+		this.attributeValueConverters = attributeValueConverters;
 		return this;
 	}
 
-	public BasicParserPool getParserPool() {
+	public XmlObjectTypes getXmlObjectTypes() {
+		return xmlObjectTypes;
+	}
+
+	public TemplateSerializer getTemplateSerializer() {
+		return templateSerializer;
+	}
+
+	public XmlRetention getXmlRetention() {
+		return xmlRetention;
+	}
+
+	/**
+	 * Selects how much of an inbound message is kept on the resolved object.
+	 * Metadata is always kept in full. The policy is applied once the message has been validated,
+	 * by the authentication filters and logout handlers of both the service and identity provider.
+	 * @param xmlRetention - the retention policy, {@link XmlRetention#FULL} by default
+	 * @return this object
+	 */
+	public OpenSamlImplementation setXmlRetention(XmlRetention xmlRetention) {
+		this.xmlRetention = xmlRetention;
+		return this;
+	}
+
+	/**
+	 * @return total size of the messages resolved so far, in bytes
+	 */
+	public long getParsedXmlBytes() {
+		return parsedXmlBytes.get();
+	}
+
+	/**
+	 * @return estimated heap retained by the original XML of the messages resolved so far,
+	 * before any of them is released
+	 */
+	public long getRetainedXmlBytes() {
+		return retainedXmlBytes.get();
+	}
+
+	public StripedParserPool getParserPool() {
 		return parserPool;
 	}
 
+	/**
+	 * @param parserPool - the pool used to parse inbound XML, must be set before {@link #init()}
+	 * @return this object
+	 */
+	public OpenSamlImplementation setParserPool(StripedParserPool parserPool) {
+		this.parserPool = parserPool;
+		return this;
+	}
+
 	public MarshallerFactory getMarshallerFactory() {
 		return XMLObjectProviderRegistrySupport.getMarshallerFactory();
 	}
@@ -283,47 +466,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected void bootstrap() {
-		//configure default values
-		//maxPoolSize = 5;
-		parserPool.setMaxPoolSize(50);
-		//coalescing = true;
-		parserPool.setCoalescing(true);
-		//expandEntityReferences = false;
-		parserPool.setExpandEntityReferences(false);
-		//ignoreComments = true;
-		parserPool.setIgnoreComments(true);
-		//ignoreElementContentWhitespace = true;
-		parserPool.setIgnoreElementContentWhitespace(true);
-		//namespaceAware = true;
-		parserPool.setNamespaceAware(true);
-		//schema = null;
-		parserPool.setSchema(null);
-		//dtdValidating = false;
-		parserPool.setDTDValidating(false);
-		//xincludeAware = false;
-		parserPool.setXincludeAware(false);
-
-		Map<String, Object> builderAttributes = new HashMap<>();
-		parserPool.setBuilderAttributes(builderAttributes);
-
-		Map<String, Boolean> parserBuilderFeatures = new HashMap<>();
-		parserBuilderFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", TRUE);
-		parserBuilderFeatures.put("http://javax.xml.XMLConstants/feature/secure-processing", TRUE);
-		parserBuilderFeatures.put("http://xml.org/sax/features/external-general-entities", FALSE);
-		parserBuilderFeatures.put(
-			"http://apache.org/xml/features/validation/schema/normalized-value",
-			FALSE
-		);
-		parserBuilderFeatures.put("http://xml.org/sax/features/external-parameter-entities", FALSE);
-		parserBuilderFeatures.put("http://apache.org/xml/features/dom/defer-node-expansion", FALSE);
-		parserPool.setBuilderFeatures(parserBuilderFeatures);
-
-		try {
-			parserPool.initialize();
-		} catch (ComponentInitializationException x) {
-			throw new SamlException("Unable to initialize OpenSaml v3 ParserPool", x);
-		}
-
+		parserPool.initialize();
 
 		try {
 			InitializationService.initialize();
@@ -341,6 +484,32 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		}
 
 		registry.setParserPool(parserPool);
+		xmlObjectTypes.preload(
+			AuthnRequest.class,
+			org.opensaml.saml.saml2.core.Response.class,
+			org.opensaml.saml.saml2.core.Assertion.class,
+			org.opensaml.saml.saml2.core.LogoutRequest.class,
+			org.opensaml.saml.saml2.core.LogoutResponse.class,
+			org.opensaml.saml.saml2.core.Issuer.class,
+			org.opensaml.saml.saml2.core.Status.class,
+			org.opensaml.saml.saml2.core.StatusCode.class,
+			StatusMessage.class,
+			NameID.class,
+			org.opensaml.saml.saml2.core.Subject.class,
+			org.opensaml.saml.saml2.core.SubjectConfirmation.class,
+			org.opensaml.saml.saml2.core.SubjectConfirmationData.class,
+			org.opensaml.saml.saml2.core.Conditions.class,
+			org.opensaml.saml.saml2.core.AudienceRestriction.class,
+			Audience.class,
+			org.opensaml.saml.saml2.core.OneTimeUse.class,
+			org.opensaml.saml.saml2.core.AuthnStatement.class,
+			org.opensaml.saml.saml2.core.AuthnContext.class,
+			AuthnContextClassRef.class,
+			org.opensaml.saml.saml2.core.AttributeStatement.class,
+			org.opensaml.saml.saml2.core.Attribute.class,
+			org.opensaml.xmlsec.signature.Signature.class
+		);
+		keyInfoGeneratorManager = DefaultSecurityConfigurationBootstrap.buildBasicKeyInfoGeneratorManager();
 		encryptedKeyResolver = new ChainingEncryptedKeyResolver(
 			asList(
 				new InlineEncryptedKeyResolver(),
@@ -372,6 +541,29 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	@Override
 	public String toXml(Saml2Object saml2Object) {
+		String result = templateSerialization ? templateSerializer.toXml(saml2Object) : null;
+		return result != null ? result : marshallToXml(toXmlObject(saml2Object));
+	}
+
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		String template = templateSerialization ? templateSerializer.toXml(saml2Object) : null;
+		if (template != null) {
+			try {
+				out.write(template.getBytes(UTF_8));
+				return;
+			} catch (IOException e) {
+				throw new SamlException(e);
+			}
+		}
+		try {
+			SerializeSupport.writeNode(marshallToElement(toXmlObject(saml2Object)), out);
+		} catch (MarshallingException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	protected XMLObject toXmlObject(Saml2Object saml2Object) {
 		XMLObject result = null;
 		if (saml2Object instanceof AuthenticationRequest) {
 			result = internalToXml((AuthenticationRequest) saml2Object);
@@ -392,7 +584,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			result = internalToXml((LogoutResponse) saml2Object);
 		}
 		if (result != null) {
-			return marshallToXml(result);
+			return result;
 		}
 		throw new SamlException("To xml transformation not supported for: " +
 			saml2Object != null ?
@@ -407,6 +599,14 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	public Saml2Object resolve(byte[] xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys) {
+		if (streamingRequestParsing) {
+			Saml2Object streamed = streamingRequestParser.parse(xml);
+			if (streamed != null) {
+				retain((ImplementationHolder) streamed, null, xml);
+				((ImplementationHolder) streamed).setStreamed(true);
+				return streamed;
+			}
+		}
 		XMLObject parsed = parse(xml);
 		Signature signature = validateSignature((SignableSAMLObject) parsed, verificationKeys);
 		Saml2Object result = null;
@@ -446,17 +646,62 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		}
 		if (result != null) {
 			if (result instanceof ImplementationHolder) {
-				((ImplementationHolder) result).setImplementation(parsed);
-				((ImplementationHolder) result).setOriginalXML(new String(xml, StandardCharsets.UTF_8));
+				retain((ImplementationHolder) result, parsed, xml);
 			}
 			return result;
 		}
 		throw new SamlException("Deserialization not yet supported for class: " + parsed.getClass());
 	}
 
+	protected void retain(ImplementationHolder holder, Object parsed, byte[] xml) {
+		//metadata is long lived and always kept as is
+		XmlRetention retention = holder instanceof Metadata ? XmlRetention.FULL : getXmlRetention();
+		RetainedXml retained = RetainedXml.of(xml, retention);
+		holder
+			.setRetention(retention)
+			.setImplementation(parsed)
+			.setRetainedXML(retained);
+		parsedXmlBytes.addAndGet(xml.length);
+		retainedXmlBytes.addAndGet(retained.getRetainedBytes());
+	}
+
+	@Override
+	public Saml2Object verifySignatures(Saml2Object saml2Object, List<SimpleKey> verificationKeys) {
+		if (isStreamed(saml2Object)) {
+			//only unsigned requests are streamed
+			return saml2Object;
+		}
+		if (saml2Object == null || !(saml2Object.getImplementation() instanceof SignableSAMLObject)) {
+			throw new SamlException("No parsed object to verify signatures against.");
+		}
+		Signature signature = validateSignature((SignableSAMLObject) saml2Object.getImplementation(), verificationKeys);
+		if (saml2Object instanceof Response) {
+			Response response = ((Response) saml2Object).setSignature(signature);
+			for (Assertion assertion : ofNullable(response.getAssertions()).orElse(emptyList())) {
+				verifySignatures(assertion, verificationKeys);
+			}
+		}
+		else if (saml2Object instanceof Assertion) {
+			((Assertion) saml2Object).setSignature(signature);
+		}
+		else if (saml2Object instanceof AuthenticationRequest) {
+			((AuthenticationRequest) saml2Object).setSignature(signature);
+		}
+		else if (saml2Object instanceof LogoutRequest) {
+			((LogoutRequest) saml2Object).setSignature(signature);
+		}
+		else if (saml2Object instanceof LogoutResponse) {
+			((LogoutResponse) saml2Object).setSignature(signature);
+		}
+		else {
+			throw new SamlException("Signature verification not yet supported for class: " + saml2Object.getClass());
+		}
+		return saml2Object;
+	}
+
 	@Override
 	public Signature validateSignature(Saml2Object saml2Object, List<SimpleKey> trustedKeys) {
-		if (saml2Object == null || saml2Object.getImplementation() == null) {
+		if (saml2Object == null || (saml2Object.getImplementation() == null && !isStreamed(saml2Object))) {
 			throw new SamlException("No object to validate signature against.");
 		}
 
@@ -464,7 +709,11 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			throw new SamlKeyException("At least one verification key has to be provided");
 		}
 
-		if (saml2Object.getImplementation() instanceof SignableSAMLObject) {
+		if (isStreamed(saml2Object)) {
+			//only unsigned requests are streamed
+			return null;
+		}
+		else if (saml2Object.getImplementation() instanceof SignableSAMLObject) {
 			return validateSignature((SignableSAMLObject) saml2Object.getImplementation(), trustedKeys);
 		}
 		else {
@@ -474,15 +723,26 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		}
 	}
 
+	private boolean isStreamed(Saml2Object saml2Object) {
+		return saml2Object instanceof ImplementationHolder && ((ImplementationHolder) saml2Object).isStreamed();
+	}
+
 	public Signature validateSignature(SignableSAMLObject object, List<SimpleKey> keys) {
 		Signature result = null;
 		if (object.isSigned() && keys != null && !keys.isEmpty()) {
+			List<SimpleKey> candidates = getKeyThumbprintIndex().select(
+				object.getSignature().getKeyInfo(),
+				keys,
+				this::getCredential
+			);
 			SignatureException last = null;
-			for (SimpleKey key : keys) {
+			boolean validated = false;
+			for (SimpleKey key : candidates) {
 				try {
-					Credential credential = getCredential(key, getCredentialsResolver(key));
+					Credential credential = getCredential(key);
 					SignatureValidator.validate(object.getSignature(), credential);
 					last = null;
+					validated = true;
 					result = getSignature(object)
 						.setValidated(true)
 						.setValidatingKey(key);
@@ -491,7 +751,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 					last = e;
 				}
 			}
-			if (last != null) {
+			if (!validated) {
 				throw new org.springframework.security.saml.saml2.signature.SignatureException(
 					"Signature validation against a " + object.getClass().getName() +
 						" object failed using " + keys.size() + (keys.size() == 1 ? " key." : " keys."),
@@ -502,10 +762,48 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		return result;
 	}
 
+	@Override
+	public byte[] sign(byte[] data, SimpleKey key, AlgorithmMethod algorithm) {
+		return getSigningEngine().sign(getCredential(key), algorithm, data);
+	}
+
+	@Override
+	public SimpleKey verify(byte[] data, byte[] signature, AlgorithmMethod algorithm, List<SimpleKey> trustedKeys) {
+		if (trustedKeys == null || trustedKeys.isEmpty()) {
+			throw new SamlKeyException("At least one verification key has to be provided");
+		}
+		for (SimpleKey key : trustedKeys) {
+			Credential credential = getCredential(key);
+			if (credential != null && getSigningEngine().verify(credential, algorithm, data, signature)) {
+				return key;
+			}
+		}
+		throw new org.springframework.security.saml.saml2.signature.SignatureException(
+			"Detached signature validation failed using " + trustedKeys.size() +
+				(trustedKeys.size() == 1 ? " key." : " keys.")
+		);
+	}
+
+	public Credential getCredential(SimpleKey key) {
+		return getCredentialCache().get(key, k -> getCredential(k, getCredentialsResolver(k)));
+	}
+
+	@Override
+	public void preloadKeys(List<SimpleKey> keys) {
+		for (SimpleKey key : keys) {
+			Credential credential = getCredential(key);
+			try {
+				getKeyInfo(credential);
+			} catch (SecurityException e) {
+				throw new SamlKeyException(e);
+			}
+		}
+	}
+
 	public Credential getCredential(SimpleKey key, KeyStoreCredentialResolver resolver) {
 		try {
 			CriteriaSet cs = new CriteriaSet();
-			EntityIdCriterion criteria = new EntityIdCriterion(key.getName());
+			EntityIdCriterion criteria = new EntityIdCriterion(key.getAlias());
 			cs.add(criteria);
 			return resolver.resolveSingle(cs);
 		} catch (ResolverException e) {
@@ -515,9 +813,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	public KeyStoreCredentialResolver getCredentialsResolver(SimpleKey key) {
 		KeyStore ks = getSamlKeyStoreProvider().getKeyStore(key);
-		Map<String, String> passwords = hasText(key.getPrivateKey()) ?
-			Collections.singletonMap(key.getName(), key.getPassphrase()) :
-			Collections.emptyMap();
+		Map<String, String> passwords = getSamlKeyStoreProvider().getKeyPasswords(key);
 		KeyStoreCredentialResolver resolver = new KeyStoreCredentialResolver(
 			ks,
 			passwords
@@ -560,11 +856,6 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 												  DataEncryptionMethod dataAlgorithm) {
 		Encrypter encrypter = getEncrypter(key, keyAlgorithm, dataAlgorithm);
 		try {
-			Encrypter.KeyPlacement keyPlacement =
-				Encrypter.KeyPlacement.valueOf(
-					System.getProperty("spring.security.saml.encrypt.key.placement", "PEER")
-				);
-			encrypter.setKeyPlacement(keyPlacement);
 			return encrypter.encrypt(assertion);
 		} catch (EncryptionException e) {
 			throw new SamlException("Unable to encrypt assertion.", e);
@@ -572,57 +863,157 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected SAMLObject decrypt(EncryptedElementType encrypted, List<SimpleKey> keys) {
+		List<SimpleKey> candidates = getDecryptionKeys(encrypted, keys);
+		if (candidates.isEmpty()) {
+			throw new SamlKeyException("Unable to decrypt object, no decryption keys available.");
+		}
 		DecryptionException last = null;
-		for (SimpleKey key : keys) {
+		for (SimpleKey key : candidates) {
 			Decrypter decrypter = getDecrypter(key);
 			try {
 				return (SAMLObject) decrypter.decryptData(encrypted.getEncryptedData());
 			} catch (DecryptionException e) {
 				logger.debug(format("Unable to decrypt element:%s", encrypted), e);
+				last = e;
+			}
+		}
+		throw new SamlKeyException("Unable to decrypt object.", last);
+	}
+
+	/**
+	 * Decrypts sibling encrypted elements, in parallel on the {@link #setDecryptionExecutor(Executor)
+	 * decryption executor} when there are enough of them.
+	 * @param encrypted - the encrypted elements
+	 * @param keys - local decryption keys
+	 * @return the decrypted objects, in the order of the encrypted elements
+	 */
+	protected List<SAMLObject> decryptAll(List<? extends EncryptedElementType> encrypted, List<SimpleKey> keys) {
+		List<SAMLObject> result = new ArrayList<>(encrypted.size());
+		Executor executor = decryptionExecutor;
+		if (executor == null || encrypted.size() < Math.max(2, parallelDecryptionThreshold)) {
+			for (EncryptedElementType element : encrypted) {
+				result.add(decrypt(element, keys));
+			}
+			return result;
+		}
+		//the elements share a document, which is not safe to read concurrently
+		List<CompletableFuture<SAMLObject>> decrypted = new ArrayList<>(encrypted.size());
+		for (EncryptedElementType element : encrypted) {
+			EncryptedElementType isolated = isolate(element);
+			decrypted.add(CompletableFuture.supplyAsync(() -> decrypt(isolated, keys), executor));
+		}
+		for (int i = 0; i < decrypted.size(); i++) {
+			try {
+				result.add(decrypted.get(i).join());
+			} catch (CompletionException e) {
+				decrypted.subList(i + 1, decrypted.size()).forEach(f -> f.cancel(false));
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new SamlKeyException("Unable to decrypt object.", e.getCause());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param encrypted - an encrypted element
+	 * @return an equivalent element in a document of its own
+	 */
+	protected EncryptedElementType isolate(EncryptedElementType encrypted) {
+		Element dom = encrypted.getDOM();
+		if (dom == null) {
+			return encrypted;
+		}
+		try {
+			Document document = parserPool.newDocument();
+			Element copy = (Element) document.importNode(dom, true);
+			document.appendChild(copy);
+			NamespaceSupport.rootNamespaces(copy);
+			return (EncryptedElementType) getUnmarshallerFactory().getUnmarshaller(copy).unmarshall(copy);
+		} catch (XMLParserException | UnmarshallingException e) {
+			throw new SamlException("Unable to copy encrypted element", e);
+		}
+	}
+
+	/**
+	 * Orders the local keys by the key info hints of the encrypted keys, so that the
+	 * matching key is tried first instead of attempting an unwrap with every key in turn.
+	 */
+	protected List<SimpleKey> getDecryptionKeys(EncryptedElementType encrypted, List<SimpleKey> keys) {
+		Set<SimpleKey> result = new LinkedHashSet<>();
+		//the chained resolvers may return the same encrypted key more than once
+		Set<EncryptedKey> resolved = new HashSet<>();
+		boolean hasEncryptedKey = false;
+		for (EncryptedKey encryptedKey : encryptedKeyResolver.resolve(encrypted.getEncryptedData())) {
+			hasEncryptedKey = true;
+			if (!resolved.add(encryptedKey)) {
+				continue;
 			}
+			result.addAll(getKeyThumbprintIndex().select(encryptedKey.getKeyInfo(), keys, this::getCredential));
 		}
-		if (last != null) {
-			throw new SamlKeyException("Unable to decrypt object.", last);
+		if (!hasEncryptedKey) {
+			return getKeyThumbprintIndex().select(null, keys, this::getCredential);
 		}
-		return null;
+		return new LinkedList<>(result);
 	}
 
 	protected Encrypter getEncrypter(SimpleKey key,
 									 KeyEncryptionMethod keyAlgorithm,
 									 DataEncryptionMethod dataAlgorithm) {
-		Credential credential = getCredential(key, getCredentialsResolver(key));
-
-		SecretKey secretKey = generateKeyFromURI(dataAlgorithm);
-		BasicCredential dataCredential = new BasicCredential(secretKey);
-		DataEncryptionParameters dataEncryptionParameters = new DataEncryptionParameters();
-		dataEncryptionParameters.setEncryptionCredential(dataCredential);
-		dataEncryptionParameters.setAlgorithm(dataAlgorithm.toString());
-
-		KeyEncryptionParameters keyEncryptionParameters = new KeyEncryptionParameters();
-		keyEncryptionParameters.setEncryptionCredential(credential);
-		keyEncryptionParameters.setAlgorithm(keyAlgorithm.toString());
-
-		Encrypter encrypter = new Encrypter(dataEncryptionParameters, asList(keyEncryptionParameters));
-
-		return encrypter;
+		return getEncryptionProfile(key, keyAlgorithm, dataAlgorithm).getEncrypter();
+	}
+
+	/**
+	 * Returns the encryption profile for a recipient key, the credential, key encryption parameters
+	 * and key placement are resolved once and reused for every assertion encrypted for that recipient.
+	 * Profiles are kept with the recipient's credential in the {@link CredentialCache}.
+	 * @param key - the recipient's encryption key
+	 * @param keyAlgorithm - the key transport algorithm
+	 * @param dataAlgorithm - the data encryption algorithm
+	 * @return a shared encryption profile
+	 */
+	public EncryptionProfile getEncryptionProfile(SimpleKey key,
+												  KeyEncryptionMethod keyAlgorithm,
+												  DataEncryptionMethod dataAlgorithm) {
+		Credential credential = getCredential(key);
+		return getCredentialCache().getAttachment(
+			credential,
+			"encryption " + keyAlgorithm.toString() + " " + dataAlgorithm.toString(),
+			() -> new EncryptionProfile(
+				credential,
+				keyAlgorithm,
+				dataAlgorithm,
+				Encrypter.KeyPlacement.valueOf(
+					System.getProperty("spring.security.saml.encrypt.key.placement", "PEER")
+				),
+				getKeyInfoGenerator(credential)
+			)
+		);
 	}
 
 	public static SecretKey generateKeyFromURI(DataEncryptionMethod algoURI) {
-		try {
-			String jceAlgorithmName = JCEMapper.getJCEKeyAlgorithmFromURI(algoURI.toString());
-			int keyLength = JCEMapper.getKeyLengthFromURI(algoURI.toString());
-			return generateKey(jceAlgorithmName, keyLength, null);
-		} catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-			throw new SamlException(e);
-		}
+		return EncryptionProfile.generateSessionKey(algoURI);
 	}
 
+	/**
+	 * Returns the decrypter for a local key. Decrypters only hold configuration and are safe to share,
+	 * they are kept with the credential in the {@link CredentialCache}.
+	 * @param key - the local decryption key
+	 * @return a shared decrypter
+	 */
 	protected Decrypter getDecrypter(SimpleKey key) {
-		Credential credential = getCredential(key, getCredentialsResolver(key));
-		KeyInfoCredentialResolver resolver = new StaticKeyInfoCredentialResolver(credential);
-		Decrypter decrypter = new Decrypter(null, resolver, encryptedKeyResolver);
-		decrypter.setRootInNewDocument(true);
-		return decrypter;
+		Credential credential = getCredential(key);
+		return getCredentialCache().getAttachment(
+			credential,
+			"decrypter",
+			() -> {
+				KeyInfoCredentialResolver resolver = new StaticKeyInfoCredentialResolver(credential);
+				Decrypter decrypter = new Decrypter(null, resolver, encryptedKeyResolver);
+				decrypter.setRootInNewDocument(true);
+				return decrypter;
+			}
+		);
 	}
 
 	protected XMLObject parse(byte[] xml) {
@@ -669,6 +1060,8 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			provider.setKeys(getProviderKeys(descriptor));
 			provider.setDiscovery(getDiscovery(desc));
 			provider.setRequestInitiation(getRequestInitiation(desc));
+			provider.setSigningMethods(getSigningMethods(desc));
+			provider.setDigestMethods(getDigestMethods(desc));
 			//TODO
 			//provider.setAttributeConsumingService(getEndpoints(desc.getAttributeConsumingServices()));
 			return provider;
@@ -691,6 +1084,8 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			provider.setKeys(getProviderKeys(descriptor));
 			provider.setDiscovery(getDiscovery(desc));
 			provider.setRequestInitiation(getRequestInitiation(desc));
+			provider.setSigningMethods(getSigningMethods(desc));
+			provider.setDigestMethods(getDigestMethods(desc));
 			return provider;
 		}
 		else {
@@ -741,6 +1136,35 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		return result;
 	}
 
+	protected List<AlgorithmMethod> getSigningMethods(RoleDescriptor desc) {
+		List<AlgorithmMethod> result = new LinkedList<>();
+		if (desc.getExtensions() != null) {
+			for (XMLObject obj : desc.getExtensions().getUnknownXMLObjects(SigningMethod.DEFAULT_ELEMENT_NAME)) {
+				AlgorithmMethod method = AlgorithmMethod.fromUrn(((SigningMethod) obj).getAlgorithm());
+				if (method != null) {
+					result.add(method);
+				}
+			}
+		}
+		return result;
+	}
+
+	protected List<DigestMethod> getDigestMethods(RoleDescriptor desc) {
+		List<DigestMethod> result = new LinkedList<>();
+		if (desc.getExtensions() != null) {
+			for (XMLObject obj : desc.getExtensions().getUnknownXMLObjects(
+				org.opensaml.saml.ext.saml2alg.DigestMethod.DEFAULT_ELEMENT_NAME
+			)) {
+				DigestMethod method =
+					DigestMethod.fromUrn(((org.opensaml.saml.ext.saml2alg.DigestMethod) obj).getAlgorithm());
+				if (method != null) {
+					result.add(method);
+				}
+			}
+		}
+		return result;
+	}
+
 	protected Endpoint getDiscovery(RoleDescriptor desc) {
 		if (desc.getExtensions() == null) {
 			return null;
@@ -953,7 +1377,10 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			//md:extensions
 			Endpoint requestInitiation = p.getRequestInitiation();
 			Endpoint discovery = p.getDiscovery();
-			if (requestInitiation != null || discovery != null) {
+			List<AlgorithmMethod> signingMethods = ofNullable(p.getSigningMethods()).orElse(emptyList());
+			List<DigestMethod> digestMethods = ofNullable(p.getDigestMethods()).orElse(emptyList());
+			if (requestInitiation != null || discovery != null ||
+				!signingMethods.isEmpty() || !digestMethods.isEmpty()) {
 				ExtensionsBuilder extensionsBuilder = (ExtensionsBuilder) getBuilderFactory().getBuilder
 					(Extensions.DEFAULT_ELEMENT_NAME);
 				roleDescriptor.setExtensions(extensionsBuilder.buildObject());
@@ -978,6 +1405,17 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 					response.setIndex(discovery.getIndex());
 					roleDescriptor.getExtensions().getUnknownXMLObjects().add(response);
 				}
+				for (DigestMethod method : digestMethods) {
+					org.opensaml.saml.ext.saml2alg.DigestMethod digest =
+						buildSAMLObject(org.opensaml.saml.ext.saml2alg.DigestMethod.class);
+					digest.setAlgorithm(method.toString());
+					roleDescriptor.getExtensions().getUnknownXMLObjects().add(digest);
+				}
+				for (AlgorithmMethod method : signingMethods) {
+					SigningMethod signing = buildSAMLObject(SigningMethod.class);
+					signing.setAlgorithm(method.toString());
+					roleDescriptor.getExtensions().getUnknownXMLObjects().add(signing);
+				}
 			}
 			result.add(roleDescriptor);
 		}
@@ -1202,15 +1640,27 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	protected String marshallToXml(XMLObject auth) {
 		try {
-			Element element = getMarshallerFactory()
-				.getMarshaller(auth)
-				.marshall(auth);
-			return SerializeSupport.nodeToString(element);
+			return SerializeSupport.nodeToString(marshallToElement(auth));
 		} catch (MarshallingException e) {
 			throw new SamlException(e);
 		}
 	}
 
+	/**
+	 * Returns the DOM of an object. Signed objects already carry the DOM they were signed in,
+	 * which is returned as is instead of being adopted into a new document.
+	 * @param object - the object to marshall
+	 * @return the element to serialize
+	 * @throws MarshallingException if the object can not be marshalled
+	 */
+	protected Element marshallToElement(XMLObject object) throws MarshallingException {
+		Element result = object.getDOM();
+		if (result == null) {
+			result = xmlObjectTypes.getMarshaller(object).marshall(object);
+		}
+		return result;
+	}
+
 	protected RequestedAuthnContext getRequestedAuthenticationContext(AuthenticationRequest request) {
 		RequestedAuthnContext result = null;
 		if (request.getRequestedAuthenticationContext() != null) {
@@ -1285,13 +1735,11 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 					.collect(Collectors.toList())
 			);
 		if (parsed.getEncryptedAssertions() != null && !parsed.getEncryptedAssertions().isEmpty()) {
-			parsed
-				.getEncryptedAssertions()
-				.stream()
+			decryptAll(parsed.getEncryptedAssertions(), localKeys)
 				.forEach(
 					a -> result.addAssertion(
 						resolveAssertion(
-							(org.opensaml.saml.saml2.core.Assertion) decrypt(a, localKeys),
+							(org.opensaml.saml.saml2.core.Assertion) a,
 							verificationKeys,
 							localKeys
 						)
@@ -1348,17 +1796,26 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		List<SimpleKey> localKeys
 	) {
 		Signature signature = validateSignature(parsed, verificationKeys);
-		return new Assertion()
+		Assertion result = new Assertion();
+		result.setImplementation(parsed);
+		result
 			.setSignature(signature)
 			.setId(parsed.getID())
 			.setIssueInstant(parsed.getIssueInstant())
 			.setVersion(parsed.getVersion().toString())
-			.setIssuer(getIssuer(parsed.getIssuer()))
+			.setIssuer(getIssuer(parsed.getIssuer()));
+		if (isLazyMaterialization()) {
+			return result
+				.deferSubject(() -> getSubject(parsed.getSubject(), localKeys))
+				.deferConditions(() -> getConditions(parsed.getConditions()))
+				.deferAuthenticationStatements(() -> getAuthenticationStatements(parsed.getAuthnStatements()))
+				.deferAttributes(() -> getAttributes(parsed.getAttributeStatements(), localKeys));
+		}
+		return result
 			.setSubject(getSubject(parsed.getSubject(), localKeys))
 			.setConditions(getConditions(parsed.getConditions()))
 			.setAuthenticationStatements(getAuthenticationStatements(parsed.getAuthnStatements()))
-			.setAttributes(getAttributes(parsed.getAttributeStatements(), localKeys))
-			;
+			.setAttributes(getAttributes(parsed.getAttributeStatements(), localKeys));
 	}
 
 	protected List<Attribute> getRequestedAttributes(List<RequestedAttribute> attributes) {
@@ -1380,67 +1837,32 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		List<AttributeStatement> attributeStatements, List<SimpleKey>
 		localKeys
 	) {
-		List<Attribute> result = new LinkedList<>();
+		List<Attribute> result = new ArrayList<>();
 		for (AttributeStatement stmt : ofNullable(attributeStatements).orElse(emptyList())) {
 			for (org.opensaml.saml.saml2.core.Attribute a : ofNullable(stmt.getAttributes()).orElse(emptyList())) {
-				result.add(
-					new Attribute()
-						.setFriendlyName(a.getFriendlyName())
-						.setName(a.getName())
-						.setNameFormat(AttributeNameFormat.fromUrn(a.getNameFormat()))
-						.setValues(getJavaValues(a.getAttributeValues()))
-				);
+				result.add(getAttribute(a));
 			}
-			for (EncryptedAttribute encryptedAttribute : ofNullable(stmt.getEncryptedAttributes()).orElse(emptyList())) {
-				org.opensaml.saml.saml2.core.Attribute a = (org.opensaml.saml.saml2.core.Attribute) decrypt
-					(encryptedAttribute, localKeys);
-				result.add(
-					new Attribute()
-						.setFriendlyName(a.getFriendlyName())
-						.setName(a.getName())
-						.setNameFormat(AttributeNameFormat.fromUrn(a.getNameFormat()))
-						.setValues(getJavaValues(a.getAttributeValues()))
-				);
+			List<EncryptedAttribute> encrypted = ofNullable(stmt.getEncryptedAttributes()).orElse(emptyList());
+			for (SAMLObject decrypted : decryptAll(encrypted, localKeys)) {
+				result.add(getAttribute((org.opensaml.saml.saml2.core.Attribute) decrypted));
 			}
 		}
 		return result;
 	}
 
-	protected List<Object> getJavaValues(List<XMLObject> attributeValues) {
-		List<Object> result = new LinkedList<>();
-		for (XMLObject o : ofNullable(attributeValues).orElse(emptyList())) {
-			if (o == null) {
-
-			}
-			else if (o instanceof XSString) {
-				result.add(((XSString) o).getValue());
-			}
-			else if (o instanceof XSURI) {
-				try {
-					result.add(new URI(((XSURI) o).getValue()));
-				} catch (URISyntaxException e) {
-					result.add(((XSURI) o).getValue());
-				}
-			}
-			else if (o instanceof XSBoolean) {
-				result.add(((XSBoolean) o).getValue().getValue());
-			}
-			else if (o instanceof XSDateTime) {
-				result.add(((XSDateTime) o).getValue());
-			}
-			else if (o instanceof XSInteger) {
-				result.add(((XSInteger) o).getValue());
-			}
-			else if (o instanceof XSAny) {
-				result.add(((XSAny) o).getTextContent());
-			}
-			else {
-				//we don't know the type.
-				result.add(o);
-			}
+	protected Attribute getAttribute(org.opensaml.saml.saml2.core.Attribute a) {
+		Attribute result = new Attribute()
+			.setFriendlyName(a.getFriendlyName())
+			.setName(a.getName())
+			.setNameFormat(AttributeNameFormat.fromUrn(a.getNameFormat()));
+		if (isLazyMaterialization()) {
+			return result.deferValues(() -> getJavaValues(a.getAttributeValues()));
 		}
+		return result.setValues(getJavaValues(a.getAttributeValues()));
+	}
 
-		return result;
+	protected List<Object> getJavaValues(List<XMLObject> attributeValues) {
+		return attributeValueConverters.toJavaValues(attributeValues);
 	}
 
 	protected List<AuthenticationStatement> getAuthenticationStatements(
@@ -1701,81 +2123,11 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected XMLObject objectToXmlObject(Object o) {
-		if (o == null) {
-			return null;
-		}
-		else if (o instanceof String) {
-			XSStringBuilder builder = (XSStringBuilder) getBuilderFactory().getBuilder(XSString.TYPE_NAME);
-			XSString s = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
-			s.setValue((String) o);
-			return s;
-		}
-		else if (o instanceof URI || o instanceof URL) {
-			XSURIBuilder builder = (XSURIBuilder) getBuilderFactory().getBuilder(XSURI.TYPE_NAME);
-			XSURI uri = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSURI.TYPE_NAME);
-			uri.setValue(o.toString());
-			return uri;
-		}
-		else if (o instanceof Boolean) {
-			XSBooleanBuilder builder = (XSBooleanBuilder) getBuilderFactory().getBuilder(XSBoolean.TYPE_NAME);
-			XSBoolean b = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSBoolean.TYPE_NAME);
-			XSBooleanValue v = XSBooleanValue.valueOf(o.toString());
-			b.setValue(v);
-			return b;
-		}
-		else if (o instanceof DateTime) {
-			XSDateTimeBuilder builder = (XSDateTimeBuilder) getBuilderFactory().getBuilder(XSDateTime.TYPE_NAME);
-			XSDateTime dt = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSDateTime.TYPE_NAME);
-			dt.setValue((DateTime) o);
-			return dt;
-		}
-		else if (o instanceof Integer) {
-			XSIntegerBuilder builder = (XSIntegerBuilder) getBuilderFactory().getBuilder(XSInteger.TYPE_NAME);
-			XSInteger i = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSInteger.TYPE_NAME);
-			i.setValue(((Integer) o).intValue());
-			return i;
-		}
-		else {
-			XSAnyBuilder builder = (XSAnyBuilder) getBuilderFactory().getBuilder(XSAny.TYPE_NAME);
-			XSAny any = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSAny.TYPE_NAME);
-			any.setTextContent(o.toString());
-			return any;
-		}
+		return attributeValueConverters.toXmlObject(o);
 	}
 
 	protected String xmlObjectToString(XMLObject o) {
-		String toMatch = null;
-		if (o instanceof XSString) {
-			toMatch = ((XSString) o).getValue();
-		}
-		else if (o instanceof XSURI) {
-			toMatch = ((XSURI) o).getValue();
-		}
-		else if (o instanceof XSBoolean) {
-			toMatch = ((XSBoolean) o).getValue().getValue() ? "1" : "0";
-		}
-		else if (o instanceof XSInteger) {
-			toMatch = ((XSInteger) o).getValue().toString();
-		}
-		else if (o instanceof XSDateTime) {
-			final DateTime dt = ((XSDateTime) o).getValue();
-			if (dt != null) {
-				toMatch = ((XSDateTime) o).getDateTimeFormatter().print(dt);
-			}
-		}
-		else if (o instanceof XSBase64Binary) {
-			toMatch = ((XSBase64Binary) o).getValue();
-		}
-		else if (o instanceof XSAny) {
-			final XSAny wc = (XSAny) o;
-			if (wc.getUnknownAttributes().isEmpty() && wc.getUnknownXMLObjects().isEmpty()) {
-				toMatch = wc.getTextContent();
-			}
-		}
-		if (toMatch != null) {
-			return toMatch;
-		}
-		return null;
+		return attributeValueConverters.toText(o);
 	}
 
 	protected Endpoint getEndpoint(String url, Binding binding, int index, boolean isDefault) {
@@ -1834,8 +2186,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 				.getBuilder(KeyDescriptor.DEFAULT_ELEMENT_NAME);
 		KeyDescriptor descriptor = builder.buildObject();
 
-		KeyStoreCredentialResolver resolver = getCredentialsResolver(key);
-		Credential credential = getCredential(key, resolver);
+		Credential credential = getCredential(key);
 		try {
 			KeyInfo info = getKeyInfoGenerator(credential).generate(credential);
 			descriptor.setKeyInfo(info);
@@ -1852,9 +2203,65 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	public KeyInfoGenerator getKeyInfoGenerator(Credential credential) {
-		NamedKeyInfoGeneratorManager manager = DefaultSecurityConfigurationBootstrap
-			.buildBasicKeyInfoGeneratorManager();
-		return manager.getDefaultManager().getFactory(credential).newInstance();
+		return this::getKeyInfo;
+	}
+
+	/**
+	 * Returns a copy of the key info for a credential. The key info is generated once per credential,
+	 * subsequent calls copy the already encoded certificate values instead of encoding the certificate again.
+	 * @param credential - the credential to describe
+	 * @return a key info that can be attached to a new parent
+	 * @throws SecurityException if the key info can not be generated or copied
+	 */
+	protected KeyInfo getKeyInfo(Credential credential) throws SecurityException {
+		KeyInfo template = keyInfos.get(credential);
+		if (template == null) {
+			template = keyInfoGeneratorManager.getDefaultManager()
+				.getFactory(credential)
+				.newInstance()
+				.generate(credential);
+			if (template == null) {
+				return null;
+			}
+			keyInfos.put(credential, template);
+		}
+		if (isCertificateOnly(template)) {
+			KeyInfo result = buildSAMLObject(KeyInfo.class);
+			for (KeyName name : template.getKeyNames()) {
+				KeyInfoSupport.addKeyName(result, name.getValue());
+			}
+			for (X509Data data : template.getX509Datas()) {
+				X509Data copy = buildSAMLObject(X509Data.class);
+				for (X509Certificate certificate : data.getX509Certificates()) {
+					X509Certificate c = buildSAMLObject(X509Certificate.class);
+					c.setValue(certificate.getValue());
+					copy.getX509Certificates().add(c);
+				}
+				result.getX509Datas().add(copy);
+			}
+			return result;
+		}
+		synchronized (template) {
+			try {
+				return XMLObjectSupport.cloneXMLObject(template);
+			} catch (MarshallingException | UnmarshallingException e) {
+				throw new SecurityException("Unable to copy key info.", e);
+			}
+		}
+	}
+
+	private boolean isCertificateOnly(KeyInfo keyInfo) {
+		for (XMLObject child : keyInfo.getOrderedChildren()) {
+			if (child instanceof X509Data) {
+				if (child.getOrderedChildren().size() != ((X509Data) child).getX509Certificates().size()) {
+					return false;
+				}
+			}
+			else if (!(child instanceof KeyName)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public void signObject(SignableSAMLObject signable,
@@ -1862,48 +2269,32 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 						   AlgorithmMethod algorithm,
 						   DigestMethod digest) {
 
-		KeyStoreCredentialResolver resolver = getCredentialsResolver(key);
-		Credential credential = getCredential(key, resolver);
+		Credential credential = getCredential(key);
 
-		XMLObjectBuilder<org.opensaml.xmlsec.signature.Signature> signatureBuilder =
-			(XMLObjectBuilder<org.opensaml.xmlsec.signature.Signature>) getBuilderFactory()
-				.getBuilder(org.opensaml.xmlsec.signature.Signature.DEFAULT_ELEMENT_NAME);
-		org.opensaml.xmlsec.signature.Signature signature = signatureBuilder.buildObject(org.opensaml.xmlsec
-			.signature.Signature.DEFAULT_ELEMENT_NAME);
+		org.opensaml.xmlsec.signature.Signature signature =
+			buildSAMLObject(org.opensaml.xmlsec.signature.Signature.class);
 
 		signable.setSignature(signature);
 
-		SignatureSigningParameters parameters = new SignatureSigningParameters();
-		parameters.setSigningCredential(credential);
-		parameters.setKeyInfoGenerator(getKeyInfoGenerator(credential));
-		parameters.setSignatureAlgorithm(algorithm.toString());
-		parameters.setSignatureReferenceDigestMethod(digest.toString());
-		parameters.setSignatureCanonicalizationAlgorithm(
-			CanonicalizationMethod.ALGO_ID_C14N_EXCL_OMIT_COMMENTS.toString()
+		SignatureSigningParameters parameters = getSigningEngine().getSigningParameters(
+			getCredentialCache(),
+			credential,
+			algorithm,
+			digest,
+			this::getKeyInfoGenerator
 		);
 
 		try {
 			SignatureSupport.prepareSignatureParams(signature, parameters);
-			Marshaller marshaller = XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(signable);
-			marshaller.marshall(signable);
-			Signer.signObject(signature);
-		} catch (SecurityException | MarshallingException | SignatureException e) {
+			xmlObjectTypes.getMarshaller(signable).marshall(signable);
+		} catch (SecurityException | MarshallingException e) {
 			throw new SamlKeyException(e);
 		}
+		getSigningEngine().sign(signature, algorithm);
 	}
 
 	public <T> T buildSAMLObject(final Class<T> clazz) {
-		T object = null;
-		try {
-			QName defaultElementName = (QName) clazz.getDeclaredField("DEFAULT_ELEMENT_NAME").get(null);
-			object = (T) getBuilderFactory().getBuilder(defaultElementName).buildObject(defaultElementName);
-		} catch (IllegalAccessException e) {
-			throw new SamlException("Could not create SAML object", e);
-		} catch (NoSuchFieldException e) {
-			throw new SamlException("Could not create SAML object", e);
-		}
-
-		return object;
+		return xmlObjectTypes.build(clazz);
 	}
 
 }
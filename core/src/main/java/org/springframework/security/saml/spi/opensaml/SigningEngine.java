@@ -0,0 +1,189 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.CanonicalizationMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.algorithms.implementations.SignatureECDSA;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.utils.Base64;
+import org.apache.xml.security.utils.Constants;
+import org.apache.xml.security.utils.XMLUtils;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.keyinfo.KeyInfoGenerator;
+import org.opensaml.xmlsec.signature.impl.SignatureImpl;
+import org.w3c.dom.Element;
+
+/**
+ * Holds prepared signing state so that repeated signatures with the same key do not pay for setup.
+ * <ul>
+ *     <li>{@link SignatureSigningParameters} are prepared once per (credential, algorithm, digest)
+ *     and kept with the credential in the {@link CredentialCache}, they are only read while signing</li>
+ *     <li>{@link Signature} engines are confined to the calling thread and re-initialized per use,
+ *     avoiding the provider lookup on every signature. They compute the SignatureValue of enveloped
+ *     XML signatures as well as detached signatures, such as the HTTP-Redirect binding</li>
+ * </ul>
+ */
+public class SigningEngine {
+
+	private final ThreadLocal<Map<String, Signature>> engines = ThreadLocal.withInitial(HashMap::new);
+
+	/**
+	 * Returns the signing parameters for a credential, prepared once per algorithm and digest
+	 * and evicted together with the credential.
+	 * @param credentials - the cache the credential was obtained from
+	 * @param credential - credential holding the private key
+	 * @param algorithm - the XML-DSig signature algorithm
+	 * @param digest - the reference digest algorithm
+	 * @param keyInfoGenerator - creates the key info generator for the credential
+	 * @return shared signing parameters
+	 */
+	public SignatureSigningParameters getSigningParameters(CredentialCache credentials,
+														   Credential credential,
+														   AlgorithmMethod algorithm,
+														   DigestMethod digest,
+														   Function<Credential, KeyInfoGenerator> keyInfoGenerator) {
+		return credentials.getAttachment(
+			credential,
+			"signing " + algorithm.toString() + " " + digest.toString(),
+			() -> {
+				SignatureSigningParameters result = new SignatureSigningParameters();
+				result.setSigningCredential(credential);
+				result.setKeyInfoGenerator(keyInfoGenerator.apply(credential));
+				result.setSignatureAlgorithm(algorithm.toString());
+				result.setSignatureReferenceDigestMethod(digest.toString());
+				result.setSignatureCanonicalizationAlgorithm(
+					CanonicalizationMethod.ALGO_ID_C14N_EXCL_OMIT_COMMENTS.toString()
+				);
+				return result;
+			}
+		);
+	}
+
+	/**
+	 * Computes the reference digests and the signature value of an XML signature.
+	 * Santuario digests the references and canonicalizes the SignedInfo, the SignedInfo is then signed
+	 * with a thread confined engine instead of the engine Santuario creates for every signature.
+	 * @param signature - the signature, already marshalled together with the object it signs
+	 * @param algorithm - the XML-DSig signature algorithm of the SignedInfo
+	 */
+	public void sign(org.opensaml.xmlsec.signature.Signature signature, AlgorithmMethod algorithm) {
+		XMLSignature xmlSignature = signature instanceof SignatureImpl ?
+			((SignatureImpl) signature).getXMLSignature() :
+			null;
+		if (xmlSignature == null) {
+			throw new SamlKeyException("Signature has not been marshalled, unable to compute signature");
+		}
+		try {
+			SignedInfo signedInfo = xmlSignature.getSignedInfo();
+			signedInfo.generateDigestValues();
+			byte[] value = sign(
+				signature.getSigningCredential(),
+				algorithm,
+				signedInfo.getCanonicalizedOctetStream()
+			);
+			if (algorithm.name().startsWith("ECDSA")) {
+				//XML-DSig carries the raw r and s values instead of the ASN.1 sequence
+				value = SignatureECDSA.convertASN1toXMLDSIG(value);
+			}
+			setSignatureValue(xmlSignature, value);
+		} catch (XMLSecurityException | IOException e) {
+			throw new SamlKeyException("Unable to sign XML using " + algorithm, e);
+		}
+	}
+
+	/**
+	 * Creates a raw signature over the data using a thread confined engine
+	 * @param credential - credential holding the private key
+	 * @param algorithm - the XML-DSig signature algorithm
+	 * @param data - bytes to be signed
+	 * @return the signature value
+	 */
+	public byte[] sign(Credential credential, AlgorithmMethod algorithm, byte[] data) {
+		try {
+			Signature engine = getEngine(algorithm);
+			engine.initSign(credential.getPrivateKey());
+			engine.update(data);
+			return engine.sign();
+		} catch (GeneralSecurityException e) {
+			throw new SamlKeyException("Unable to sign data using " + algorithm, e);
+		}
+	}
+
+	/**
+	 * Verifies a raw signature using a thread confined engine
+	 * @param credential - credential holding the public key
+	 * @param algorithm - the XML-DSig signature algorithm
+	 * @param data - bytes that were signed
+	 * @param signature - the signature value
+	 * @return true if the signature is valid
+	 */
+	public boolean verify(Credential credential, AlgorithmMethod algorithm, byte[] data, byte[] signature) {
+		try {
+			Signature engine = getEngine(algorithm);
+			engine.initVerify(credential.getPublicKey());
+			engine.update(data);
+			return engine.verify(signature);
+		} catch (GeneralSecurityException e) {
+			throw new SamlKeyException("Unable to verify data using " + algorithm, e);
+		}
+	}
+
+	private void setSignatureValue(XMLSignature xmlSignature, byte[] value) {
+		Element element =
+			XMLUtils.selectDsNode(xmlSignature.getElement().getFirstChild(), Constants._TAG_SIGNATUREVALUE, 0);
+		while (element.hasChildNodes()) {
+			element.removeChild(element.getFirstChild());
+		}
+		//formatted the same way Santuario formats the values it computes
+		String encoded = Base64.encode(value);
+		if (encoded.length() > 76 && !XMLUtils.ignoreLineBreaks()) {
+			encoded = "\n" + encoded + "\n";
+		}
+		element.appendChild(element.getOwnerDocument().createTextNode(encoded));
+	}
+
+	protected Signature getEngine(AlgorithmMethod algorithm) throws NoSuchAlgorithmException {
+		Map<String, Signature> threadEngines = engines.get();
+		Signature engine = threadEngines.get(algorithm.toString());
+		if (engine == null) {
+			String jceName = JCEMapper.translateURItoJCEID(algorithm.toString());
+			if (jceName == null) {
+				throw new NoSuchAlgorithmException("No JCE mapping for " + algorithm);
+			}
+			engine = Signature.getInstance(jceName);
+			threadEngines.put(algorithm.toString(), engine);
+		}
+		return engine;
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.authentication.AuthenticationContextClassReference;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.LogoutReason;
+import org.springframework.security.saml.saml2.authentication.LogoutRequest;
+import org.springframework.security.saml.saml2.authentication.NameIdPolicy;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.RequestedAuthenticationContext;
+import org.springframework.security.saml.saml2.metadata.Binding;
+import org.springframework.security.saml.saml2.metadata.Endpoint;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+
+import static org.springframework.security.saml.saml2.Namespace.NS_ASSERTION;
+import static org.springframework.security.saml.saml2.Namespace.NS_PROTOCOL;
+
+/**
+ * Reads unsigned AuthnRequest and LogoutRequest messages with a streaming parser into the same model objects
+ * the OpenSAML path produces, without building a DOM or an OpenSAML object graph.
+ * Messages carrying anything the parser does not cover, such as a signature, extensions, a subject, scoping,
+ * an encrypted ID, comments or unknown attributes, are declined and left to the OpenSAML path,
+ * which also reports any errors. A declined message returns null.
+ */
+public class StreamingRequestParser {
+
+	private static final String[] AUTHN_REQUEST_ATTRIBUTES = {
+		"ID", "Version", "IssueInstant", "Destination", "Consent", "ForceAuthn", "IsPassive", "ProtocolBinding",
+		"AssertionConsumerServiceIndex", "AssertionConsumerServiceURL", "AttributeConsumingServiceIndex",
+		"ProviderName"
+	};
+	private static final String[] LOGOUT_REQUEST_ATTRIBUTES = {
+		"ID", "Version", "IssueInstant", "Destination", "Consent", "Reason", "NotOnOrAfter"
+	};
+	private static final String[] NAME_ID_ATTRIBUTES = {"Format", "NameQualifier", "SPNameQualifier", "SPProvidedID"};
+
+	private final OpenSamlImplementation implementation;
+	private final XMLInputFactory factory;
+	private final AtomicLong parsed = new AtomicLong();
+	private final AtomicLong declined = new AtomicLong();
+
+	public StreamingRequestParser(OpenSamlImplementation implementation) {
+		this.implementation = implementation;
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	/**
+	 * @param xml - the raw message
+	 * @return the request, or null if the message is declined
+	 */
+	public Saml2Object parse(byte[] xml) {
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(new ByteArrayInputStream(xml));
+			Saml2Object result = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.DTD) {
+					throw new UnsupportedContentException();
+				}
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (result != null || !NS_PROTOCOL.equals(reader.getNamespaceURI())) {
+						throw new UnsupportedContentException();
+					}
+					if ("AuthnRequest".equals(reader.getLocalName())) {
+						result = readAuthenticationRequest(reader);
+					}
+					else if ("LogoutRequest".equals(reader.getLocalName())) {
+						result = readLogoutRequest(reader);
+					}
+					else {
+						throw new UnsupportedContentException();
+					}
+				}
+			}
+			if (result == null) {
+				throw new UnsupportedContentException();
+			}
+			parsed.incrementAndGet();
+			return result;
+		} catch (XMLStreamException | UnsupportedContentException | IllegalArgumentException e) {
+			declined.incrementAndGet();
+			return null;
+		} finally {
+			close(reader);
+		}
+	}
+
+	/**
+	 * @return number of messages read by this parser
+	 */
+	public long getParsed() {
+		return parsed.get();
+	}
+
+	/**
+	 * @return number of messages left to the OpenSAML path
+	 */
+	public long getDeclined() {
+		return declined.get();
+	}
+
+	protected AuthenticationRequest readAuthenticationRequest(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, String> attributes = attributes(reader, AUTHN_REQUEST_ATTRIBUTES);
+		Issuer issuer = null;
+		NameIdPolicy<?> policy = null;
+		RequestedAuthenticationContext comparison = null;
+		List<String> classReferences = null;
+		while (nextChild(reader)) {
+			if (issuer == null && is(reader, NS_ASSERTION, "Issuer")) {
+				issuer = readIssuer(reader);
+			}
+			else if (policy == null && is(reader, NS_PROTOCOL, "NameIDPolicy")) {
+				Map<String, String> p = attributes(reader, "Format", "SPNameQualifier", "AllowCreate");
+				empty(reader);
+				policy = new NameIdPolicy<>(
+					NameId.fromUrn(trim(p.get("Format"))),
+					trim(p.get("SPNameQualifier")),
+					p.containsKey("AllowCreate") && toBoolean(p.get("AllowCreate"))
+				);
+			}
+			else if (classReferences == null && is(reader, NS_PROTOCOL, "RequestedAuthnContext")) {
+				String value = attributes(reader, "Comparison").get("Comparison");
+				comparison = value == null ? null : RequestedAuthenticationContext.valueOf(value);
+				classReferences = new ArrayList<>();
+				while (nextChild(reader)) {
+					if (!is(reader, NS_ASSERTION, "AuthnContextClassRef")) {
+						throw new UnsupportedContentException();
+					}
+					attributes(reader);
+					classReferences.add(text(reader));
+				}
+			}
+			else {
+				throw new UnsupportedContentException();
+			}
+		}
+		integer(attributes.get("AttributeConsumingServiceIndex"));
+		Integer index = integer(attributes.get("AssertionConsumerServiceIndex"));
+		Binding binding = Binding.fromUrn(trim(attributes.get("ProtocolBinding")));
+		return new AuthenticationRequest()
+			.setBinding(binding)
+			.setAssertionConsumerService(
+				implementation.getEndpoint(
+					trim(attributes.get("AssertionConsumerServiceURL")),
+					binding,
+					index == null ? -1 : index,
+					false
+				)
+			)
+			.setDestination(implementation.getEndpoint(trim(attributes.get("Destination")), binding, -1, false))
+			.setIssuer(issuer)
+			.setForceAuth(attributes.containsKey("ForceAuthn") && toBoolean(attributes.get("ForceAuthn")))
+			.setPassive(attributes.containsKey("IsPassive") && toBoolean(attributes.get("IsPassive")))
+			.setId(trim(attributes.get("ID")))
+			.setIssueInstant(instant(attributes.get("IssueInstant")))
+			.setVersion(version(attributes.get("Version")))
+			.setRequestedAuthenticationContext(comparison)
+			.setAuthenticationContextClassReference(
+				classReferences == null || classReferences.isEmpty() ?
+					null :
+					AuthenticationContextClassReference.fromUrn(classReferences.get(0))
+			)
+			.setNameIdPolicy(policy);
+	}
+
+	protected LogoutRequest readLogoutRequest(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, String> attributes = attributes(reader, LOGOUT_REQUEST_ATTRIBUTES);
+		Issuer issuer = null;
+		NameIdPrincipal nameId = null;
+		while (nextChild(reader)) {
+			if (issuer == null && nameId == null && is(reader, NS_ASSERTION, "Issuer")) {
+				issuer = readIssuer(reader);
+			}
+			else if (nameId == null && is(reader, NS_ASSERTION, "NameID")) {
+				Map<String, String> n = attributes(reader, NAME_ID_ATTRIBUTES);
+				nameId = new NameIdPrincipal()
+					.setSpNameQualifier(trim(n.get("SPNameQualifier")))
+					.setNameQualifier(trim(n.get("NameQualifier")))
+					.setFormat(NameId.fromUrn(trim(n.get("Format"))))
+					.setSpProvidedId(trim(n.get("SPProvidedID")))
+					.setValue(text(reader));
+			}
+			else if (nameId != null && is(reader, NS_PROTOCOL, "SessionIndex")) {
+				attributes(reader);
+				text(reader);
+			}
+			else {
+				throw new UnsupportedContentException();
+			}
+		}
+		if (nameId == null) {
+			throw new UnsupportedContentException();
+		}
+		LogoutRequest result = new LogoutRequest()
+			.setId(trim(attributes.get("ID")))
+			.setConsent(trim(attributes.get("Consent")))
+			.setVersion(version(attributes.get("Version")))
+			.setNotOnOrAfter(instant(attributes.get("NotOnOrAfter")))
+			.setIssueInstant(instant(attributes.get("IssueInstant")))
+			.setReason(LogoutReason.fromUrn(trim(attributes.get("Reason"))))
+			.setIssuer(issuer)
+			.setDestination(new Endpoint().setLocation(trim(attributes.get("Destination"))));
+		result.setNameId(nameId);
+		return result;
+	}
+
+	protected Issuer readIssuer(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, String> attributes = attributes(reader, NAME_ID_ATTRIBUTES);
+		return new Issuer()
+			.setValue(text(reader))
+			.setFormat(NameId.fromUrn(trim(attributes.get("Format"))))
+			.setSpNameQualifier(trim(attributes.get("SPNameQualifier")))
+			.setNameQualifier(trim(attributes.get("NameQualifier")));
+	}
+
+	/**
+	 * Reads the attributes of the current element, declining namespace qualified and unknown attributes.
+	 */
+	private static Map<String, String> attributes(XMLStreamReader reader, String... allowed) {
+		Map<String, String> result = new HashMap<>();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String namespace = reader.getAttributeNamespace(i);
+			String name = reader.getAttributeLocalName(i);
+			if ((namespace != null && !namespace.isEmpty()) || !contains(allowed, name)) {
+				throw new UnsupportedContentException();
+			}
+			result.put(name, reader.getAttributeValue(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Advances to the next child element of the current element.
+	 * @return true if positioned on a child element, false at the end of the current element
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					return true;
+				case XMLStreamConstants.END_ELEMENT:
+					return false;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					if (!reader.isWhiteSpace()) {
+						throw new UnsupportedContentException();
+					}
+					break;
+				default:
+					throw new UnsupportedContentException();
+			}
+		}
+		throw new UnsupportedContentException();
+	}
+
+	/**
+	 * Reads the text content of the current element, trimmed as OpenSAML does.
+	 */
+	private static String text(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder result = new StringBuilder();
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case XMLStreamConstants.END_ELEMENT:
+					return trim(result.toString());
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					result.append(reader.getText());
+					break;
+				default:
+					throw new UnsupportedContentException();
+			}
+		}
+		throw new UnsupportedContentException();
+	}
+
+	private static void empty(XMLStreamReader reader) throws XMLStreamException {
+		if (nextChild(reader)) {
+			throw new UnsupportedContentException();
+		}
+	}
+
+	private static boolean is(XMLStreamReader reader, String namespace, String localName) {
+		return namespace.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+	}
+
+	private static boolean contains(String[] values, String value) {
+		for (String v : values) {
+			if (v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String trim(String value) {
+		return StringSupport.trimOrNull(value);
+	}
+
+	/**
+	 * Follows XSBooleanValue, only 1 and true are true
+	 */
+	private static boolean toBoolean(String value) {
+		String v = trim(value);
+		return "1".equals(v) || "true".equals(v);
+	}
+
+	private static Integer integer(String value) {
+		return value == null ? null : Integer.valueOf(value);
+	}
+
+	private static DateTime instant(String value) {
+		return value == null || value.isEmpty() ? null : new DateTime(value, ISOChronology.getInstanceUTC());
+	}
+
+	/**
+	 * Only SAML 2.0 messages are read, any other version is left to the OpenSAML path
+	 */
+	private static String version(String value) {
+		if (!"2.0".equals(value)) {
+			throw new UnsupportedContentException();
+		}
+		return value;
+	}
+
+	private static void close(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				//nothing to release
+			}
+		}
+	}
+
+	private static class UnsupportedContentException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedContentException() {
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.springframework.security.saml.SamlException;
+
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
+
+/**
+ * Pool of document builders that avoids a single point of contention between parsing threads.
+ * <ul>
+ *     <li>striped (default) - builders are kept in {@link #setStripes(int) stripes} selected by thread,
+ *     each holding up to its share of {@link #setMaxPoolSize(int)} builders</li>
+ *     <li>thread local - each thread keeps its own builder</li>
+ * </ul>
+ * A borrow that finds no pooled builder creates a new one, a return to a full stripe discards it.
+ * Configuration must be completed before {@link #initialize()}.
+ */
+public class StripedParserPool implements ParserPool {
+
+	private static final Log logger = LogFactory.getLog(StripedParserPool.class);
+
+	private int maxPoolSize = 50;
+	private int stripes = Runtime.getRuntime().availableProcessors();
+	private boolean threadLocal = false;
+	private Map<String, Boolean> builderFeatures = getDefaultBuilderFeatures();
+	private Map<String, Object> builderAttributes = new HashMap<>();
+
+	private DocumentBuilderFactory factory;
+	private List<ArrayBlockingQueue<DocumentBuilder>> pools;
+	private final ThreadLocal<DocumentBuilder> localBuilder = new ThreadLocal<>();
+	private final ErrorHandler errorHandler = new LoggingErrorHandler();
+
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+	public static Map<String, Boolean> getDefaultBuilderFeatures() {
+		Map<String, Boolean> result = new HashMap<>();
+		result.put("http://apache.org/xml/features/disallow-doctype-decl", TRUE);
+		result.put("http://javax.xml.XMLConstants/feature/secure-processing", TRUE);
+		result.put("http://xml.org/sax/features/external-general-entities", FALSE);
+		result.put("http://apache.org/xml/features/validation/schema/normalized-value", FALSE);
+		result.put("http://xml.org/sax/features/external-parameter-entities", FALSE);
+		result.put("http://apache.org/xml/features/dom/defer-node-expansion", FALSE);
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public StripedParserPool initialize() {
+		try {
+			DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+			f.setCoalescing(true);
+			f.setExpandEntityReferences(false);
+			f.setIgnoringComments(true);
+			f.setIgnoringElementContentWhitespace(true);
+			f.setNamespaceAware(true);
+			f.setSchema(null);
+			f.setValidating(false);
+			f.setXIncludeAware(false);
+			for (Map.Entry<String, Object> attribute : builderAttributes.entrySet()) {
+				f.setAttribute(attribute.getKey(), attribute.getValue());
+			}
+			for (Map.Entry<String, Boolean> feature : builderFeatures.entrySet()) {
+				if (feature.getValue() != null) {
+					f.setFeature(feature.getKey(), feature.getValue());
+				}
+			}
+			//verify the configuration before the pool is used
+			f.newDocumentBuilder();
+			int stripeSize = Math.max(1, (maxPoolSize + stripes - 1) / stripes);
+			List<ArrayBlockingQueue<DocumentBuilder>> p = new ArrayList<>(stripes);
+			for (int i = 0; i < stripes; i++) {
+				p.add(new ArrayBlockingQueue<>(stripeSize));
+			}
+			this.pools = p;
+			this.factory = f;
+			return this;
+		} catch (ParserConfigurationException | IllegalArgumentException e) {
+			throw new SamlException("Unable to initialize parser pool", e);
+		}
+	}
+
+	@Override
+	public DocumentBuilder getBuilder() throws XMLParserException {
+		long start = System.nanoTime();
+		try {
+			borrows.incrementAndGet();
+			DocumentBuilder result;
+			if (threadLocal) {
+				result = localBuilder.get();
+				localBuilder.remove();
+			}
+			else {
+				result = getStripe().poll();
+			}
+			if (result == null) {
+				misses.incrementAndGet();
+				result = createBuilder();
+			}
+			return result;
+		} finally {
+			borrowWaitNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void returnBuilder(DocumentBuilder builder) {
+		if (builder == null) {
+			return;
+		}
+		builder.reset();
+		builder.setErrorHandler(errorHandler);
+		if (threadLocal) {
+			if (localBuilder.get() == null) {
+				localBuilder.set(builder);
+				return;
+			}
+		}
+		else if (getStripe().offer(builder)) {
+			return;
+		}
+		discarded.incrementAndGet();
+	}
+
+	@Override
+	public Document newDocument() throws XMLParserException {
+		DocumentBuilder builder = getBuilder();
+		try {
+			return builder.newDocument();
+		} finally {
+			returnBuilder(builder);
+		}
+	}
+
+	@Override
+	public Document parse(InputStream input) throws XMLParserException {
+		return parse(new InputSource(input));
+	}
+
+	@Override
+	public Document parse(Reader input) throws XMLParserException {
+		return parse(new InputSource(input));
+	}
+
+	protected Document parse(InputSource input) throws XMLParserException {
+		DocumentBuilder builder = getBuilder();
+		try {
+			return builder.parse(input);
+		} catch (SAXException | IOException e) {
+			throw new XMLParserException("Unable to parse XML", e);
+		} finally {
+			returnBuilder(builder);
+		}
+	}
+
+	protected DocumentBuilder createBuilder() throws XMLParserException {
+		if (factory == null) {
+			throw new XMLParserException("Parser pool has not been initialized");
+		}
+		try {
+			DocumentBuilder result = factory.newDocumentBuilder();
+			result.setErrorHandler(errorHandler);
+			created.incrementAndGet();
+			return result;
+		} catch (ParserConfigurationException e) {
+			throw new XMLParserException("Unable to create document builder", e);
+		}
+	}
+
+	private ArrayBlockingQueue<DocumentBuilder> getStripe() {
+		return pools.get((int) (Thread.currentThread().getId() % pools.size()));
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * @param maxPoolSize - total number of idle builders kept, divided evenly between stripes
+	 * @return this object
+	 */
+	public StripedParserPool setMaxPoolSize(int maxPoolSize) {
+		if (maxPoolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		}
+		this.maxPoolSize = maxPoolSize;
+		return this;
+	}
+
+	public int getStripes() {
+		return stripes;
+	}
+
+	/**
+	 * @param stripes - number of independently locked pools, the number of processors by default
+	 * @return this object
+	 */
+	public StripedParserPool setStripes(int stripes) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("Stripe count must be at least 1");
+		}
+		this.stripes = stripes;
+		return this;
+	}
+
+	public boolean isThreadLocal() {
+		return threadLocal;
+	}
+
+	/**
+	 * @param threadLocal - true to keep one builder per thread instead of striped pools
+	 * @return this object
+	 */
+	public StripedParserPool setThreadLocal(boolean threadLocal) {
+		this.threadLocal = threadLocal;
+		return this;
+	}
+
+	public Map<String, Boolean> getBuilderFeatures() {
+		return builderFeatures;
+	}
+
+	public StripedParserPool setBuilderFeatures(Map<String, Boolean> builderFeatures) {
+		this.builderFeatures = builderFeatures;
+		return this;
+	}
+
+	public Map<String, Object> getBuilderAttributes() {
+		return builderAttributes;
+	}
+
+	public StripedParserPool setBuilderAttributes(Map<String, Object> builderAttributes) {
+		this.builderAttributes = builderAttributes;
+		return this;
+	}
+
+	public long getBorrows() {
+		return borrows.get();
+	}
+
+	/**
+	 * @return number of borrows that found no idle builder
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getCreatedBuilders() {
+		return created.get();
+	}
+
+	/**
+	 * @return number of returned builders that were dropped because their stripe was full
+	 */
+	public long getDiscardedBuilders() {
+		return discarded.get();
+	}
+
+	/**
+	 * @return total time spent obtaining builders, including creating new ones, in nanoseconds
+	 */
+	public long getBorrowWaitNanos() {
+		return borrowWaitNanos.get();
+	}
+
+	private static class LoggingErrorHandler implements ErrorHandler {
+		@Override
+		public void warning(SAXParseException exception) {
+			logger.debug("XML parsing warning.", exception);
+		}
+
+		@Override
+		public void error(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+
+		@Override
+		public void fatalError(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+	}
+}
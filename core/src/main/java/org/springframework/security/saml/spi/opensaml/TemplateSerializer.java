@@ -0,0 +1,513 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.net.URI;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AssertionCondition;
+import org.springframework.security.saml.saml2.authentication.AudienceRestriction;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.Conditions;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.OneTimeUse;
+import org.springframework.security.saml.saml2.authentication.Response;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmation;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmationData;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.CanonicalizationMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.joda.time.DateTime;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.security.saml.util.DateUtils.toZuluTime;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Writes assertions and responses from fixed templates instead of building and marshalling
+ * an OpenSAML object graph. The output is equivalent to that of the object graph path.
+ * <p>
+ * Elements are written directly in exclusive canonical form, so the digest of a signed element
+ * is computed over the written bytes and the signature over the written SignedInfo,
+ * without a canonicalization pass. Only the start tag of a signed element differs from the
+ * document when the element is signed in the context of a parent.
+ * <p>
+ * Shapes the templates do not cover (encrypted assertions, non RSA signatures, values
+ * that are not valid XML characters) are reported as unsupported and left to the object graph path.
+ */
+public class TemplateSerializer {
+
+	private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	private static final String NS_ASSERTION = "urn:oasis:names:tc:SAML:2.0:assertion";
+	private static final String NS_PROTOCOL = "urn:oasis:names:tc:SAML:2.0:protocol";
+	private static final String NS_XSD = "http://www.w3.org/2001/XMLSchema";
+	private static final String NS_XSI = "http://www.w3.org/2001/XMLSchema-instance";
+	private static final String NS_DS = "http://www.w3.org/2000/09/xmldsig#";
+	private static final String NS_EC = "http://www.w3.org/2001/10/xml-exc-c14n#";
+	private static final String ENVELOPED = "http://www.w3.org/2000/09/xmldsig#enveloped-signature";
+	private static final String EXC_C14N = CanonicalizationMethod.ALGO_ID_C14N_EXCL_OMIT_COMMENTS.toString();
+
+	private static final String ASSERTION_START = "<saml2:Assertion xmlns:saml2=\"" + NS_ASSERTION + "\"";
+	private static final String ASSERTION_ROOT_START = ASSERTION_START + " xmlns:xsd=\"" + NS_XSD + "\"";
+	private static final String RESPONSE_START =
+		"<saml2p:Response xmlns:saml2p=\"" + NS_PROTOCOL + "\" xmlns:xsd=\"" + NS_XSD + "\"";
+	private static final String ATTRIBUTE_VALUE_START =
+		"<saml2:AttributeValue xmlns:xsi=\"" + NS_XSI + "\" xsi:type=\"xsd:";
+	private static final String SIGNED_INFO_CONTENT_START =
+		"<ds:CanonicalizationMethod Algorithm=\"" + EXC_C14N + "\"></ds:CanonicalizationMethod>" +
+			"<ds:SignatureMethod Algorithm=\"";
+	private static final String TRANSFORMS =
+		"<ds:Transforms>" +
+			"<ds:Transform Algorithm=\"" + ENVELOPED + "\"></ds:Transform>" +
+			"<ds:Transform Algorithm=\"" + EXC_C14N + "\">" +
+			"<ec:InclusiveNamespaces xmlns:ec=\"" + NS_EC + "\" PrefixList=\"xsd\"></ec:InclusiveNamespaces>" +
+			"</ds:Transform>" +
+			"</ds:Transforms>";
+
+	private final OpenSamlImplementation implementation;
+	private final AtomicLong serialized = new AtomicLong();
+	private final AtomicLong unsupported = new AtomicLong();
+
+	public TemplateSerializer(OpenSamlImplementation implementation) {
+		this.implementation = implementation;
+	}
+
+	/**
+	 * @param saml2Object - the object to serialize
+	 * @return the XML document, or null if the object is not an assertion or response of a supported shape
+	 */
+	public String toXml(Saml2Object saml2Object) {
+		try {
+			StringBuilder result = new StringBuilder(4096).append(XML_DECLARATION);
+			if (saml2Object instanceof Response) {
+				writeResponse(result, (Response) saml2Object);
+			}
+			else if (saml2Object instanceof Assertion) {
+				writeAssertion(result, (Assertion) saml2Object, true);
+			}
+			else {
+				return null;
+			}
+			serialized.incrementAndGet();
+			return result.toString();
+		} catch (UnsupportedShapeException e) {
+			unsupported.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * @return number of objects written from templates
+	 */
+	public long getSerialized() {
+		return serialized.get();
+	}
+
+	/**
+	 * @return number of assertions and responses that had to be left to the object graph path
+	 */
+	public long getUnsupported() {
+		return unsupported.get();
+	}
+
+	protected void writeResponse(StringBuilder out, Response response) {
+		String id = response.getId() != null ? response.getId() : "RP" + UUID.randomUUID().toString();
+		StringBuilder start = new StringBuilder(RESPONSE_START);
+		attribute(start, "Consent", response.getConsent());
+		attribute(start, "Destination", response.getDestination());
+		attribute(start, "ID", id);
+		attribute(start, "InResponseTo", response.getInResponseTo());
+		attribute(start, "IssueInstant", response.getIssueInstant());
+		attribute(start, "Version", "2.0");
+		start.append('>');
+
+		StringBuilder issuer = new StringBuilder();
+		writeIssuer(issuer, require(response.getIssuer()), " xmlns:saml2=\"" + NS_ASSERTION + "\"", true);
+
+		StringBuilder content = new StringBuilder(2048);
+		if (response.getStatus() == null || response.getStatus().getCode() == null) {
+			throw new UnsupportedShapeException();
+		}
+		content.append("<saml2p:Status><saml2p:StatusCode");
+		attribute(content, "Value", response.getStatus().getCode().toString());
+		content.append("></saml2p:StatusCode>");
+		if (hasText(response.getStatus().getMessage())) {
+			element(content, "saml2p:StatusMessage", response.getStatus().getMessage());
+		}
+		content.append("</saml2p:Status>");
+		for (Assertion assertion : response.getAssertions()) {
+			if (assertion.getEncryptionKey() != null) {
+				throw new UnsupportedShapeException();
+			}
+			writeAssertion(content, assertion, false);
+		}
+
+		String end = "</saml2p:Response>";
+		writeSigned(out, start, start, issuer, content, end, id,
+			response.getSigningKey(), response.getAlgorithm(), response.getDigest());
+	}
+
+	protected void writeAssertion(StringBuilder out, Assertion assertion, boolean root) {
+		StringBuilder attributes = new StringBuilder();
+		attribute(attributes, "ID", assertion.getId());
+		attribute(attributes, "IssueInstant", assertion.getIssueInstant());
+		attribute(attributes, "Version", "2.0");
+		attributes.append('>');
+		//as the apex of its own signature, the assertion renders the inclusive xsd prefix itself
+		StringBuilder canonicalStart = new StringBuilder(ASSERTION_ROOT_START).append(attributes);
+		StringBuilder start = root ? canonicalStart : new StringBuilder(ASSERTION_START).append(attributes);
+
+		StringBuilder issuer = new StringBuilder();
+		writeIssuer(issuer, new Issuer().setValue(require(assertion.getIssuer()).getValue()), "", false);
+
+		StringBuilder content = new StringBuilder(2048);
+		writeSubject(
+			content,
+			require(require(assertion.getSubject()).getPrincipal()),
+			assertion.getSubject().getConfirmations()
+		);
+		writeConditions(content, require(assertion.getConditions()));
+		for (AuthenticationStatement statement : assertion.getAuthenticationStatements()) {
+			content.append("<saml2:AuthnStatement");
+			attribute(content, "AuthnInstant", statement.getAuthInstant());
+			attribute(content, "SessionIndex", statement.getSessionIndex());
+			attribute(content, "SessionNotOnOrAfter", statement.getSessionNotOnOrAfter());
+			content.append("><saml2:AuthnContext>");
+			element(
+				content,
+				"saml2:AuthnContextClassRef",
+				require(require(statement.getAuthenticationContext()).getClassReference()).toString()
+			);
+			content.append("</saml2:AuthnContext></saml2:AuthnStatement>");
+		}
+		content.append("<saml2:AttributeStatement>");
+		for (Attribute attribute : assertion.getAttributes()) {
+			writeAttribute(content, attribute);
+		}
+		content.append("</saml2:AttributeStatement>");
+
+		String end = "</saml2:Assertion>";
+		writeSigned(out, start, canonicalStart, issuer, content, end, assertion.getId(),
+			assertion.getSigningKey(), assertion.getAlgorithm(), assertion.getDigest());
+	}
+
+	protected void writeIssuer(StringBuilder out, Issuer issuer, String namespace, boolean qualified) {
+		out.append("<saml2:Issuer").append(namespace);
+		if (qualified) {
+			attribute(out, "Format", issuer.getFormat() == null ? null : issuer.getFormat().toString());
+			attribute(out, "NameQualifier", issuer.getNameQualifier());
+			attribute(out, "SPNameQualifier", issuer.getSpNameQualifier());
+		}
+		out.append('>');
+		text(out, issuer.getValue());
+		out.append("</saml2:Issuer>");
+	}
+
+	protected void writeSubject(StringBuilder out, NameIdPrincipal principal, List<SubjectConfirmation> confirmations) {
+		out.append("<saml2:Subject><saml2:NameID");
+		attribute(out, "Format", require(principal.getFormat()).toString());
+		attribute(out, "SPNameQualifier", principal.getSpNameQualifier());
+		out.append('>');
+		text(out, principal.getValue());
+		out.append("</saml2:NameID>");
+		if (confirmations.isEmpty()) {
+			throw new UnsupportedShapeException();
+		}
+		SubjectConfirmation confirmation = confirmations.get(0);
+		SubjectConfirmationData data = require(confirmation.getConfirmationData());
+		out.append("<saml2:SubjectConfirmation");
+		attribute(out, "Method", require(confirmation.getMethod()).toString());
+		out.append("><saml2:SubjectConfirmationData");
+		attribute(out, "InResponseTo", data.getInResponseTo());
+		attribute(out, "NotBefore", data.getNotBefore());
+		attribute(out, "NotOnOrAfter", data.getNotOnOrAfter());
+		attribute(out, "Recipient", data.getRecipient());
+		out.append("></saml2:SubjectConfirmationData></saml2:SubjectConfirmation></saml2:Subject>");
+	}
+
+	protected void writeConditions(StringBuilder out, Conditions conditions) {
+		out.append("<saml2:Conditions");
+		attribute(out, "NotBefore", conditions.getNotBefore());
+		attribute(out, "NotOnOrAfter", conditions.getNotOnOrAfter());
+		out.append('>');
+		for (AssertionCondition<?, ?> condition : conditions.getCriteria()) {
+			if (condition instanceof AudienceRestriction) {
+				out.append("<saml2:AudienceRestriction>");
+				for (String audience : ((AudienceRestriction) condition).getAudiences()) {
+					element(out, "saml2:Audience", audience);
+				}
+				out.append("</saml2:AudienceRestriction>");
+			}
+			else if (condition instanceof OneTimeUse) {
+				out.append("<saml2:OneTimeUse></saml2:OneTimeUse>");
+			}
+		}
+		out.append("</saml2:Conditions>");
+	}
+
+	protected void writeAttribute(StringBuilder out, Attribute attribute) {
+		out.append("<saml2:Attribute");
+		attribute(out, "FriendlyName", attribute.getFriendlyName());
+		attribute(out, "Name", attribute.getName());
+		attribute(out, "NameFormat", require(attribute.getNameFormat()).toString());
+		out.append('>');
+		for (Object value : attribute.getValues()) {
+			if (value == null) {
+				continue;
+			}
+			if (implementation.getAttributeValueConverters().isCustom(value.getClass())) {
+				throw new UnsupportedShapeException();
+			}
+			String type;
+			String text;
+			if (value instanceof String) {
+				type = "string";
+				text = (String) value;
+			}
+			else if (value instanceof URI || value instanceof URL) {
+				type = "anyURI";
+				text = value.toString();
+			}
+			else if (value instanceof Boolean) {
+				type = "boolean";
+				text = value.toString();
+			}
+			else if (value instanceof DateTime) {
+				type = "dateTime";
+				text = toZuluTime((DateTime) value);
+			}
+			else if (value instanceof Integer) {
+				type = "integer";
+				text = value.toString();
+			}
+			else {
+				type = "anyType";
+				text = value.toString();
+			}
+			out.append(ATTRIBUTE_VALUE_START).append(type).append("\">");
+			text(out, text);
+			out.append("</saml2:AttributeValue>");
+		}
+		out.append("</saml2:Attribute>");
+	}
+
+	/**
+	 * Writes an element with an enveloped signature placed after its issuer.
+	 * The digest covers the canonical start tag, the issuer, the content and the end tag.
+	 */
+	protected void writeSigned(StringBuilder out,
+							   CharSequence start,
+							   CharSequence canonicalStart,
+							   CharSequence issuer,
+							   CharSequence content,
+							   String end,
+							   String id,
+							   SimpleKey key,
+							   AlgorithmMethod algorithm,
+							   DigestMethod digest) {
+		out.append(start).append(issuer);
+		if (key != null) {
+			if (id == null || algorithm == null || digest == null || !isRsa(algorithm)) {
+				throw new UnsupportedShapeException();
+			}
+			byte[] digestValue = digest(digest, canonicalStart, issuer, content, end);
+			StringBuilder signedInfo = new StringBuilder(1024)
+				.append(SIGNED_INFO_CONTENT_START)
+				.append(algorithm.toString())
+				.append("\"></ds:SignatureMethod><ds:Reference");
+			attribute(signedInfo, "URI", "#" + id);
+			signedInfo.append('>')
+				.append(TRANSFORMS)
+				.append("<ds:DigestMethod Algorithm=\"")
+				.append(digest.toString())
+				.append("\"></ds:DigestMethod><ds:DigestValue>")
+				.append(Base64.getEncoder().encodeToString(digestValue))
+				.append("</ds:DigestValue></ds:Reference>");
+			Credential credential = implementation.getCredential(key);
+			byte[] signatureValue = implementation.getSigningEngine().sign(
+				credential,
+				algorithm,
+				("<ds:SignedInfo xmlns:ds=\"" + NS_DS + "\">" + signedInfo + "</ds:SignedInfo>").getBytes(UTF_8)
+			);
+			out.append("<ds:Signature xmlns:ds=\"").append(NS_DS).append("\"><ds:SignedInfo>")
+				.append(signedInfo)
+				.append("</ds:SignedInfo><ds:SignatureValue>")
+				.append(Base64.getEncoder().encodeToString(signatureValue))
+				.append("</ds:SignatureValue>");
+			writeKeyInfo(out, credential);
+			out.append("</ds:Signature>");
+		}
+		out.append(content).append(end);
+	}
+
+	protected void writeKeyInfo(StringBuilder out, Credential credential) {
+		if (!(credential instanceof X509Credential) || ((X509Credential) credential).getEntityCertificate() == null) {
+			return;
+		}
+		try {
+			byte[] certificate = ((X509Credential) credential).getEntityCertificate().getEncoded();
+			out.append("<ds:KeyInfo><ds:X509Data><ds:X509Certificate>")
+				.append(Base64.getEncoder().encodeToString(certificate))
+				.append("</ds:X509Certificate></ds:X509Data></ds:KeyInfo>");
+		} catch (CertificateEncodingException e) {
+			throw new UnsupportedShapeException();
+		}
+	}
+
+	private static <T> T require(T value) {
+		if (value == null) {
+			throw new UnsupportedShapeException();
+		}
+		return value;
+	}
+
+	private static boolean isRsa(AlgorithmMethod algorithm) {
+		return algorithm.toString().contains("#rsa-");
+	}
+
+	private static byte[] digest(DigestMethod method, CharSequence... parts) {
+		try {
+			String jceName = JCEMapper.translateURItoJCEID(method.toString());
+			if (jceName == null) {
+				throw new UnsupportedShapeException();
+			}
+			MessageDigest digest = MessageDigest.getInstance(jceName);
+			for (CharSequence part : parts) {
+				digest.update(part.toString().getBytes(UTF_8));
+			}
+			return digest.digest();
+		} catch (GeneralSecurityException e) {
+			throw new UnsupportedShapeException();
+		}
+	}
+
+	private static void element(StringBuilder out, String name, String value) {
+		out.append('<').append(name).append('>');
+		text(out, value);
+		out.append("</").append(name).append('>');
+	}
+
+	private static void attribute(StringBuilder out, String name, DateTime value) {
+		if (value != null) {
+			attribute(out, name, toZuluTime(value));
+		}
+	}
+
+	/**
+	 * Appends an attribute escaped as exclusive canonicalization renders it.
+	 * Values are trimmed and empty values omitted, as the object graph path does.
+	 */
+	private static void attribute(StringBuilder out, String name, String value) {
+		value = StringSupport.trimOrNull(value);
+		if (value == null) {
+			return;
+		}
+		out.append(' ').append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&':
+					out.append("&amp;");
+					break;
+				case '<':
+					out.append("&lt;");
+					break;
+				case '"':
+					out.append("&quot;");
+					break;
+				case '\t':
+					out.append("&#x9;");
+					break;
+				case '\n':
+					out.append("&#xA;");
+					break;
+				case '\r':
+					out.append("&#xD;");
+					break;
+				default:
+					out.append(verify(c));
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Appends text content escaped as exclusive canonicalization renders it.
+	 */
+	private static void text(StringBuilder out, String value) {
+		value = StringSupport.trimOrNull(value);
+		if (value == null) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&':
+					out.append("&amp;");
+					break;
+				case '<':
+					out.append("&lt;");
+					break;
+				case '>':
+					out.append("&gt;");
+					break;
+				case '\r':
+					out.append("&#xD;");
+					break;
+				case '\t':
+				case '\n':
+					out.append(c);
+					break;
+				default:
+					out.append(verify(c));
+			}
+		}
+	}
+
+	private static char verify(char c) {
+		if (c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+			throw new UnsupportedShapeException();
+		}
+		return c;
+	}
+
+	private static class UnsupportedShapeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedShapeException() {
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.xml.namespace.QName;
+
+import org.springframework.security.saml.SamlException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.saml.saml2.core.AttributeValue;
+
+/**
+ * Converter for attribute values represented by a typed OpenSAML object, such as XSString.
+ * Values of another object type are left unconverted.
+ * @param <T> - the Java type
+ * @param <X> - the OpenSAML object type
+ */
+public class TypedAttributeValueConverter<T, X extends XMLObject> implements AttributeValueConverter<T> {
+
+	private final Class<T> javaType;
+	private final QName schemaType;
+	private final Class<X> xmlType;
+	private final BiConsumer<X, T> writer;
+	private final Function<X, Object> reader;
+	private final Function<X, String> text;
+	private volatile XMLObjectBuilder<?> builder;
+
+	/**
+	 * @param javaType - the Java type written
+	 * @param schemaType - the xsi:type written and read
+	 * @param xmlType - the OpenSAML object registered for the xsi:type
+	 * @param writer - sets a Java value on a new object
+	 * @param reader - returns the Java value of an object
+	 * @param text - returns the lexical form of an object
+	 */
+	public TypedAttributeValueConverter(Class<T> javaType,
+										QName schemaType,
+										Class<X> xmlType,
+										BiConsumer<X, T> writer,
+										Function<X, Object> reader,
+										Function<X, String> text) {
+		this.javaType = javaType;
+		this.schemaType = schemaType;
+		this.xmlType = xmlType;
+		this.writer = writer;
+		this.reader = reader;
+		this.text = text;
+	}
+
+	@Override
+	public Class<T> getJavaType() {
+		return javaType;
+	}
+
+	@Override
+	public QName getSchemaType() {
+		return schemaType;
+	}
+
+	public Class<X> getXmlType() {
+		return xmlType;
+	}
+
+	@Override
+	public XMLObject toXmlObject(T value) {
+		XMLObjectBuilder<?> b = builder;
+		if (b == null) {
+			b = XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(schemaType);
+			if (b == null) {
+				throw new SamlException("No builder registered for " + schemaType);
+			}
+			builder = b;
+		}
+		X result = xmlType.cast(b.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, schemaType));
+		writer.accept(result, value);
+		return result;
+	}
+
+	@Override
+	public Object toJavaValue(XMLObject value) {
+		return xmlType.isInstance(value) ? reader.apply(xmlType.cast(value)) : value;
+	}
+
+	@Override
+	public String toText(XMLObject value) {
+		return xmlType.isInstance(value) ? text.apply(xmlType.cast(value)) : null;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.security.saml.SamlException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Marshaller;
+import org.opensaml.core.xml.io.Unmarshaller;
+
+/**
+ * Caches the element name, builder, marshaller and unmarshaller of OpenSAML object types per class,
+ * so that building and marshalling objects involves no reflection or registry lookups.
+ * Entries are resolved against the provider registry on first use and must therefore
+ * only be requested once OpenSAML has been initialized.
+ */
+public class XmlObjectTypes {
+
+	private final ClassValue<XmlObjectType> types = new ClassValue<XmlObjectType>() {
+		@Override
+		protected XmlObjectType computeValue(Class<?> type) {
+			return resolve(type);
+		}
+	};
+
+	/**
+	 * Resolves the given types ahead of use
+	 * @param classes - object interfaces or implementation classes
+	 * @return this object
+	 */
+	public XmlObjectTypes preload(Class<?>... classes) {
+		for (Class<?> type : classes) {
+			types.get(type);
+		}
+		return this;
+	}
+
+	public XmlObjectType get(Class<?> type) {
+		return types.get(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T build(Class<T> type) {
+		XmlObjectType entry = types.get(type);
+		if (entry.getBuilder() == null) {
+			throw new SamlException("Could not create SAML object of type " + type.getName());
+		}
+		return (T) entry.getBuilder().buildObject(entry.getElementName());
+	}
+
+	/**
+	 * Returns the marshaller for an object. Objects carrying an xsi:type, or an element name other
+	 * than the default of their class, are looked up in the registry as before.
+	 * @param object - the object to be marshalled
+	 * @return the marshaller, or null if none is registered
+	 */
+	public Marshaller getMarshaller(XMLObject object) {
+		if (object.getSchemaType() == null) {
+			XmlObjectType entry = types.get(object.getClass());
+			if (entry.getMarshaller() != null && object.getElementQName().equals(entry.getElementName())) {
+				return entry.getMarshaller();
+			}
+		}
+		return XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(object);
+	}
+
+	protected XmlObjectType resolve(Class<?> type) {
+		QName name;
+		try {
+			name = (QName) type.getField("DEFAULT_ELEMENT_NAME").get(null);
+		} catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+			return new XmlObjectType(null, null, null, null);
+		}
+		return new XmlObjectType(
+			name,
+			XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(name),
+			XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(name),
+			XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(name)
+		);
+	}
+
+	public static class XmlObjectType {
+		private final QName elementName;
+		private final XMLObjectBuilder<?> builder;
+		private final Marshaller marshaller;
+		private final Unmarshaller unmarshaller;
+
+		XmlObjectType(QName elementName,
+					  XMLObjectBuilder<?> builder,
+					  Marshaller marshaller,
+					  Unmarshaller unmarshaller) {
+			this.elementName = elementName;
+			this.builder = builder;
+			this.marshaller = marshaller;
+			this.unmarshaller = unmarshaller;
+		}
+
+		public QName getElementName() {
+			return elementName;
+		}
+
+		public XMLObjectBuilder<?> getBuilder() {
+			return builder;
+		}
+
+		public Marshaller getMarshaller() {
+			return marshaller;
+		}
+
+		public Unmarshaller getUnmarshaller() {
+			return unmarshaller;
+		}
+	}
+}
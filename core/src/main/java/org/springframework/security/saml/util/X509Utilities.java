@@ -20,7 +20,6 @@ import java.io.ByteArrayInputStream;
 import java.io.CharArrayReader;
 import java.io.IOException;
 import java.security.KeyFactory;
-import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
@@ -33,12 +32,20 @@ import javax.xml.bind.DatatypeConverter;
 
 import org.springframework.security.saml.SamlKeyException;
 
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.openssl.PEMDecryptorProvider;
 import org.bouncycastle.openssl.PEMEncryptedKeyPair;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
 import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
+import org.bouncycastle.operator.InputDecryptorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.pkcs.PKCSException;
 
 public class X509Utilities {
 
@@ -85,14 +92,24 @@ public class X509Utilities {
 		return (RSAPrivateKey) factory.generatePrivate(spec);
 	}
 
+	/**
+	 * Reads an RSA or EC private key from PEM. Supports traditional OpenSSL key pairs
+	 * (encrypted or not), as well as plain and encrypted PKCS#8 keys.
+	 * @param pem - the PEM encoded private key
+	 * @param passphrase - the passphrase for encrypted keys
+	 * @return the private key
+	 */
 	public static PrivateKey readPrivateKey(String pem, String passphrase) {
 
 		try {
 			PEMParser parser = new PEMParser(new CharArrayReader(pem.toCharArray()));
 			Object obj = parser.readObject();
+			//skip leading EC PARAMETERS blocks
+			while (obj instanceof ASN1ObjectIdentifier || obj instanceof X9ECParameters) {
+				obj = parser.readObject();
+			}
 			parser.close();
 			JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-			KeyPair kp;
 			if (obj == null) {
 				throw new SamlKeyException("Unable to decode PEM key:" + pem);
 			}
@@ -101,16 +118,26 @@ public class X509Utilities {
 				PEMEncryptedKeyPair ckp = (PEMEncryptedKeyPair) obj;
 				PEMDecryptorProvider decProv = new JcePEMDecryptorProviderBuilder().build(passphrase
 					.toCharArray());
-				kp = converter.getKeyPair(ckp.decryptKeyPair(decProv));
+				return converter.getKeyPair(ckp.decryptKeyPair(decProv)).getPrivate();
 			}
-			else {
+			else if (obj instanceof PEMKeyPair) {
 				// Unencrypted key - no password needed
 				PEMKeyPair ukp = (PEMKeyPair) obj;
-				kp = converter.getKeyPair(ukp);
+				return converter.getKeyPair(ukp).getPrivate();
 			}
-
-			return kp.getPrivate();
-		} catch (IOException e) {
+			else if (obj instanceof PKCS8EncryptedPrivateKeyInfo) {
+				InputDecryptorProvider decProv = new JceOpenSSLPKCS8DecryptorProviderBuilder()
+					.setProvider("BC")
+					.build(passphrase.toCharArray());
+				return converter.getPrivateKey(((PKCS8EncryptedPrivateKeyInfo) obj).decryptPrivateKeyInfo(decProv));
+			}
+			else if (obj instanceof PrivateKeyInfo) {
+				return converter.getPrivateKey((PrivateKeyInfo) obj);
+			}
+			else {
+				throw new SamlKeyException("Unsupported PEM object:" + obj.getClass().getName());
+			}
+		} catch (IOException | OperatorCreationException | PKCSException e) {
 			throw new SamlKeyException(e);
 		}
 	}
@@ -28,6 +28,13 @@ public class ValidationResult {
 	private final Saml2Object saml2Object;
 	private List<ValidationError> errors = new LinkedList<>();
 
+	/**
+	 * Creates a result for checks that do not have a SAML object, such as checks on the raw message
+	 */
+	public ValidationResult() {
+		this(null);
+	}
+
 	public ValidationResult(Saml2Object saml2Object) {
 		this.saml2Object = saml2Object;
 	}
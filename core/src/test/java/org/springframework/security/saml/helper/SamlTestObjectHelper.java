@@ -120,6 +120,8 @@ public class SamlTestObjectHelper {
 		if (!configuration.getNameIds().isEmpty()) {
 			metadata.getServiceProvider().setNameIds(configuration.getNameIds());
 		}
+		metadata.getServiceProvider().setSigningMethods(configuration.getSigningMethods());
+		metadata.getServiceProvider().setDigestMethods(configuration.getDigestMethods());
 
 		return metadata;
 	}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.security.saml.helper.SamlTestObjectHelper;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.config.RotatingKeys;
+import org.springframework.security.saml.provider.service.HostedServiceProviderService;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+import org.springframework.security.saml.saml2.XmlRetention;
+import org.springframework.security.saml.saml2.authentication.LogoutRequest;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.metadata.Endpoint;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+import org.springframework.security.saml.saml2.metadata.NameId;
+import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
+import org.springframework.security.saml.saml2.signature.SignatureException;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
+import org.springframework.security.saml.spi.DefaultValidator;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+import org.springframework.security.saml.validation.ValidationException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class RedirectBindingTests {
+
+	private static final String SP_URL = "http://sp.localhost:8080/uaa";
+
+	private OpenSamlImplementation implementation;
+	private HostedServiceProviderService provider;
+	private SamlTestObjectHelper helper;
+	private SimpleKey key;
+
+	@BeforeEach
+	public void setup() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		DefaultSamlTransformer transformer = new DefaultSamlTransformer(implementation);
+		helper = new SamlTestObjectHelper(Clock.systemUTC());
+		key = SP_RSA_KEY.getSimpleKey("sp");
+		LocalServiceProviderConfiguration configuration = new LocalServiceProviderConfiguration();
+		configuration.setEntityId(SP_URL);
+		configuration.setSignMetadata(true);
+		configuration.setKeys(new RotatingKeys().setActive(key).setStandBy(Collections.emptyList()));
+		ServiceProviderMetadata metadata = helper.serviceProviderMetadata(SP_URL, configuration);
+		//the sender verifies its own messages, the remote provider is published with the same key
+		IdentityProviderMetadata remote = helper.identityProviderMetadata(
+			SP_URL,
+			null,
+			singletonList(key),
+			"saml/idp/",
+			"alias",
+			null,
+			null
+		);
+		DefaultValidator validator = new DefaultValidator(implementation);
+		provider = new HostedServiceProviderService(configuration, metadata, transformer, validator, null) {
+			@Override
+			public IdentityProviderMetadata getRemoteProvider(String entityId) {
+				return remote;
+			}
+		};
+	}
+
+	@Test
+	public void signed_redirect_round_trip() throws Exception {
+		String url = provider.toRedirectUrl(logoutRequest(), "http://idp.localhost/logout", "SAMLRequest", "state 1");
+		Map<String, String> params = SamlTestObjectHelper.queryParams(new URI(url));
+		assertEquals("state 1", params.get("RelayState"));
+		assertTrue(params.containsKey("Signature"));
+		String xml = provider.getTransformer().samlDecode(params.get("SAMLRequest"), true);
+		assertThat(xml, not(containsString("SignatureValue")));
+
+		LogoutRequest result = provider.fromRedirect(new URI(url).getRawQuery(), "SAMLRequest", LogoutRequest.class);
+		assertTrue(result.getSignature().isValidated());
+		assertThat(result.getSignature().getValidatingKey().getName(), equalTo("sp"));
+	}
+
+	@Test
+	public void tampered_redirect_is_rejected() throws Exception {
+		String query = new URI(
+			provider.toRedirectUrl(logoutRequest(), "http://idp.localhost/logout", "SAMLRequest", "state")
+		).getRawQuery();
+		assertThrows(
+			SignatureException.class,
+			() -> provider.fromRedirect(query.replace("RelayState=state", "RelayState=other"), "SAMLRequest", LogoutRequest.class)
+		);
+	}
+
+	@Test
+	public void signed_redirect_is_checked_before_parsing() throws Exception {
+		LogoutRequest request = logoutRequest()
+			.setDestination(new Endpoint().setLocation("http://other.localhost/logout"));
+		String query = new URI(
+			provider.toRedirectUrl(request, "http://other.localhost/logout", "SAMLRequest", null)
+		).getRawQuery();
+		assertThat(query, containsString("Signature="));
+		assertThrows(
+			ValidationException.class,
+			() -> provider.fromRedirect(query, "SAMLRequest", LogoutRequest.class)
+		);
+	}
+
+	@Test
+	public void unsigned_redirect() throws Exception {
+		LogoutRequest request = logoutRequest().setSigningKey(null, null, null);
+		String url = provider.toRedirectUrl(request, "http://idp.localhost/logout?a=b", "SAMLRequest", null);
+		assertThat(url, not(containsString("Signature=")));
+		LogoutRequest result = provider.fromRedirect(new URI(url).getRawQuery(), "SAMLRequest", LogoutRequest.class);
+		assertNull(result.getSignature());
+	}
+
+	@Test
+	public void streaming_serialization_matches_string_serialization() throws Exception {
+		LogoutRequest request = logoutRequest().setSigningKey(null, null, null);
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		provider.toXml(request, xml);
+		assertThat(new String(xml.toByteArray(), UTF_8), equalTo(provider.toXml(request)));
+
+		for (boolean deflate : new boolean[]{true, false}) {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			provider.toEncodedXml(request, deflate, encoded);
+			String expected = provider.toEncodedXml(provider.toXml(request), deflate);
+			assertThat(new String(encoded.toByteArray(), UTF_8), equalTo(expected));
+			assertThat(provider.toEncodedXml(request, deflate), equalTo(expected));
+		}
+	}
+
+	@Test
+	public void validation_does_not_release_the_parsed_object() throws Exception {
+		implementation.setXmlRetention(XmlRetention.DROP_AFTER_VALIDATION);
+		String url = provider.toRedirectUrl(logoutRequest(), "http://idp.localhost/logout", "SAMLRequest", null);
+		LogoutRequest result = provider.fromRedirect(new URI(url).getRawQuery(), "SAMLRequest", LogoutRequest.class);
+		assertTrue(provider.validate(result).isSuccess());
+		assertTrue(provider.validate(result).isSuccess());
+		assertNotNull(result.getImplementation());
+		assertNotNull(result.getOriginalXML());
+
+		result.release();
+		assertNull(result.getImplementation());
+		assertNull(result.getOriginalXML());
+	}
+
+	private LogoutRequest logoutRequest() {
+		LogoutRequest request = provider.logoutRequest(
+			provider.getRemoteProvider(SP_URL),
+			new NameIdPrincipal().setFormat(NameId.PERSISTENT).setValue("user")
+		);
+		//the message is received by its sender, address it to the local logout endpoint
+		return request.setDestination(provider.getMetadata().getServiceProvider().getSingleLogoutService().get(0));
+	}
+}
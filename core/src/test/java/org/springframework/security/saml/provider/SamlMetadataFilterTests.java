@@ -0,0 +1,135 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Clock;
+import java.util.Collections;
+
+import org.springframework.security.saml.helper.SamlTestObjectHelper;
+import org.springframework.security.saml.provider.config.KeyRotationService;
+import org.springframework.security.saml.provider.config.RotatingKeys;
+import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
+import org.springframework.security.saml.provider.service.HostedServiceProviderService;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
+import org.springframework.security.saml.spi.DefaultValidator;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class SamlMetadataFilterTests {
+
+	private static final String SP_URL = "http://sp.localhost:8080/uaa";
+
+	private OpenSamlImplementation implementation;
+	private DefaultSamlTransformer transformer;
+	private RotatingKeys keys;
+	private LocalServiceProviderConfiguration configuration;
+	private SamlMetadataFilter<HostedServiceProviderService> filter;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		transformer = new DefaultSamlTransformer(implementation);
+		keys = new RotatingKeys().setActive(SP_RSA_KEY.getSimpleKey("sp")).setStandBy(Collections.emptyList());
+		configuration = new LocalServiceProviderConfiguration();
+		configuration.setEntityId(SP_URL);
+		configuration.setBasePath(SP_URL);
+		configuration.setSignMetadata(true);
+		configuration.setKeys(keys);
+		filter = new SamlMetadataFilter<>(mock(SamlProviderProvisioning.class));
+	}
+
+	@Test
+	public void signed_metadata_is_cached_per_key_ring() throws Exception {
+		String first = write(provider());
+		assertThat(first, containsString("SignatureValue"));
+		HostedServiceProviderService provider = provider();
+		String cached = filter.getSignedMetadata(provider, provider.getMetadata(), provider.getKeyRing());
+		assertThat(
+			filter.getSignedMetadata(provider, provider.getMetadata(), provider.getKeyRing()),
+			sameInstance(cached)
+		);
+		assertThat(write(provider()), equalTo(first));
+
+		new KeyRotationService(transformer).stage(keys, IDP_RSA_KEY.getSimpleKey("next"));
+		assertThat(write(provider()), not(equalTo(first)));
+	}
+
+	@Test
+	public void metadata_cache_is_bounded() throws Exception {
+		filter.setMetadataCacheSize(1);
+		HostedServiceProviderService provider = provider();
+		String cached = filter.getSignedMetadata(provider, provider.getMetadata(), provider.getKeyRing());
+		configuration.setEntityId("http://other.localhost:8080/uaa");
+		write(provider());
+		configuration.setEntityId(SP_URL);
+		assertThat(
+			filter.getSignedMetadata(provider, provider.getMetadata(), provider.getKeyRing()),
+			not(sameInstance(cached))
+		);
+	}
+
+	@Test
+	public void algorithm_extensions_are_written_when_configured() throws Exception {
+		configuration.setSignMetadata(false);
+		assertThat(write(provider()), not(containsString("SigningMethod")));
+		assertThat(write(provider()), not(containsString("DigestMethod")));
+
+		configuration.setSigningMethods(singletonList(AlgorithmMethod.ECDSA_SHA256));
+		configuration.setDigestMethods(singletonList(DigestMethod.SHA256));
+		String xml = write(provider());
+		assertThat(xml, containsString("Algorithm=\"" + AlgorithmMethod.ECDSA_SHA256 + "\""));
+		assertThat(xml, containsString("Algorithm=\"" + DigestMethod.SHA256 + "\""));
+	}
+
+	private HostedServiceProviderService provider() {
+		ServiceProviderMetadata metadata =
+			new SamlTestObjectHelper(Clock.systemUTC()).serviceProviderMetadata(SP_URL, configuration);
+		metadata.setEntityId(configuration.getEntityId());
+		return new HostedServiceProviderService(
+			configuration,
+			metadata,
+			transformer,
+			new DefaultValidator(implementation),
+			null
+		);
+	}
+
+	private String write(HostedServiceProviderService provider) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		filter.writeMetadata(provider, out);
+		return new String(out.toByteArray(), UTF_8);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.provider.config;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedList;
+
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class KeyRotationServiceTests {
+
+	private RotatingKeys keys;
+	private KeyRotationService service;
+
+	@BeforeEach
+	public void setup() {
+		keys = new RotatingKeys()
+			.setActive(SP_RSA_KEY.getSimpleKey("current"))
+			.setStandBy(new LinkedList<>());
+		service = new KeyRotationService(
+			new DefaultSamlTransformer(new OpenSamlImplementation(Clock.systemUTC()).init())
+		);
+	}
+
+	@Test
+	public void key_ring_is_published_once() {
+		KeyRing ring = keys.getKeyRing();
+		assertSame(ring, keys.getKeyRing());
+		assertEquals(2, ring.getMetadataKeys().size());
+		assertEquals("current-encryption", ring.getMetadataKeys().get(1).getName());
+		keys.getStandBy().add(IDP_RSA_KEY.getSimpleKey("added"));
+		assertNotSame(ring, keys.getKeyRing());
+		assertEquals(2, keys.getKeyRing().getLocalKeys().size());
+	}
+
+	@Test
+	public void key_ring_follows_key_contents() {
+		keys.getStandBy().add(IDP_RSA_KEY.getSimpleKey("stand-by"));
+		KeyRing ring = keys.getKeyRing();
+		keys.getStandBy().set(0, SP_RSA_KEY.getSimpleKey("stand-by"));
+		KeyRing replaced = keys.getKeyRing();
+		assertNotSame(ring, replaced);
+		assertEquals(SP_RSA_KEY.getPublic(), replaced.getStandBy().get(0).getCertificate());
+		keys.getActive().setCertificate(IDP_RSA_KEY.getPublic());
+		assertNotSame(replaced, keys.getKeyRing());
+		assertSame(keys.getKeyRing(), keys.getKeyRing());
+	}
+
+	@Test
+	public void stage_promote_retire() {
+		KeyRing staged = service.stage(keys, IDP_RSA_KEY.getSimpleKey("next"));
+		assertEquals("current", staged.getActive().getName());
+		assertEquals("next", staged.getStandBy().get(0).getName());
+
+		KeyRing promoted = service.promote(keys, "next");
+		assertSame(promoted, keys.getKeyRing());
+		assertEquals("next", keys.getActive().getName());
+		assertEquals("current", promoted.getStandBy().get(0).getName());
+		assertTrue(promoted.getVersion() > staged.getVersion());
+
+		KeyRing retired = service.retire(keys, "current");
+		assertTrue(retired.getStandBy().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> service.retire(keys, "next"));
+		assertThrows(IllegalArgumentException.class, () -> service.promote(keys, "missing"));
+	}
+
+	@Test
+	public void promote_waits_for_in_flight_signatures() throws Exception {
+		service.stage(keys, IDP_RSA_KEY.getSimpleKey("next"));
+		KeyRing.Lease lease = keys.getKeyRing().acquire();
+		Thread promotion = new Thread(() -> service.setDrainTimeout(Duration.ofSeconds(10)).promote(keys, "next"));
+		promotion.start();
+		promotion.join(200);
+		assertTrue(promotion.isAlive());
+		assertEquals("next", keys.getActive().getName());
+		lease.close();
+		promotion.join(5000);
+		assertFalse(promotion.isAlive());
+	}
+}
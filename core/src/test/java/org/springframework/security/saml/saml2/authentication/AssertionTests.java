@@ -21,12 +21,16 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.Iterator;
 import java.util.List;
 
+import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.RetainedXml;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.XmlRetention;
 import org.springframework.security.saml.saml2.attribute.Attribute;
 import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
 import org.springframework.security.saml.saml2.encrypt.KeyEncryptionMethod;
@@ -35,7 +39,9 @@ import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.DigestMethod;
 import org.springframework.security.saml.saml2.signature.SignatureException;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
 import org.springframework.security.saml.spi.ExamplePemKey;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
 
 import org.hamcrest.core.IsEqual;
 import org.joda.time.DateTime;
@@ -54,7 +60,9 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.saml.saml2.attribute.AttributeNameFormat.BASIC;
 import static org.springframework.security.saml.saml2.authentication.AuthenticationContextClassReference.PASSWORD;
 import static org.springframework.security.saml.saml2.authentication.AuthenticationContextClassReference.PASSWORD_PROTECTED_TRANSPORT;
@@ -155,6 +163,26 @@ public class AssertionTests extends MetadataBase {
 		config.fromXml(xml, asList(spSigning, idpSigning), null);
 	}
 
+	@Test
+	public void verify_signatures_after_parsing() throws Exception {
+		Response response =
+			(Response) config.fromXml(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), null, null);
+		response.setSigningKey(idpSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		response.getAssertions().get(0).setSigningKey(spSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		String xml = config.toXml(response);
+
+		Response parsed = (Response) config.fromXml(xml, null, null);
+		assertNull(parsed.getSignature());
+		assertNull(parsed.getAssertions().get(0).getSignature());
+		assertThrows(SignatureException.class, () -> config.verifySignatures(parsed, asList(idpSigning)));
+
+		Response verified = (Response) config.fromXml(xml, null, null);
+		assertSame(verified, config.verifySignatures(verified, asList(spSigning, idpSigning)));
+		assertTrue(verified.getSignature().isValidated());
+		assertTrue(verified.getAssertions().get(0).getSignature().isValidated());
+		assertThat(verified.getAssertions().get(0).getSignature().getValidatingKey(), equalTo(spSigning));
+	}
+
 	@Test
 	public void read_saml_response() throws Exception {
 		Response response =
@@ -565,6 +593,12 @@ public class AssertionTests extends MetadataBase {
 		encryptAssertion(KeyEncryptionMethod.RSA_1_5, DataEncryptionMethod.AES192_CBC);
 	}
 
+	@Test
+	public void encryptAssertionGcm() throws Exception {
+		encryptAssertion(KeyEncryptionMethod.RSA_OAEP_MGF1P, DataEncryptionMethod.AES128_GCM);
+		encryptAssertion(KeyEncryptionMethod.RSA_OAEP_MGF1P, DataEncryptionMethod.AES256_GCM);
+	}
+
 	public void encryptAssertion(KeyEncryptionMethod keyAlgorithm, DataEncryptionMethod dataAlgorithm) throws Exception {
 		Response response =
 			(Response) config.fromXml(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), null, null);
@@ -615,6 +649,77 @@ public class AssertionTests extends MetadataBase {
 		assertThat(r.getAssertions().size(), equalTo(1));
 	}
 
+	@Test
+	public void lazy_materialization() throws Exception {
+		byte[] data = getFileBytes("/test-data/assertion/assertion-encrypted-external-20180523.xml");
+		List<SimpleKey> verification = asList(decryptionVerificationKey);
+		List<SimpleKey> local = asList(decryptionKey);
+		SamlTransformer lazy = new DefaultSamlTransformer(
+			new OpenSamlImplementation(Clock.systemUTC()).setLazyMaterialization(true).init()
+		);
+		Assertion expected = ((Response) config.fromXml(data, verification, local)).getAssertions().get(0);
+		Assertion actual = ((Response) lazy.fromXml(data, verification, local)).getAssertions().get(0);
+
+		assertThat(actual.getId(), equalTo(expected.getId()));
+		assertThat(
+			actual.getSubject().getPrincipal().getValue(),
+			equalTo(expected.getSubject().getPrincipal().getValue())
+		);
+		assertSame(actual.getSubject(), actual.getSubject());
+		assertThat(
+			actual.getConditions().getNotOnOrAfter(),
+			equalTo(expected.getConditions().getNotOnOrAfter())
+		);
+		assertThat(
+			actual.getAuthenticationStatements().size(),
+			equalTo(expected.getAuthenticationStatements().size())
+		);
+		assertThat(actual.getAttributes().size(), equalTo(expected.getAttributes().size()));
+		assertThat(actual.getAttributes().get(0).getName(), equalTo(expected.getAttributes().get(0).getName()));
+
+		int[] calls = {0};
+		Assertion deferred = new Assertion().deferAttributes(() -> {
+			calls[0]++;
+			return asList(new Attribute().setName("name"));
+		});
+		assertThat(calls[0], equalTo(0));
+		assertNotNull(deferred.getFirstAttribute("name"));
+		deferred.addAttribute(new Attribute().setName("other"));
+		assertThat(deferred.getAttributes().size(), equalTo(2));
+		assertThat(calls[0], equalTo(1));
+	}
+
+	@Test
+	public void attribute_index() {
+		int[] conversions = {0};
+		Assertion assertion = new Assertion();
+		for (int i = 0; i < 100; i++) {
+			String index = String.valueOf(i);
+			assertion.addAttribute(
+				new Attribute()
+					.setName("urn:oid:" + index)
+					.setFriendlyName("attribute" + index)
+					.deferValues(() -> {
+						conversions[0]++;
+						return asList(index, Integer.valueOf(index));
+					})
+			);
+		}
+		assertion.addAttribute(new Attribute().setName("urn:oid:7").addValues("second"));
+
+		assertThat(assertion.getAttributes("urn:oid:7").size(), equalTo(2));
+		Attribute first = assertion.getAttributeIndex().getFirstByFriendlyName("attribute42");
+		assertSame(first, assertion.getFirstAttribute("urn:oid:42"));
+		assertThat(conversions[0], equalTo(0));
+		assertThat(first.getFirstValue(Integer.class), equalTo(42));
+		assertThat(first.getValues(String.class), equalTo(asList("42")));
+		assertThat(conversions[0], equalTo(1));
+		assertNull(assertion.getAttributeIndex().getFirst("missing"));
+
+		assertion.addAttribute(new Attribute().setName("late"));
+		assertNotNull(assertion.getFirstAttribute("late"));
+	}
+
 	@Test
 	public void originalXML() throws Exception {
 		byte[] assertion = getFileBytes("/test-data/assertion/assertion-encrypted-external-20180523.xml");
@@ -627,4 +732,39 @@ public class AssertionTests extends MetadataBase {
 		assertThat(resolve.getOriginalXML(), equalTo(new String(assertion, StandardCharsets.UTF_8)));
 	}
 
+	@Test
+	public void xml_retention() throws Exception {
+		byte[] data = getFileBytes("/test-data/assertion/assertion-encrypted-external-20180523.xml");
+		List<SimpleKey> verification = asList(decryptionVerificationKey);
+		List<SimpleKey> local = asList(decryptionKey);
+		String xml = new String(data, StandardCharsets.UTF_8);
+		String digest = RetainedXml.of(xml).getDigest();
+
+		OpenSamlImplementation compressed = new OpenSamlImplementation(Clock.systemUTC())
+			.setXmlRetention(XmlRetention.COMPRESSED).init();
+		Response response = (Response) new DefaultSamlTransformer(compressed).fromXml(data, verification, local);
+		assertThat(response.getOriginalXML(), equalTo(xml));
+		assertThat(response.getRetainedXML().getDigest(), equalTo(digest));
+		assertTrue(response.getRetainedXML().getRetainedBytes() < data.length);
+		assertThat(compressed.getParsedXmlBytes(), equalTo((long) data.length));
+		assertNotNull(response.getImplementation());
+		response.release();
+		assertNull(response.getImplementation());
+		assertNull(response.getAssertions().get(0).getImplementation());
+
+		OpenSamlImplementation digestOnly = new OpenSamlImplementation(Clock.systemUTC())
+			.setXmlRetention(XmlRetention.DIGEST).init();
+		response = (Response) new DefaultSamlTransformer(digestOnly).fromXml(data, verification, local);
+		assertNull(response.getOriginalXML());
+		assertThat(response.getRetainedXML().getDigest(), equalTo(digest));
+
+		OpenSamlImplementation drop = new OpenSamlImplementation(Clock.systemUTC())
+			.setXmlRetention(XmlRetention.DROP_AFTER_VALIDATION).init();
+		response = (Response) new DefaultSamlTransformer(drop).fromXml(data, verification, local);
+		assertThat(response.getOriginalXML(), equalTo(xml));
+		response.release();
+		assertNull(response.getOriginalXML());
+		assertNull(response.getImplementation());
+	}
+
 }
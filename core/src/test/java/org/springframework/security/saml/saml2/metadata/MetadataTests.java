@@ -54,12 +54,14 @@ import static org.springframework.security.saml.saml2.metadata.NameId.PERSISTENT
 import static org.springframework.security.saml.saml2.metadata.NameId.TRANSIENT;
 import static org.springframework.security.saml.saml2.metadata.NameId.UNSPECIFIED;
 import static org.springframework.security.saml.saml2.metadata.NameId.X509_SUBJECT;
+import static org.springframework.security.saml.spi.ExamplePemKey.EC_TEST_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.RSA_TEST_KEY;
 import static org.springframework.security.saml.util.DateUtils.fromZuluTime;
 import static org.springframework.security.saml.util.X509Utilities.keyCleanup;
 import static org.springframework.security.saml.util.XmlTestUtil.assertNodeAttribute;
 import static org.springframework.security.saml.util.XmlTestUtil.assertNodeCount;
+import static org.springframework.security.saml.util.XmlTestUtil.getNodes;
 
 public class MetadataTests extends MetadataBase {
 
@@ -665,5 +667,38 @@ public class MetadataTests extends MetadataBase {
 		assertFalse(entities.hasNext());
 	}
 
+	@Test
+	public void ecdsa_signed_metadata_advertises_algorithms() {
+		SimpleKey ecSigning = EC_TEST_KEY.getSimpleKey("ec");
+		SimpleKey ecVerifying = new SimpleKey("ec-verify", null, EC_TEST_KEY.getPublic(), null, KeyType.SIGNING);
+		ServiceProviderMetadata spm = helper.serviceProviderMetadata(
+			spBaseUrl,
+			ecSigning,
+			asList(ecSigning),
+			"saml/sp/",
+			"sp-alias",
+			AlgorithmMethod.ECDSA_SHA256,
+			DigestMethod.SHA256
+		);
+		spm.getServiceProvider()
+			.setSigningMethods(asList(AlgorithmMethod.ECDSA_SHA256, AlgorithmMethod.RSA_SHA256))
+			.setDigestMethods(asList(DigestMethod.SHA256));
+		String xml = config.toXml(spm);
 
+		assertNodeCount(xml, "//md:SPSSODescriptor/md:Extensions/alg:SigningMethod", 2);
+		assertNodeCount(xml, "//md:SPSSODescriptor/md:Extensions/alg:DigestMethod", 1);
+		assertNodeAttribute(
+			getNodes(xml, "//md:EntityDescriptor/ds:Signature/ds:SignedInfo/ds:SignatureMethod").iterator().next(),
+			"Algorithm",
+			equalTo(AlgorithmMethod.ECDSA_SHA256.toString())
+		);
+
+		ServiceProviderMetadata read = (ServiceProviderMetadata) config.fromXml(xml, asList(ecVerifying), null);
+		assertTrue(read.getSignature().isValidated());
+		assertThat(
+			read.getServiceProvider().getSigningMethods(),
+			equalTo(asList(AlgorithmMethod.ECDSA_SHA256, AlgorithmMethod.RSA_SHA256))
+		);
+		assertThat(read.getServiceProvider().getDigestMethods(), equalTo(asList(DigestMethod.SHA256)));
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Clock;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.SamlTransformer;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EncodingUtilsTests {
+
+	private static final Base64 COMMONS_CODEC = new Base64(0, new byte[]{'\n'});
+	private static final int[] SIZES = {0, 1, 2, 3, 100, 8 * 1024, 100 * 1024};
+
+	@Test
+	public void base64_matches_commons_codec() {
+		Random random = new Random(42);
+		for (int size : SIZES) {
+			byte[] data = new byte[size];
+			random.nextBytes(data);
+			String encoded = EncodingUtils.encode(data);
+			assertThat(encoded, equalTo(COMMONS_CODEC.encodeToString(data)));
+			assertThat(EncodingUtils.decode(encoded), equalTo(data));
+			assertThat(EncodingUtils.decode(new Base64(76).encodeToString(data)), equalTo(data));
+			assertThat(EncodingUtils.decode(Base64.encodeBase64URLSafeString(data)), equalTo(data));
+		}
+	}
+
+	@Test
+	public void deflate_round_trip_matches_stream_codec() throws Exception {
+		for (int size : SIZES) {
+			String xml = text(size);
+			byte[] deflated = EncodingUtils.deflate(xml);
+			assertThat(deflated, equalTo(streamDeflate(xml)));
+			assertThat(EncodingUtils.inflate(deflated), equalTo(xml));
+			assertThat(EncodingUtils.inflate(streamDeflate(xml)), equalTo(xml));
+		}
+	}
+
+	@Test
+	public void inbound_sizes_are_bounded() throws Exception {
+		//a megabyte of zeros deflates to about a kilobyte
+		String bomb = EncodingUtils.encode(streamDeflate(new String(new char[1024 * 1024]).replace('\0', '0')));
+		SamlTransformer transformer = new DefaultSamlTransformer(
+			new OpenSamlImplementation(Clock.systemUTC()).setMaxInflatedSize(64 * 1024).setMaxDecodedSize(32 * 1024)
+		);
+		assertThrows(SamlException.class, () -> transformer.samlDecodeToBytes(bomb, true));
+		String large = EncodingUtils.encode(new byte[48 * 1024]);
+		assertThrows(SamlException.class, () -> transformer.samlDecodeToBytes(large, false));
+
+		String xml = text(60 * 1024);
+		String encoded = EncodingUtils.encode(streamDeflate(xml));
+		assertThat(new String(transformer.samlDecodeToBytes(encoded, true), UTF_8), equalTo(xml));
+		assertThat(EncodingUtils.inflate(EncodingUtils.decode(bomb)).length(), equalTo(1024 * 1024));
+	}
+
+	private static String text(int size) {
+		StringBuilder result = new StringBuilder(size);
+		Random random = new Random(size);
+		while (result.length() < size) {
+			result.append("<saml:Attribute Name=\"").append(random.nextInt()).append("\"/>");
+		}
+		return result.substring(0, size);
+	}
+
+	private static byte[] streamDeflate(String s) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFLATED, true);
+		try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+			stream.write(s.getBytes(UTF_8));
+		} finally {
+			deflater.end();
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.time.Clock;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.helper.SamlTestObjectHelper;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.config.KeyRing;
+import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.credential.Credential;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class FileKeyStoreProviderTests {
+
+	private static final String PASSWORD = "changeit";
+
+	private Path file;
+	private OpenSamlImplementation implementation;
+	private FileKeyStoreProvider provider;
+
+	@BeforeEach
+	public void createKeyStore() throws Exception {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		file = Files.createTempFile("saml-keys", ".p12");
+		write(SP_RSA_KEY);
+		provider = new FileKeyStoreProvider(file, PASSWORD, null);
+		implementation.setSamlKeyStoreProvider(provider);
+	}
+
+	@AfterEach
+	public void deleteKeyStore() throws Exception {
+		provider.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void reload_swaps_key_material() throws Exception {
+		SimpleKey key = new SimpleKey("sp", null, null, null, KeyType.SIGNING);
+		Credential before = implementation.getCredential(key);
+		assertThat(before.getPrivateKey(), notNullValue());
+		assertThat(before.getPublicKey(), equalTo(publicKey(SP_RSA_KEY)));
+
+		write(IDP_RSA_KEY);
+		assertThat(provider.reload(), equalTo(true));
+		assertThat(provider.getReloads(), equalTo(1L));
+		assertThat(implementation.getCredential(key).getPublicKey(), equalTo(publicKey(IDP_RSA_KEY)));
+	}
+
+	@Test
+	public void invalid_file_keeps_current_keys() throws Exception {
+		SimpleKey key = new SimpleKey("sp", null, null, null, KeyType.SIGNING);
+		Files.write(file, "not a key store".getBytes(UTF_8));
+		assertThat(provider.reload(), equalTo(false));
+		assertThat(provider.getReloads(), equalTo(0L));
+		assertThat(implementation.getCredential(key).getPublicKey(), equalTo(publicKey(SP_RSA_KEY)));
+	}
+
+	@Test
+	public void watched_file_is_reloaded() throws Exception {
+		SimpleKey key = new SimpleKey("sp", null, null, null, KeyType.SIGNING);
+		assertThat(implementation.getCredential(key).getPublicKey(), equalTo(publicKey(SP_RSA_KEY)));
+
+		provider.start();
+		Path replacement = Files.createTempFile(file.getParent(), "saml-keys", ".tmp");
+		write(IDP_RSA_KEY, replacement);
+		Files.move(replacement, file, REPLACE_EXISTING, ATOMIC_MOVE);
+
+		long timeout = System.currentTimeMillis() + 30000;
+		while (provider.getReloads() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+		}
+		assertThat(provider.getReloads(), greaterThan(0L));
+		assertThat(implementation.getCredential(key).getPublicKey(), equalTo(publicKey(IDP_RSA_KEY)));
+	}
+
+	@Test
+	public void listener_follows_key_store_provider() throws Exception {
+		List<Runnable> listeners = new LinkedList<>();
+		SamlKeyStoreProvider other = new SamlKeyStoreProvider() {
+			@Override
+			public void addKeyChangeListener(Runnable listener) {
+				listeners.add(listener);
+			}
+
+			@Override
+			public void removeKeyChangeListener(Runnable listener) {
+				listeners.remove(listener);
+			}
+		};
+		implementation.setSamlKeyStoreProvider(other);
+		implementation.setSamlKeyStoreProvider(other);
+		assertThat(listeners.size(), equalTo(1));
+
+		SimpleKey key = new SimpleKey("sp", null, null, null, KeyType.SIGNING);
+		implementation.setSamlKeyStoreProvider(provider);
+		assertThat(listeners.size(), equalTo(0));
+		Credential credential = implementation.getCredential(key);
+		assertThat(implementation.getCredential(key), sameInstance(credential));
+		provider.reload();
+		assertThat(implementation.getCredential(key), not(sameInstance(credential)));
+	}
+
+	@Test
+	public void keys_with_certificate_use_pem() throws Exception {
+		Credential credential = implementation.getCredential(IDP_RSA_KEY.getPublicKey("remote"));
+		assertThat(credential.getPublicKey(), equalTo(publicKey(IDP_RSA_KEY)));
+	}
+
+	@Test
+	public void hosted_metadata_from_file_key() throws Exception {
+		SimpleKey key = new SimpleKey("sp", null, null, null, KeyType.SIGNING);
+		KeyRing ring = new KeyRing(1, key, emptyList());
+		ServiceProviderMetadata metadata = new SamlTestObjectHelper(Clock.systemUTC()).serviceProviderMetadata(
+			"http://sp.localhost",
+			key,
+			ring.getMetadataKeys(),
+			"saml/sp/",
+			"sp",
+			AlgorithmMethod.RSA_SHA256,
+			DigestMethod.SHA256
+		);
+		String xml = implementation.toXml(metadata);
+
+		ServiceProviderMetadata parsed = (ServiceProviderMetadata) implementation.resolve(xml, null, null);
+		List<SimpleKey> published = parsed.getServiceProvider().getKeys();
+		assertThat(published.size(), equalTo(2));
+		assertThat(published.get(1).getType(), equalTo(KeyType.ENCRYPTION));
+		for (SimpleKey k : published) {
+			assertThat(implementation.getCredential(k).getPublicKey(), equalTo(publicKey(SP_RSA_KEY)));
+		}
+		assertThat(
+			implementation.validateSignature(parsed, singletonList(published.get(0))).isValidated(),
+			equalTo(true)
+		);
+	}
+
+	private PublicKey publicKey(ExamplePemKey key) throws Exception {
+		return new SamlKeyStoreProvider() {}
+			.getKeyStore(key.getPublicKey("pem"))
+			.getCertificate("pem")
+			.getPublicKey();
+	}
+
+	private void write(ExamplePemKey key) throws Exception {
+		write(key, file);
+	}
+
+	private void write(ExamplePemKey key, Path target) throws Exception {
+		KeyStore pem = new SamlKeyStoreProvider() {}.getKeyStore(key.getSimpleKey("pem"));
+		KeyStore p12 = KeyStore.getInstance("PKCS12");
+		p12.load(null, PASSWORD.toCharArray());
+		p12.setKeyEntry(
+			"sp",
+			(PrivateKey) pem.getKey("pem", key.getPassphrase().toCharArray()),
+			PASSWORD.toCharArray(),
+			new Certificate[]{pem.getCertificate("pem")}
+		);
+		try (OutputStream out = Files.newOutputStream(target)) {
+			p12.store(out, PASSWORD.toCharArray());
+		}
+	}
+}
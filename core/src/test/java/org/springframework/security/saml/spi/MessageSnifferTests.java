@@ -0,0 +1,172 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.helper.SamlTestObjectHelper;
+import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.saml2.MessageHeader;
+import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+import org.springframework.security.saml.validation.ValidationException;
+import org.springframework.util.StreamUtils;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.saml.saml2.Namespace.NS_PROTOCOL;
+
+public class MessageSnifferTests {
+
+	private MessageSniffer sniffer = new MessageSniffer();
+
+	@Test
+	public void sniff_response() throws IOException {
+		MessageHeader header = sniffer.sniff(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"));
+		assertThat(header.getNamespace(), equalTo(NS_PROTOCOL));
+		assertThat(header.getType(), equalTo("Response"));
+		assertThat(header.getId(), equalTo("a09e79055-6968-46fa-8b6d-55a883580db7"));
+		assertThat(header.getInResponseTo(), equalTo("a77141543-a0b4-4720-9e64-b08814d2af86"));
+		assertThat(header.getDestination(), equalTo("https://sp.saml.spring.io/saml/sp/sso"));
+		assertThat(header.getIssuer(), equalTo("https://idp.saml.spring.io"));
+		assertThat(
+			header.getIssueInstant(),
+			equalTo(new DateTime(2018, 5, 7, 22, 14, 19, 785, DateTimeZone.UTC))
+		);
+	}
+
+	@Test
+	public void missing_issuer_and_doctype() {
+		MessageHeader header = sniffer.sniff(
+			("<samlp:LogoutResponse xmlns:samlp=\"" + NS_PROTOCOL + "\" ID=\"id\" IssueInstant=\"2018-05-07T22:14:19Z\">" +
+				"<samlp:Status/></samlp:LogoutResponse>").getBytes(UTF_8)
+		);
+		assertThat(header.getType(), equalTo("LogoutResponse"));
+		assertNull(header.getIssuer());
+		assertThrows(
+			SamlException.class,
+			() -> sniffer.sniff("<!DOCTYPE r [<!ENTITY e \"e\">]><r>&e;</r>".getBytes(UTF_8))
+		);
+	}
+
+	@Test
+	public void reject_stale_and_replayed_messages() throws IOException {
+		DefaultValidator validator = new DefaultValidator(null).setRejectReplayedMessages(true);
+		MessageHeader stale = sniffer.sniff(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"));
+		assertThrows(ValidationException.class, () -> validator.validate(stale, null));
+
+		MessageHeader request = new MessageHeader()
+			.setNamespace(NS_PROTOCOL)
+			.setType("AuthnRequest")
+			.setId("ARQ1")
+			.setIssuer("https://sp.saml.spring.io")
+			.setIssueInstant(new DateTime(Clock.systemUTC().millis()));
+		validator.validate(request, null);
+		//only accepted messages are remembered
+		validator.validate(request, null);
+		Saml2Object accepted = new AuthenticationRequest()
+			.setId("ARQ1")
+			.setIssuer(new Issuer().setValue("https://sp.saml.spring.io"));
+		validator.validate(accepted, null);
+		assertThrows(ValidationException.class, () -> validator.validate(accepted, null));
+		assertThrows(ValidationException.class, () -> validator.validate(request, null));
+		validator.validate(request.setIssuer("https://other.saml.spring.io"), null);
+	}
+
+	@Test
+	public void replay_cache_is_bounded() {
+		DefaultValidator validator = new DefaultValidator(null)
+			.setRejectReplayedMessages(true)
+			.setReplayCacheSize(2);
+		MessageHeader request = new MessageHeader()
+			.setNamespace(NS_PROTOCOL)
+			.setType("AuthnRequest")
+			.setIssuer("https://sp.saml.spring.io")
+			.setIssueInstant(new DateTime(Clock.systemUTC().millis()));
+		for (String id : asList("ARQ1", "ARQ2")) {
+			Saml2Object accepted =
+				new AuthenticationRequest().setId(id).setIssuer(new Issuer().setValue("https://sp.saml.spring.io"));
+			validator.validate(accepted, null);
+		}
+		//unexpired IDs are never dropped to make room for new ones
+		Saml2Object overflow =
+			new AuthenticationRequest().setId("ARQ3").setIssuer(new Issuer().setValue("https://sp.saml.spring.io"));
+		assertThrows(ValidationException.class, () -> validator.validate(overflow, null));
+		assertThrows(ValidationException.class, () -> validator.validate(request.setId("ARQ1"), null));
+		assertThrows(ValidationException.class, () -> validator.validate(request.setId("ARQ2"), null));
+		validator.validate(request.setId("ARQ3"), null);
+	}
+
+	@Test
+	public void reject_stale_and_misdirected_requests() {
+		DefaultValidator validator = new DefaultValidator(null);
+		SamlTestObjectHelper helper = new SamlTestObjectHelper(Clock.systemUTC());
+		IdentityProviderMetadata metadata = helper.identityProviderMetadata(
+			"https://idp.saml.spring.io",
+			null,
+			emptyList(),
+			"saml/idp/",
+			"alias",
+			null,
+			null
+		);
+		HostedProviderService provider = mock(HostedProviderService.class);
+		when(provider.getMetadata()).thenReturn(metadata);
+		MessageHeader request = new MessageHeader()
+			.setNamespace(NS_PROTOCOL)
+			.setType("AuthnRequest")
+			.setId("ARQ1")
+			.setIssuer("https://sp.saml.spring.io")
+			.setDestination(metadata.getIdentityProvider().getSingleSignOnService().get(0).getLocation())
+			.setIssueInstant(new DateTime(Clock.systemUTC().millis()));
+		validator.validate(request, provider);
+
+		request.setIssueInstant(new DateTime(2018, 5, 7, 22, 14, 19, 785, DateTimeZone.UTC));
+		assertThrows(ValidationException.class, () -> validator.validate(request, provider));
+
+		request.setIssueInstant(new DateTime(Clock.systemUTC().millis()))
+			.setDestination("https://other.saml.spring.io/saml/idp/SSO");
+		assertThrows(ValidationException.class, () -> validator.validate(request, provider));
+
+		request.setType("LogoutRequest")
+			.setDestination(metadata.getIdentityProvider().getSingleLogoutService().get(0).getLocation());
+		validator.validate(request, provider);
+	}
+
+	private byte[] getFileBytes(String path) throws IOException {
+		try (InputStream in = getClass().getResourceAsStream(path)) {
+			return StreamUtils.copyToByteArray(in);
+		}
+	}
+}
@@ -23,6 +23,7 @@ import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import static org.springframework.security.saml.spi.ExamplePemKey.EC_TEST_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.RSA_TEST_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
@@ -47,4 +48,9 @@ public class SamlKeyStoreProviderTests {
 	public void test_sp_1024() {
 		new SamlKeyStoreProvider(){}.getKeyStore(SP_RSA_KEY.getSimpleKey("alias"));
 	}
+
+	@Test
+	public void test_ec_pkcs8_encrypted() {
+		new SamlKeyStoreProvider(){}.getKeyStore(EC_TEST_KEY.getSimpleKey("alias"));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+import javax.xml.namespace.QName;
+
+import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.Conditions;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmation;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmationData;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmationMethod;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSAny;
+import org.opensaml.saml.saml2.core.AttributeValue;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AttributeValueConvertersTests {
+
+	private static final QName XS_LONG = new QName("http://www.w3.org/2001/XMLSchema", "long", "xsd");
+
+	private OpenSamlImplementation implementation;
+
+	@BeforeEach
+	public void setUp() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+	}
+
+	@Test
+	public void defaults_dispatch_by_class_and_type() {
+		AttributeValueConverters converters = implementation.getAttributeValueConverters();
+		assertThat(converters.forJavaType(String.class).getJavaType(), equalTo(String.class));
+		assertThat(converters.forJavaType(Integer.class).getJavaType(), equalTo(Integer.class));
+		assertNull(converters.forJavaType(Double.class));
+		assertFalse(converters.isCustom(String.class));
+
+		Assertion parsed = roundTrip(
+			new Attribute().setName("values").addValues("text", true, 42, 3.5d)
+		);
+		assertThat(
+			parsed.getFirstAttribute("values").getValues(),
+			equalTo(asList("text", true, 42, "3.5"))
+		);
+	}
+
+	@Test
+	public void custom_converter() {
+		AttributeValueConverters converters = implementation.getAttributeValueConverters();
+		AttributeValueConverter<Long> longs = new LongConverter();
+		converters.register(longs);
+		assertThat(converters.forJavaType(Long.class), sameInstance(longs));
+		assertThat(converters.forSchemaType(XS_LONG), sameInstance(longs));
+		assertTrue(converters.isCustom(Long.class));
+
+		implementation.setTemplateSerialization(true);
+		Assertion parsed = roundTrip(new Attribute().setName("values").addValues(1L << 40, "text"));
+		assertThat(parsed.getFirstAttribute("values").getValues(), equalTo(asList(1L << 40, "text")));
+		assertThat(implementation.getTemplateSerializer().getUnsupported(), equalTo(1L));
+	}
+
+	private Assertion roundTrip(Attribute attribute) {
+		Assertion assertion = new Assertion()
+			.setId("A1")
+			.setIssuer("http://idp.localhost")
+			.setSubject(
+				new Subject()
+					.setPrincipal(new NameIdPrincipal().setValue("user").setFormat(NameId.EMAIL))
+					.addConfirmation(
+						new SubjectConfirmation()
+							.setMethod(SubjectConfirmationMethod.BEARER)
+							.setConfirmationData(new SubjectConfirmationData().setRecipient("http://sp.localhost"))
+					)
+			)
+			.setConditions(new Conditions())
+			.addAttribute(attribute);
+		String xml = implementation.toXml(assertion);
+		assertThat(xml, containsString("AttributeValue"));
+		return (Assertion) implementation.resolve(xml, null, null);
+	}
+
+	private static class LongConverter implements AttributeValueConverter<Long> {
+		@Override
+		public Class<Long> getJavaType() {
+			return Long.class;
+		}
+
+		@Override
+		public QName getSchemaType() {
+			return XS_LONG;
+		}
+
+		@Override
+		public XMLObject toXmlObject(Long value) {
+			XSAny result = (XSAny) XMLObjectProviderRegistrySupport.getBuilderFactory()
+				.getBuilder(XSAny.TYPE_NAME)
+				.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XS_LONG);
+			result.setTextContent(value.toString());
+			return result;
+		}
+
+		@Override
+		public Object toJavaValue(XMLObject value) {
+			return Long.valueOf(toText(value));
+		}
+
+		@Override
+		public String toText(XMLObject value) {
+			return ((XSAny) value).getTextContent();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class CredentialCacheTests {
+
+	private OpenSamlImplementation implementation;
+	private CredentialCache cache;
+
+	@BeforeEach
+	public void setUp() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		cache = implementation.getCredentialCache();
+		cache.clear();
+	}
+
+	@Test
+	public void same_key_resolves_once() {
+		Credential first = implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		Credential second = implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		assertThat(first, notNullValue());
+		assertThat(second, sameInstance(first));
+		assertThat(cache.getMisses(), equalTo(1L));
+		assertThat(cache.getHits(), equalTo(1L));
+		assertThat(cache.getHitRate(), equalTo(0.5d));
+	}
+
+	@Test
+	public void rotated_key_with_same_name_is_not_served_from_cache() {
+		Credential original = implementation.getCredential(SP_RSA_KEY.getSimpleKey("signing"));
+		Credential rotated = implementation.getCredential(IDP_RSA_KEY.getSimpleKey("signing"));
+		assertThat(rotated, not(sameInstance(original)));
+		assertThat(cache.getMisses(), equalTo(2L));
+		assertThat(cache.size(), equalTo(2));
+	}
+
+	@Test
+	public void invalidate_by_name() {
+		SimpleKey key = SP_RSA_KEY.getSimpleKey("sp");
+		Credential original = implementation.getCredential(key);
+		implementation.getCredential(IDP_RSA_KEY.getSimpleKey("idp"));
+		cache.invalidate("sp");
+		assertThat(cache.size(), equalTo(1));
+		assertThat(implementation.getCredential(key), not(sameInstance(original)));
+	}
+
+	@Test
+	public void cache_is_bounded() {
+		implementation.setCredentialCache(new CredentialCache(1));
+		CredentialCache bounded = implementation.getCredentialCache();
+		implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		implementation.getCredential(IDP_RSA_KEY.getSimpleKey("idp"));
+		assertThat(bounded.size(), equalTo(1));
+		assertThat(bounded.getEvictions(), equalTo(1L));
+	}
+
+	@Test
+	public void signing_parameters_are_evicted_with_their_credential() {
+		implementation.setCredentialCache(new CredentialCache(1));
+		CredentialCache bounded = implementation.getCredentialCache();
+		SigningEngine engine = implementation.getSigningEngine();
+		Credential sp = implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		SignatureSigningParameters parameters = engine.getSigningParameters(
+			bounded, sp, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256, implementation::getKeyInfoGenerator
+		);
+		assertThat(
+			engine.getSigningParameters(
+				bounded, sp, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256, implementation::getKeyInfoGenerator
+			),
+			sameInstance(parameters)
+		);
+		implementation.getCredential(IDP_RSA_KEY.getSimpleKey("idp"));
+		assertThat(
+			engine.getSigningParameters(
+				bounded, sp, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256, implementation::getKeyInfoGenerator
+			),
+			not(sameInstance(parameters))
+		);
+	}
+
+	@Test
+	public void decrypters_are_evicted_with_their_credential() {
+		implementation.setCredentialCache(new CredentialCache(1));
+		SimpleKey sp = SP_RSA_KEY.getSimpleKey("sp");
+		Decrypter decrypter = implementation.getDecrypter(sp);
+		assertThat(implementation.getDecrypter(sp), sameInstance(decrypter));
+		implementation.getCredential(IDP_RSA_KEY.getSimpleKey("idp"));
+		assertThat(implementation.getDecrypter(sp), not(sameInstance(decrypter)));
+	}
+}
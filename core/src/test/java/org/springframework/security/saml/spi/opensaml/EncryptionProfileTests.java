@@ -0,0 +1,129 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.Response;
+import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
+import org.springframework.security.saml.saml2.encrypt.KeyEncryptionMethod;
+import org.springframework.security.saml.saml2.metadata.MetadataBase;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class EncryptionProfileTests extends MetadataBase {
+
+	private OpenSamlImplementation implementation;
+	private SimpleKey encryptionKey;
+
+	@BeforeEach
+	public void createImplementation() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		encryptionKey = new SimpleKey("sp-encryption", null, SP_RSA_KEY.getPublic(), null, KeyType.ENCRYPTION);
+	}
+
+	@Test
+	public void profile_is_shared_per_recipient_and_algorithms() {
+		EncryptionProfile profile = implementation.getEncryptionProfile(
+			encryptionKey,
+			KeyEncryptionMethod.RSA_OAEP_MGF1P,
+			DataEncryptionMethod.AES256_CBC
+		);
+		SimpleKey sameCertificate =
+			new SimpleKey("sp-encryption", null, SP_RSA_KEY.getPublic(), null, KeyType.ENCRYPTION);
+		assertThat(
+			implementation.getEncryptionProfile(
+				sameCertificate,
+				KeyEncryptionMethod.RSA_OAEP_MGF1P,
+				DataEncryptionMethod.AES256_CBC
+			),
+			sameInstance(profile)
+		);
+		assertThat(
+			implementation.getEncryptionProfile(
+				encryptionKey,
+				KeyEncryptionMethod.RSA_OAEP_MGF1P,
+				DataEncryptionMethod.AES128_GCM
+			),
+			not(sameInstance(profile))
+		);
+		assertThat(
+			EncryptionProfile.generateSessionKey(DataEncryptionMethod.AES256_CBC).getEncoded(),
+			not(equalTo(EncryptionProfile.generateSessionKey(DataEncryptionMethod.AES256_CBC).getEncoded()))
+		);
+	}
+
+	@Test
+	public void profile_is_evicted_with_the_recipient_credential() {
+		implementation.setCredentialCache(new CredentialCache(1));
+		EncryptionProfile profile = implementation.getEncryptionProfile(
+			encryptionKey,
+			KeyEncryptionMethod.RSA_OAEP_MGF1P,
+			DataEncryptionMethod.AES256_CBC
+		);
+		implementation.getCredential(
+			new SimpleKey("idp-encryption", null, IDP_RSA_KEY.getPublic(), null, KeyType.ENCRYPTION)
+		);
+		assertThat(
+			implementation.getEncryptionProfile(
+				encryptionKey,
+				KeyEncryptionMethod.RSA_OAEP_MGF1P,
+				DataEncryptionMethod.AES256_CBC
+			),
+			not(sameInstance(profile))
+		);
+	}
+
+	@Test
+	public void encrypted_key_carries_certificate_hint() {
+		Assertion assertion = helper.assertion(serviceProviderMetadata, identityProviderMetadata, null, "test-user", NameId.EMAIL)
+			.setSigningKey(null, null, null)
+			.setEncryptionKey(encryptionKey, KeyEncryptionMethod.RSA_OAEP_MGF1P, DataEncryptionMethod.AES256_CBC);
+		Response response = helper.response(null, assertion, serviceProviderMetadata, identityProviderMetadata)
+			.setSigningKey(null, null, null);
+
+		String xml = implementation.toXml(response);
+		assertThat(xml, containsString("xenc:EncryptedKey"));
+
+		Response resolved = (Response) implementation.resolve(
+			xml,
+			null,
+			asList(IDP_RSA_KEY.getSimpleKey("other"), SP_RSA_KEY.getSimpleKey("sp"))
+		);
+		assertThat(resolved.getAssertions().size(), equalTo(1));
+		assertThat(
+			resolved.getAssertions().get(0).getSubject().getPrincipal().getValue(),
+			equalTo("test-user")
+		);
+		assertThat(implementation.getKeyThumbprintIndex().getHintedLookups(), equalTo(1L));
+		assertThat(implementation.getKeyThumbprintIndex().getFallbacks(), equalTo(0L));
+	}
+}
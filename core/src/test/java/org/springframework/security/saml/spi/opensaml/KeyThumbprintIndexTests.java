@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
+import org.springframework.security.saml.saml2.metadata.MetadataBase;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.saml2.signature.SignatureException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.RSA_TEST_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class KeyThumbprintIndexTests extends MetadataBase {
+
+	private OpenSamlImplementation implementation;
+	private KeyThumbprintIndex index;
+	private String signed;
+
+	@BeforeEach
+	public void signRequest() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		index = implementation.getKeyThumbprintIndex();
+		AuthenticationRequest request = helper.authenticationRequest(serviceProviderMetadata, identityProviderMetadata);
+		request.setSigningKey(spSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		signed = implementation.toXml(request);
+	}
+
+	@Test
+	public void matching_certificate_selects_single_key() {
+		SimpleKey other1 = new SimpleKey("rollover-1", null, IDP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		SimpleKey other2 = new SimpleKey("rollover-2", null, RSA_TEST_KEY.getPublic(), null, KeyType.SIGNING);
+		SimpleKey match = new SimpleKey("rollover-3", null, SP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		AuthenticationRequest request =
+			(AuthenticationRequest) implementation.resolve(signed, asList(other1, other2, match), null);
+		assertThat(request.getSignature().isValidated(), equalTo(true));
+		assertThat(request.getSignature().getValidatingKey().getName(), equalTo("rollover-3"));
+		assertThat(index.getHintedLookups(), equalTo(1L));
+		assertThat(index.getFallbacks(), equalTo(0L));
+	}
+
+	@Test
+	public void unmatched_certificate_falls_back_to_every_key() {
+		SimpleKey other = new SimpleKey("other", null, IDP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		assertThrows(SignatureException.class, () -> implementation.resolve(signed, asList(other), null));
+		assertThat(index.getUnmatchedHints(), equalTo(1L));
+		assertThat(index.getFallbacks(), equalTo(1L));
+
+		//a sender may publish a stale or intermediate certificate in the key info
+		String stale = signed.replaceAll(
+			"(?s)<ds:X509Certificate>.*</ds:X509Certificate>",
+			"<ds:X509Certificate>" + base64(IDP_RSA_KEY.getPublic()) + "</ds:X509Certificate>"
+		);
+		SimpleKey match = new SimpleKey("match", null, SP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		AuthenticationRequest request =
+			(AuthenticationRequest) implementation.resolve(stale, asList(match), null);
+		assertThat(request.getSignature().getValidatingKey().getName(), equalTo("match"));
+		assertThat(index.getFallbacks(), equalTo(2L));
+	}
+
+	@Test
+	public void no_key_info_falls_back_to_iteration() {
+		String stripped = signed.replaceAll("(?s)<ds:KeyInfo>.*</ds:KeyInfo>", "");
+		SimpleKey other = new SimpleKey("other", null, IDP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		SimpleKey match = new SimpleKey("match", null, SP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		AuthenticationRequest request =
+			(AuthenticationRequest) implementation.resolve(stripped, asList(other, match), null);
+		assertThat(request.getSignature().getValidatingKey().getName(), equalTo("match"));
+		assertThat(index.getFallbacks(), equalTo(1L));
+	}
+
+	@Test
+	public void key_name_only_orders_candidate_keys() {
+		String named = signed.replaceAll(
+			"(?s)<ds:KeyInfo>.*</ds:KeyInfo>",
+			"<ds:KeyInfo><ds:KeyName>other</ds:KeyName></ds:KeyInfo>"
+		);
+		SimpleKey other = new SimpleKey("other", null, IDP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		SimpleKey match = new SimpleKey("match", null, SP_RSA_KEY.getPublic(), null, KeyType.SIGNING);
+		AuthenticationRequest request =
+			(AuthenticationRequest) implementation.resolve(named, asList(match, other), null);
+		assertThat(request.getSignature().isValidated(), equalTo(true));
+		assertThat(request.getSignature().getValidatingKey().getName(), equalTo("match"));
+		assertThat(index.getHintedLookups(), equalTo(1L));
+	}
+
+	private static String base64(String pem) {
+		return pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+	}
+}
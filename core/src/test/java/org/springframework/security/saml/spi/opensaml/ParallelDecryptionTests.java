@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.Response;
+import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
+import org.springframework.security.saml.saml2.encrypt.KeyEncryptionMethod;
+import org.springframework.security.saml.saml2.metadata.MetadataBase;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class ParallelDecryptionTests extends MetadataBase {
+
+	private OpenSamlImplementation sequential;
+	private OpenSamlImplementation parallel;
+	private ExecutorService executor;
+	private String xml;
+
+	@BeforeEach
+	public void createImplementations() {
+		executor = Executors.newFixedThreadPool(3);
+		sequential = new OpenSamlImplementation(Clock.systemUTC()).init();
+		parallel = new OpenSamlImplementation(Clock.systemUTC())
+			.setDecryptionExecutor(executor)
+			.setParallelDecryptionThreshold(2)
+			.init();
+
+		SimpleKey encryptionKey =
+			new SimpleKey("sp-encryption", null, SP_RSA_KEY.getPublic(), null, KeyType.ENCRYPTION);
+		List<Assertion> assertions = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			assertions.add(
+				helper.assertion(serviceProviderMetadata, identityProviderMetadata, null, "user-" + i, NameId.EMAIL)
+					.setSigningKey(null, null, null)
+					.setEncryptionKey(encryptionKey, KeyEncryptionMethod.RSA_OAEP_MGF1P, DataEncryptionMethod.AES128_GCM)
+			);
+		}
+		Response response = helper.response(null, assertions.get(0), serviceProviderMetadata, identityProviderMetadata)
+			.setSigningKey(null, null, null)
+			.setAssertions(assertions);
+		xml = sequential.toXml(response);
+	}
+
+	@AfterEach
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void assertions_keep_document_order() {
+		List<SimpleKey> keys = asList(IDP_RSA_KEY.getSimpleKey("other"), SP_RSA_KEY.getSimpleKey("sp"));
+		List<String> expected = principals((Response) sequential.resolve(xml, null, keys));
+		assertThat(expected, equalTo(asList("user-0", "user-1", "user-2", "user-3", "user-4", "user-5")));
+		for (int i = 0; i < 5; i++) {
+			assertThat(principals((Response) parallel.resolve(xml, null, keys)), equalTo(expected));
+		}
+	}
+
+	@Test
+	public void failures_match_sequential_decryption() {
+		List<SimpleKey> keys = asList(IDP_RSA_KEY.getSimpleKey("other"));
+		SamlKeyException expected = assertThrows(SamlKeyException.class, () -> sequential.resolve(xml, null, keys));
+		SamlKeyException actual = assertThrows(SamlKeyException.class, () -> parallel.resolve(xml, null, keys));
+		assertThat(actual.getMessage(), equalTo(expected.getMessage()));
+	}
+
+	@Test
+	public void missing_decryption_keys_fail() {
+		assertThrows(SamlKeyException.class, () -> sequential.resolve(xml, null, emptyList()));
+		assertThrows(SamlKeyException.class, () -> parallel.resolve(xml, null, emptyList()));
+	}
+
+	private static List<String> principals(Response response) {
+		return response.getAssertions()
+			.stream()
+			.map(a -> a.getSubject().getPrincipal().getValue())
+			.collect(toList());
+	}
+}
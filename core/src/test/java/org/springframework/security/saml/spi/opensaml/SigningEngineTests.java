@@ -0,0 +1,86 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.spi.opensaml;
+
+import java.security.Signature;
+import java.time.Clock;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.credential.Credential;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class SigningEngineTests {
+
+	private SigningEngine engine;
+	private Credential credential;
+
+	@BeforeEach
+	public void setUp() {
+		OpenSamlImplementation implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		engine = implementation.getSigningEngine();
+		credential = implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+	}
+
+	@Test
+	public void engines_are_reused_within_a_thread() throws Exception {
+		Signature first = engine.getEngine(AlgorithmMethod.RSA_SHA256);
+		assertThat(engine.getEngine(AlgorithmMethod.RSA_SHA256), sameInstance(first));
+		assertThat(engine.getEngine(AlgorithmMethod.RSA_SHA512), not(sameInstance(first)));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Signature other = executor.submit(() -> engine.getEngine(AlgorithmMethod.RSA_SHA256)).get();
+			assertThat(other, not(sameInstance(first)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void concurrent_signatures_do_not_share_engines() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new LinkedList<>();
+			for (int i = 0; i < 64; i++) {
+				byte[] data = ("message " + i).getBytes(UTF_8);
+				results.add(executor.submit(() -> {
+					byte[] signature = engine.sign(credential, AlgorithmMethod.RSA_SHA256, data);
+					return engine.verify(credential, AlgorithmMethod.RSA_SHA256, data, signature);
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertThat(result.get(), equalTo(true));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.ImplementationHolder;
+import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.LogoutRequest;
+import org.springframework.security.saml.saml2.authentication.NameIdPolicy;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.metadata.Binding;
+import org.springframework.security.saml.saml2.metadata.Endpoint;
+import org.springframework.security.saml.saml2.metadata.NameId;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.saml2.signature.SignatureException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class StreamingRequestParserTests {
+
+	private static final String PROTOCOL = "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" " +
+		"xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\"";
+
+	private OpenSamlImplementation implementation;
+	private StreamingRequestParser parser;
+
+	@BeforeEach
+	public void setUp() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		parser = implementation.getStreamingRequestParser();
+	}
+
+	@Test
+	public void requests_match_the_opensaml_path() {
+		List<String> messages = Arrays.asList(
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06.785Z\" Destination=\"http://idp.localhost/sso\" " +
+				"ForceAuthn=\"1\" IsPassive=\"false\" " +
+				"ProtocolBinding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" " +
+				"AssertionConsumerServiceURL=\"http://sp.localhost/acs\">\n" +
+				"  <saml:Issuer Format=\"urn:oasis:names:tc:SAML:2.0:nameid-format:entity\">\n" +
+				"    http://sp.localhost\n  </saml:Issuer>\n" +
+				"  <samlp:NameIDPolicy Format=\"urn:oasis:names:tc:SAML:1.1:nameid-format:emailAddress\" " +
+				"AllowCreate=\"true\"/>\n" +
+				"  <samlp:RequestedAuthnContext Comparison=\"minimum\">\n" +
+				"    <saml:AuthnContextClassRef>urn:oasis:names:tc:SAML:2.0:ac:classes:Password" +
+				"</saml:AuthnContextClassRef>\n" +
+				"    <saml:AuthnContextClassRef>urn:oasis:names:tc:SAML:2.0:ac:classes:X509" +
+				"</saml:AuthnContextClassRef>\n" +
+				"  </samlp:RequestedAuthnContext>\n" +
+				"</samlp:AuthnRequest>",
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+				"<samlp:AuthnRequest " + PROTOCOL + " ID=\" a2 \" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T22:07:06.785+02:00\" ForceAuthn=\"0\" IsPassive=\" 1 \" " +
+				"AssertionConsumerServiceIndex=\"3\" AttributeConsumingServiceIndex=\"1\" ProviderName=\"sp\">" +
+				"<saml:Issuer>http://sp.localhost</saml:Issuer>" +
+				"<samlp:NameIDPolicy SPNameQualifier=\"http://sp.localhost\"/>" +
+				"<samlp:RequestedAuthnContext/>" +
+				"</samlp:AuthnRequest>",
+			"<AuthnRequest xmlns=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"a3\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"/>",
+			"<samlp:LogoutRequest " + PROTOCOL + " ID=\"l1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06.785Z\" NotOnOrAfter=\"2018-05-02T20:12:06.785Z\" " +
+				"Destination=\"http://idp.localhost/logout\" Consent=\"urn:oasis:names:tc:SAML:2.0:consent:obtained\" " +
+				"Reason=\"urn:oasis:names:tc:SAML:2.0:logout:user\">" +
+				"<saml:Issuer>http://sp.localhost</saml:Issuer>" +
+				"<saml:NameID Format=\"urn:oasis:names:tc:SAML:2.0:nameid-format:persistent\" " +
+				"NameQualifier=\"http://idp.localhost\" SPNameQualifier=\"http://sp.localhost\" " +
+				"SPProvidedID=\"alias\"> user@idp.localhost </saml:NameID>" +
+				"<samlp:SessionIndex>s1</samlp:SessionIndex>" +
+				"<samlp:SessionIndex>s2</samlp:SessionIndex>" +
+				"</samlp:LogoutRequest>",
+			"<samlp:LogoutRequest " + PROTOCOL + " ID=\"l2\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06.785Z\">" +
+				"<saml:NameID><![CDATA[user]]></saml:NameID>" +
+				"</samlp:LogoutRequest>"
+		);
+		for (String xml : messages) {
+			Saml2Object streamed = parser.parse(xml.getBytes(UTF_8));
+			assertThat(xml, streamed, notNullValue());
+			Saml2Object parsed = implementation.resolve(xml, null, null);
+			assertThat(describe(streamed), equalTo(describe(parsed)));
+		}
+		assertThat(parser.getParsed(), equalTo((long) messages.size()));
+		assertThat(parser.getDeclined(), equalTo(0L));
+	}
+
+	@Test
+	public void unsupported_content_is_declined() {
+		List<String> messages = Arrays.asList(
+			"<samlp:Response " + PROTOCOL + " ID=\"r1\" Version=\"2.0\" IssueInstant=\"2018-05-02T20:07:06Z\"/>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"><samlp:Extensions/></samlp:AuthnRequest>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"><!-- comment --></samlp:AuthnRequest>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"1.1\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"/>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" foo=\"bar\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"/>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"><samlp:RequestedAuthnContext Comparison=\"any\"/>" +
+				"</samlp:AuthnRequest>",
+			"<samlp:LogoutRequest " + PROTOCOL + " ID=\"l1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\"><saml:Issuer>sp</saml:Issuer></samlp:LogoutRequest>",
+			"<samlp:AuthnRequest " + PROTOCOL + " ID=\"a1\" Version=\"2.0\" " +
+				"IssueInstant=\"2018-05-02T20:07:06Z\">"
+		);
+		for (String xml : messages) {
+			assertThat(xml, parser.parse(xml.getBytes(UTF_8)), nullValue());
+		}
+		assertThat(parser.getDeclined(), equalTo((long) messages.size()));
+	}
+
+	@Test
+	public void signed_requests_are_verified_by_opensaml() {
+		implementation.setStreamingRequestParsing(true);
+		SimpleKey key = SP_RSA_KEY.getSimpleKey("sp");
+		AuthenticationRequest request = new AuthenticationRequest()
+			.setId("AR1")
+			.setIssuer(new Issuer().setValue("http://sp.localhost"))
+			.setBinding(Binding.POST)
+			.setDestination(new Endpoint().setLocation("http://idp.localhost/sso").setBinding(Binding.REDIRECT))
+			.setAssertionConsumerService(
+				new Endpoint().setLocation("http://sp.localhost/acs").setBinding(Binding.POST)
+			)
+			.setNameIdPolicy(new NameIdPolicy().setFormat(NameId.EMAIL).setAllowCreate(true));
+		String unsigned = implementation.toXml(request);
+		String signed = implementation.toXml(
+			request.setSigningKey(key, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256)
+		);
+
+		Saml2Object streamed = implementation.resolve(unsigned, null, null);
+		assertThat(streamed.getImplementation(), nullValue());
+		assertTrue(((ImplementationHolder) streamed).isStreamed());
+		assertThat(streamed.getOriginalXML(), equalTo(unsigned));
+		assertThat(implementation.verifySignatures(streamed, singletonList(key)), sameInstance(streamed));
+		assertThat(implementation.validateSignature(streamed, singletonList(key)), nullValue());
+
+		AuthenticationRequest verified = (AuthenticationRequest) implementation.resolve(signed, asList(key), null);
+		assertThat(verified.getImplementation(), notNullValue());
+		assertTrue(verified.getSignature().isValidated());
+		assertThat(parser.getParsed(), equalTo(1L));
+		assertThat(parser.getDeclined(), equalTo(1L));
+
+		assertThrows(
+			SignatureException.class,
+			() -> implementation.resolve(signed.replace("AR1", "AR2"), singletonList(key), null)
+		);
+	}
+
+	private static String describe(Saml2Object object) {
+		if (object instanceof AuthenticationRequest) {
+			AuthenticationRequest r = (AuthenticationRequest) object;
+			NameIdPolicy policy = r.getNameIdPolicy();
+			return Arrays.asList(
+				r.getId(), r.getVersion(), r.getIssueInstant(), describe(r.getDestination()),
+				describe(r.getAssertionConsumerService()), r.getBinding(), describe(r.getIssuer()),
+				r.isForceAuth(), r.isPassive(), r.getRequestedAuthenticationContext(),
+				r.getAuthenticationContextClassReference(),
+				policy == null ? null :
+					Arrays.asList(policy.getFormat(), policy.getSpNameQualifier(), policy.getAllowCreate()),
+				r.getSignature()
+			).toString();
+		}
+		LogoutRequest r = (LogoutRequest) object;
+		NameIdPrincipal n = r.getNameId();
+		return Arrays.asList(
+			r.getId(), r.getVersion(), r.getIssueInstant(), r.getNotOnOrAfter(), r.getConsent(), r.getReason(),
+			describe(r.getDestination()), describe(r.getIssuer()),
+			Arrays.asList(n.getValue(), n.getFormat(), n.getNameQualifier(), n.getSpNameQualifier(),
+				n.getSpProvidedId()),
+			r.getSignature()
+		).toString();
+	}
+
+	private static String describe(Endpoint e) {
+		return e == null ? null :
+			Arrays.asList(e.getLocation(), e.getBinding(), e.getIndex(), e.isDefault()).toString();
+	}
+
+	private static String describe(Issuer i) {
+		return i == null ? null :
+			Arrays.asList(i.getValue(), i.getFormat(), i.getNameQualifier(), i.getSpNameQualifier()).toString();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.parsers.DocumentBuilder;
+
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StripedParserPoolTests {
+
+	private static final byte[] XML = "<root xmlns=\"urn:test\"><child/></root>".getBytes(UTF_8);
+
+	@Test
+	public void striped_pool_reuses_builders() throws Exception {
+		StripedParserPool pool = new StripedParserPool().setStripes(4).setMaxPoolSize(8).initialize();
+		for (int i = 0; i < 10; i++) {
+			Document document = pool.parse(new ByteArrayInputStream(XML));
+			assertThat(document.getDocumentElement().getLocalName(), equalTo("root"));
+		}
+		assertThat(pool.getBorrows(), equalTo(10L));
+		assertThat(pool.getMisses(), equalTo(1L));
+		assertThat(pool.getCreatedBuilders(), equalTo(1L));
+	}
+
+	@Test
+	public void full_stripe_discards_builders() throws Exception {
+		StripedParserPool pool = new StripedParserPool().setStripes(1).setMaxPoolSize(1).initialize();
+		DocumentBuilder first = pool.getBuilder();
+		DocumentBuilder second = pool.getBuilder();
+		pool.returnBuilder(first);
+		pool.returnBuilder(second);
+		assertThat(pool.getMisses(), equalTo(2L));
+		assertThat(pool.getDiscardedBuilders(), equalTo(1L));
+		assertThat(pool.getBuilder(), sameInstance(first));
+	}
+
+	@Test
+	public void thread_local_builders() throws Exception {
+		StripedParserPool pool = new StripedParserPool().setThreadLocal(true).initialize();
+		DocumentBuilder first = pool.getBuilder();
+		pool.returnBuilder(first);
+		assertThat(pool.getBuilder(), sameInstance(first));
+		assertThat(pool.getCreatedBuilders(), equalTo(1L));
+	}
+
+	@Test
+	public void doctype_is_rejected() {
+		StripedParserPool pool = new StripedParserPool().initialize();
+		byte[] xml = "<!DOCTYPE root [<!ENTITY e \"x\">]><root>&e;</root>".getBytes(UTF_8);
+		assertThrows(XMLParserException.class, () -> pool.parse(new ByteArrayInputStream(xml)));
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.time.Clock;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.attribute.AttributeNameFormat;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AudienceRestriction;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.Conditions;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.OneTimeUse;
+import org.springframework.security.saml.saml2.authentication.Response;
+import org.springframework.security.saml.saml2.authentication.Status;
+import org.springframework.security.saml.saml2.authentication.StatusCode;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmation;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmationData;
+import org.springframework.security.saml.saml2.authentication.SubjectConfirmationMethod;
+import org.springframework.security.saml.saml2.metadata.NameId;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
+
+public class TemplateSerializerTests {
+
+	private static final DateTime NOW = new DateTime(1500000000000L);
+
+	private OpenSamlImplementation implementation;
+	private SimpleKey key;
+
+	@BeforeEach
+	public void setUp() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		key = IDP_RSA_KEY.getSimpleKey("idp");
+	}
+
+	@Test
+	public void unsigned_assertion_is_equivalent() throws Exception {
+		Assertion assertion = assertion(null);
+		String template = implementation.getTemplateSerializer().toXml(assertion);
+		assertNotNull(template);
+		assertThat(canonical(template), equalTo(canonical(implementation.toXml(assertion))));
+	}
+
+	@Test
+	public void signed_response_is_equivalent_and_verifies() throws Exception {
+		Response response = new Response()
+			.setId("R2")
+			.setInResponseTo("R1")
+			.setIssueInstant(NOW)
+			.setDestination("http://sp.localhost/acs?a=1&b=2")
+			.setIssuer(new Issuer().setValue("http://idp.localhost").setFormat(NameId.ENTITY))
+			.setStatus(new Status().setCode(StatusCode.SUCCESS).setMessage(" all \"good\" "))
+			.setAssertions(asList(assertion(key), assertion(null).setId("A2")))
+			.setSigningKey(key, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		String template = implementation.getTemplateSerializer().toXml(response);
+		assertNotNull(template);
+		assertThat(canonical(template), equalTo(canonical(implementation.toXml(response))));
+
+		Response parsed = (Response) implementation.resolve(template, asList(key), null);
+		assertTrue(parsed.getSignature().isValidated());
+		assertTrue(parsed.getAssertions().get(0).getSignature().isValidated());
+		assertThat(parsed.getAssertions().get(0).getSubject().getPrincipal().getValue(), equalTo("us<er>&\"co\""));
+		assertThat(parsed.getAssertions().get(0).getAttributes().size(), equalTo(1));
+	}
+
+	@Test
+	public void signed_assertion_verifies() throws Exception {
+		OpenSamlImplementation templates = new OpenSamlImplementation(Clock.systemUTC())
+			.setTemplateSerialization(true)
+			.init();
+		String xml = templates.toXml(assertion(key));
+		assertThat(templates.getTemplateSerializer().getSerialized(), equalTo(1L));
+		Assertion parsed = (Assertion) implementation.resolve(xml, asList(key), null);
+		assertTrue(parsed.getSignature().isValidated());
+	}
+
+	@Test
+	public void unsupported_shapes_are_left_to_the_object_graph() {
+		TemplateSerializer serializer = implementation.getTemplateSerializer();
+		Assertion ecdsa = assertion(key).setSigningKey(key, AlgorithmMethod.ECDSA_SHA256, DigestMethod.SHA256);
+		assertNull(serializer.toXml(ecdsa));
+		Assertion control = assertion(null).setIssuer("http://idp\u0001.localhost");
+		assertNull(serializer.toXml(control));
+		assertThat(serializer.getUnsupported(), equalTo(2L));
+	}
+
+	private Assertion assertion(SimpleKey signingKey) {
+		return new Assertion()
+			.setSigningKey(signingKey, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256)
+			.setId("A1")
+			.setIssueInstant(NOW)
+			.setIssuer("http://idp.localhost")
+			.setSubject(
+				new Subject()
+					.setPrincipal(
+						new NameIdPrincipal()
+							.setValue(" us<er>&\"co\"\r\n")
+							.setFormat(NameId.EMAIL)
+							.setNameQualifier("ignored")
+							.setSpNameQualifier("http://sp.localhost")
+					)
+					.addConfirmation(
+						new SubjectConfirmation()
+							.setMethod(SubjectConfirmationMethod.BEARER)
+							.setConfirmationData(
+								new SubjectConfirmationData()
+									.setInResponseTo("R1")
+									.setNotOnOrAfter(NOW.plusMinutes(5))
+									.setRecipient("http://sp.localhost/acs?a=1&b=2")
+							)
+					)
+			)
+			.setConditions(
+				new Conditions()
+					.setNotBefore(NOW)
+					.setNotOnOrAfter(NOW.plusMinutes(5))
+					.addCriteria(new AudienceRestriction().addAudience("http://sp.localhost").addAudience("other"))
+					.addCriteria(new OneTimeUse())
+			)
+			.addAuthenticationStatement(
+				new AuthenticationStatement()
+					.setAuthInstant(NOW)
+					.setSessionIndex("IDX1")
+					.setSessionNotOnOrAfter(NOW.plusHours(1))
+			)
+			.addAttribute(
+				new Attribute()
+					.setName("values")
+					.setFriendlyName("all\ttypes")
+					.setNameFormat(AttributeNameFormat.BASIC)
+					.setValues(asList("text\r\nline", URI.create("http://sp.localhost/a?b&c"), true, NOW, 42, 3.5d, null))
+			);
+	}
+
+	private static String canonical(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+		NodeList signatures = document.getElementsByTagNameNS("http://www.w3.org/2000/09/xmldsig#", "Signature");
+		while (signatures.getLength() > 0) {
+			signatures.item(0).getParentNode().removeChild(signatures.item(0));
+		}
+		byte[] result = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS)
+			.canonicalizeSubtree(document.getDocumentElement());
+		return new String(result, UTF_8);
+	}
+}
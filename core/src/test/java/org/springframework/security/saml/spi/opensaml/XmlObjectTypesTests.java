@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.time.Clock;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.metadata.Binding;
+import org.springframework.security.saml.saml2.metadata.Endpoint;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.impl.ResponseImpl;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
+
+public class XmlObjectTypesTests {
+
+	private OpenSamlImplementation implementation;
+	private XmlObjectTypes types;
+
+	@BeforeEach
+	public void setUp() {
+		implementation = new OpenSamlImplementation(Clock.systemUTC()).init();
+		types = implementation.getXmlObjectTypes();
+	}
+
+	@Test
+	public void types_are_resolved_once_per_class() {
+		XmlObjectTypes.XmlObjectType entry = types.get(Response.class);
+		assertThat(entry.getElementName(), equalTo(Response.DEFAULT_ELEMENT_NAME));
+		assertThat(entry.getBuilder(), notNullValue());
+		assertThat(entry.getUnmarshaller(), notNullValue());
+		assertThat(types.get(Response.class), sameInstance(entry));
+
+		Response response = implementation.buildSAMLObject(Response.class);
+		assertThat(response.getElementQName(), equalTo(Response.DEFAULT_ELEMENT_NAME));
+		assertThat(types.get(ResponseImpl.class).getMarshaller(), sameInstance(entry.getMarshaller()));
+		assertThat(types.getMarshaller(response), sameInstance(entry.getMarshaller()));
+	}
+
+	@Test
+	public void typed_and_renamed_objects_use_the_registry() {
+		XSString value = new XSStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+		assertThat(types.getMarshaller(value), notNullValue());
+		assertThat(
+			types.getMarshaller(value),
+			equalTo(implementation.getMarshallerFactory().getMarshaller(value))
+		);
+		assertThat(types.get(String.class).getElementName(), nullValue());
+		assertThat(types.get(Attribute.class).getMarshaller(), notNullValue());
+	}
+
+	@Test
+	public void signed_objects_are_serialized_from_their_signing_dom() throws Exception {
+		SimpleKey key = SP_RSA_KEY.getSimpleKey("sp");
+		AuthenticationRequest request = new AuthenticationRequest()
+			.setId("AR1")
+			.setIssuer(new Issuer().setValue("http://sp.localhost"))
+			.setBinding(Binding.POST)
+			.setDestination(new Endpoint().setLocation("http://idp.localhost/sso").setBinding(Binding.REDIRECT))
+			.setAssertionConsumerService(
+				new Endpoint().setLocation("http://sp.localhost/acs").setBinding(Binding.POST)
+			)
+			.setSigningKey(key, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		XMLObject object = implementation.toXmlObject(request);
+		assertThat(object.getDOM(), notNullValue());
+		assertThat(implementation.marshallToElement(object), sameInstance(object.getDOM()));
+
+		String xml = implementation.toXml(request);
+		AuthenticationRequest parsed = (AuthenticationRequest) implementation.resolve(xml, asList(key), null);
+		assertTrue(parsed.getSignature().isValidated());
+	}
+}
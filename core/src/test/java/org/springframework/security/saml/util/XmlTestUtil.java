@@ -45,6 +45,7 @@ public class XmlTestUtil {
 		nsContext.put("saml", Namespace.NS_ASSERTION);
 		nsContext.put("idpdisc", Namespace.NS_IDP_DISCOVERY);
 		nsContext.put("init", Namespace.NS_REQUEST_INIT);
+		nsContext.put("alg", "urn:oasis:names:tc:SAML:metadata:algsupport");
 		engine.setNamespaceContext(nsContext);
 	}
 